@@ -48,12 +48,15 @@ import se.sics.cooja.motes.AbstractEmulatedMote;
 import avrora.arch.avr.AVRProperties;
 import avrora.core.LoadableProgram;
 import avrora.sim.AtmelInterpreter;
+import avrora.sim.FiniteStateMachine;
 import avrora.sim.Simulator;
 import avrora.sim.State;
+import avrora.sim.clock.MainClock;
 import avrora.sim.mcu.AtmelMicrocontroller;
 import avrora.sim.mcu.EEPROM;
 import avrora.sim.platform.MicaZ;
 import avrora.sim.platform.PlatformFactory;
+import avrora.sim.radio.CC2420Radio;
 
 /**
  * @author Joakim Eriksson, Fredrik Osterlind
@@ -64,10 +67,14 @@ public class MicaZMote extends AbstractEmulatedMote implements Mote {
   /* 8 MHz according to Contiki config */
   public static long NR_CYCLES_PER_MSEC = 8000;
 
+  /* Longest sleep between wakeups: one second */
+  private static final long MAX_SLEEP_CYCLES = 1000*NR_CYCLES_PER_MSEC;
+
   private Simulation mySimulation = null;
   private MoteInterfaceHandler myMoteInterfaceHandler;
   private AtmelMicrocontroller myCpu = null;
   private MicaZ micaZ = null;
+  private CC2420Radio radio = null;
   private LoadableProgram program = null;
   private AtmelInterpreter interpreter = null;
   private AvrMoteMemory myMemory = null;
@@ -150,6 +157,7 @@ public class MicaZMote extends AbstractEmulatedMote implements Mote {
     micaZ = (MicaZ) factory.newPlatform(1, program.getProgram());
     myCpu = (AtmelMicrocontroller) micaZ.getMicrocontroller();
     eeprom = (EEPROM) myCpu.getDevice("eeprom");
+    radio = (CC2420Radio) micaZ.getDevice("radio");
     
     avrProperties = (AVRProperties) myCpu.getProperties();
     Simulator sim = myCpu.getSimulator();
@@ -194,6 +202,7 @@ public class MicaZMote extends AbstractEmulatedMote implements Mote {
 
   private long cyclesExecuted = 0;
   private long cyclesUntil = 0;
+  private long firstExecute = -1; /* Simulation time of cycle 0 */
   public void execute(long t) {
     /* Wait until mote boots */
     if (myMoteInterfaceHandler.getClock().getTime() < 0) {
@@ -206,21 +215,68 @@ public class MicaZMote extends AbstractEmulatedMote implements Mote {
       throw new RuntimeException("Avrora requested simulation stop");
     } 
 
+    if (firstExecute < 0) {
+      firstExecute = t;
+    }
+
     /* TODO Poll mote interfaces? */
 
-    /* Execute one millisecond */
-    cyclesUntil += NR_CYCLES_PER_MSEC;
+    /* Execute until one millisecond ahead of simulation time */
+    MainClock clock = interpreter.getMainClock();
+    cyclesUntil = (t - firstExecute + Simulation.MILLISECOND)*NR_CYCLES_PER_MSEC/Simulation.MILLISECOND;
     while (cyclesExecuted < cyclesUntil) {
+      if (isSleeping()) {
+        /* Fast-forward to next Avrora event, instead of stepping cycle by cycle */
+        long cycles = cyclesUntil - cyclesExecuted;
+        long nextEvent = clock.getFirstEventDelta();
+        if (nextEvent >= 0 && nextEvent < cycles) {
+          cycles = nextEvent;
+        }
+        if (cycles > 1) {
+          clock.advance(cycles);
+          cyclesExecuted += cycles;
+          continue;
+        }
+      }
       cyclesExecuted += interpreter.step();
     }
 
     /* TODO Poll mote interfaces? */
 
-    /* Schedule wakeup every millisecond */
-    /* TODO Optimize next wakeup time */
-    scheduleNextWakeup(t + Simulation.MILLISECOND);
+    /* Schedule wakeup every millisecond while awake or while radio is listening */
+    long nextWakeup = t + Simulation.MILLISECOND;
+    if (isSleeping() && !isRadioOn()) {
+      /* Sleep until next Avrora event */
+      long nextEvent = clock.getFirstEventDelta();
+      if (nextEvent < 0) {
+        nextEvent = MAX_SLEEP_CYCLES;
+      }
+      long wakeup = firstExecute - Simulation.MILLISECOND +
+          (cyclesExecuted + Math.min(nextEvent, MAX_SLEEP_CYCLES))*Simulation.MILLISECOND/NR_CYCLES_PER_MSEC;
+      if (wakeup > nextWakeup) {
+        nextWakeup = wakeup;
+      }
+    }
+    scheduleNextWakeup(nextWakeup);
   }
-  
+
+  /**
+   * @return True if the CPU is sleeping and no interrupt is pending, i.e.
+   * until the next Avrora event only the clock advances
+   */
+  private boolean isSleeping() {
+    int state = myCpu.getFSM().getCurrentState();
+    if (state == AtmelMicrocontroller.MODE_ACTIVE || state == FiniteStateMachine.IN_TRANSITION) {
+      return false;
+    }
+    return interpreter.getInterruptTable().getPendingInterrupts() == 0;
+  }
+
+  private boolean isRadioOn() {
+    /* CC2420 states 3 and above mean the radio is on */
+    return radio == null || radio.getFiniteStateMachine().getCurrentState() >= 3;
+  }
+
   public boolean setConfigXML(Simulation simulation, Collection<Element> configXML, boolean visAvailable) {
     setSimulation(simulation);
     initEmulator(myMoteType.getContikiFirmwareFile());
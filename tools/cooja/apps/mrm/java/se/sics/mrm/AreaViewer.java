@@ -40,6 +40,12 @@ import java.net.URL;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.swing.*;
 import javax.swing.filechooser.FileFilter;
 import org.apache.log4j.Logger;
@@ -138,6 +144,11 @@ public class AreaViewer extends VisPlugin {
 
   private Thread attenuatorThread = null;
 
+  // Channel image calculation: tile size and initial distance between
+  // calculated pixels. The tile size must be a multiple of the distance.
+  private static final int IMAGE_TILE_SIZE = 32;
+  private static final int IMAGE_COARSEST_STEP = 8;
+
   private JCheckBox showSettingsBox;
   private JCheckBox backgroundCheckBox;
   private JCheckBox obstaclesCheckBox;
@@ -1081,7 +1092,9 @@ public class AreaViewer extends VisPlugin {
             currentChannelModel.removeAllObstacles();
 
             int foundObstacles = 0;
+            ArrayList<Rectangle2D> columnObstacles = new ArrayList<Rectangle2D>();
             for (int x=0; x < obstacleArray.length; x++) {
+              columnObstacles.clear();
               for (int y=0; y < (obstacleArray[0]).length; y++) {
 
                 if (obstacleArray[x][y]) {
@@ -1100,14 +1113,16 @@ public class AreaViewer extends VisPlugin {
                     realHeight = backgroundStartY + backgroundHeight - realStartY;
                   }
 
-                  currentChannelModel.addRectObstacle(
+                  columnObstacles.add(new Rectangle2D.Double(
                       realStartX, realStartY,
-                      realWidth, realHeight,
-                      false
-                  );
+                      realWidth, realHeight
+                  ));
                 }
               }
 
+              /* Register column obstacles */
+              currentChannelModel.addRectObstacles(columnObstacles, false);
+
               /* Check if user has aborted */
               if (pm.isCanceled()) {
                 return;
@@ -1620,8 +1635,8 @@ public class AreaViewer extends VisPlugin {
         final double radioX = radioPosition.getXCoordinate();
         final double radioY = radioPosition.getYCoordinate();
 
-        // Create temporary image
-        final BufferedImage tempChannelImage = new BufferedImage(resolution.width, resolution.height, BufferedImage.TYPE_INT_ARGB);
+        // Data type to visualize
+        final ChannelModel.TransmissionData dataType = dataTypeToVisualize;
 
         // Save time for later analysis
         final long timeBeforeCalculating = System.currentTimeMillis();
@@ -1632,209 +1647,88 @@ public class AreaViewer extends VisPlugin {
             "Calculating channel attenuation",
             null,
             0,
-            resolution.width - 1
+            resolution.width * resolution.height
         );
 
         // Thread that will perform the work
         final Runnable runnable = new Runnable() {
           public void run() {
+            // Calculate pixels in tiles, using all available cores
+            int nrThreads = Runtime.getRuntime().availableProcessors();
+            ExecutorService executor = Executors.newFixedThreadPool(nrThreads);
             try {
-
-              // Available signal strength intervals
-              double lowestImageValue = Double.MAX_VALUE;
-              double highestImageValue = -Double.MAX_VALUE;
-
-              // Create image values (calculate each pixel)
-              double[][] imageValues = new double[resolution.width][resolution.height];
-              for (int x=0; x < resolution.width; x++) {
-                for (int y=0; y < resolution.height; y++) {
-
-                  if (dataTypeToVisualize == ChannelModel.TransmissionData.SIGNAL_STRENGTH) {
-                    // Attenuate
-                    double[] signalStrength = currentChannelModel.getReceivedSignalStrength(
-                        radioX,
-                        radioY,
-                        startX + width * x/resolution.width,
-                        startY + height * y/resolution.height
-                    );
-
-                    // Collecting signal strengths
-                    if (signalStrength[0] < lowestImageValue) {
-                      lowestImageValue = signalStrength[0];
-                    }
-                    if (signalStrength[0] > highestImageValue) {
-                      highestImageValue = signalStrength[0];
-                    }
-
-                    imageValues[x][y] = signalStrength[0];
-
-                  } else if (dataTypeToVisualize == ChannelModel.TransmissionData.SIGNAL_STRENGTH_VAR) {
-                    // Attenuate
-                    double[] signalStrength = currentChannelModel.getReceivedSignalStrength(
-                        radioX,
-                        radioY,
-                        startX + width * x/resolution.width,
-                        startY + height * y/resolution.height
-                    );
-
-                    // Collecting variances
-                    if (signalStrength[1] < lowestImageValue) {
-                      lowestImageValue = signalStrength[1];
-                    }
-                    if (signalStrength[1] > highestImageValue) {
-                      highestImageValue = signalStrength[1];
-                    }
-
-                    imageValues[x][y] = signalStrength[1];
-
-                  } else if (dataTypeToVisualize == ChannelModel.TransmissionData.SNR) {
-                    // Get signal to noise ratio
-                    double[] snr = currentChannelModel.getSINR(
-                        radioX,
-                        radioY,
-                        startX + width * x/resolution.width,
-                        startY + height * y/resolution.height,
-                        -Double.MAX_VALUE
-                    );
-
-                    // Collecting signal to noise ratio
-                    if (snr[0] < lowestImageValue) {
-                      lowestImageValue = snr[0];
-                    }
-                    if (snr[0] > highestImageValue) {
-                      highestImageValue = snr[0];
-                    }
-
-                    imageValues[x][y] = snr[0];
-
-                  } else if (dataTypeToVisualize == ChannelModel.TransmissionData.SNR_VAR) {
-                    // Get signal to noise ratio
-                    double[] snr = currentChannelModel.getSINR(
-                        radioX,
-                        radioY,
-                        startX + width * x/resolution.width,
-                        startY + height * y/resolution.height,
-                        -Double.MAX_VALUE
-                    );
-
-                    // Collecting variances
-                    if (snr[1] < lowestImageValue) {
-                      lowestImageValue = snr[1];
-                    }
-                    if (snr[1] > highestImageValue) {
-                      highestImageValue = snr[1];
-                    }
-
-                    imageValues[x][y] = snr[1];
-                  } else if (dataTypeToVisualize == ChannelModel.TransmissionData.PROB_OF_RECEPTION) {
-                    // Get probability of receiving a packet TODO What size? Does it matter?
-                    double probability = currentChannelModel.getProbability(
-                        radioX,
-                        radioY,
-                        startX + width * x/resolution.width,
-                        startY + height * y/resolution.height,
-                        -Double.MAX_VALUE
-                    )[0];
-
-                    // Collecting variances
-                    if (probability < lowestImageValue) {
-                      lowestImageValue = probability;
-                    }
-                    if (probability > highestImageValue) {
-                      highestImageValue = probability;
-                    }
-
-                    imageValues[x][y] = probability;
-                  } else if (dataTypeToVisualize == ChannelModel.TransmissionData.DELAY_SPREAD_RMS) {
-                    // Get RMS delay spread of receiving a packet
-                    double rmsDelaySpread = currentChannelModel.getRMSDelaySpread(
-                        radioX,
-                        radioY,
-                        startX + width * x/resolution.width,
-                        startY + height * y/resolution.height
-                    );
-
-                    // Collecting variances
-                    if (rmsDelaySpread < lowestImageValue) {
-                      lowestImageValue = rmsDelaySpread;
+              final double[][] imageValues = new double[resolution.width][resolution.height];
+              final AtomicInteger pixelsDone = new AtomicInteger(0);
+              final AtomicBoolean failed = new AtomicBoolean(false);
+              final int tilesX = (resolution.width + IMAGE_TILE_SIZE - 1) / IMAGE_TILE_SIZE;
+              final int tilesY = (resolution.height + IMAGE_TILE_SIZE - 1) / IMAGE_TILE_SIZE;
+
+              // Progressive refinement: each pass halves the distance between
+              // calculated pixels, and shows the resulting image
+              for (int step = IMAGE_COARSEST_STEP; step >= 1; step /= 2) {
+                final int passStep = step;
+                final boolean firstPass = step == IMAGE_COARSEST_STEP;
+                final AtomicInteger nextTile = new AtomicInteger(0);
+                final CountDownLatch passDone = new CountDownLatch(nrThreads);
+
+                // Idle threads fetch the next tile
+                Runnable worker = new Runnable() {
+                  public void run() {
+                    try {
+                      int tile;
+                      while (!pm.isCanceled() && !failed.get() &&
+                          (tile = nextTile.getAndIncrement()) < tilesX*tilesY) {
+                        int tileX = (tile % tilesX) * IMAGE_TILE_SIZE;
+                        int tileY = (tile / tilesX) * IMAGE_TILE_SIZE;
+                        int endX = Math.min(tileX + IMAGE_TILE_SIZE, resolution.width);
+                        int endY = Math.min(tileY + IMAGE_TILE_SIZE, resolution.height);
+                        for (int x=tileX; x < endX; x += passStep) {
+                          for (int y=tileY; y < endY; y += passStep) {
+                            if (!firstPass && x % (2*passStep) == 0 && y % (2*passStep) == 0) {
+                              // Calculated in an earlier pass
+                              continue;
+                            }
+                            imageValues[x][y] = calculateImageValue(
+                                dataType,
+                                radioX,
+                                radioY,
+                                startX + width * x/resolution.width,
+                                startY + height * y/resolution.height
+                            );
+                            pixelsDone.incrementAndGet();
+                          }
+                        }
+                      }
+                    } catch (Exception ex) {
+                      logger.fatal("Attenuation aborted: " + ex);
+                      ex.printStackTrace();
+                      failed.set(true);
+                    } finally {
+                      passDone.countDown();
                     }
-                    if (rmsDelaySpread > highestImageValue) {
-                      highestImageValue = rmsDelaySpread;
-                    }
-
-                    imageValues[x][y] = rmsDelaySpread;
-                  }
-
-                  // Check if the dialog has been canceled
-                  if (pm.isCanceled()) {
-                    return;
                   }
-
-                  // Update progress
-                  pm.setProgress(x);
-
+                };
+                for (int i=0; i < nrThreads; i++) {
+                  executor.execute(worker);
                 }
-              }
 
-              // Adjust coloring signal strength limit
-              if (coloringIsFixed) {
-                if (dataTypeToVisualize == ChannelModel.TransmissionData.SIGNAL_STRENGTH) {
-                  lowestImageValue = -100;
-                  highestImageValue = 0;
-                } else if (dataTypeToVisualize == ChannelModel.TransmissionData.SIGNAL_STRENGTH_VAR) {
-                  lowestImageValue = 0;
-                  highestImageValue = 20;
-                } else if (dataTypeToVisualize == ChannelModel.TransmissionData.SNR) {
-                  lowestImageValue = -10;
-                  highestImageValue = 30;
-                } else if (dataTypeToVisualize == ChannelModel.TransmissionData.SNR_VAR) {
-                  lowestImageValue = 0;
-                  highestImageValue = 20;
-                } else if (dataTypeToVisualize == ChannelModel.TransmissionData.PROB_OF_RECEPTION) {
-                  lowestImageValue = 0;
-                  highestImageValue = 1;
-                } else if (dataTypeToVisualize == ChannelModel.TransmissionData.DELAY_SPREAD_RMS) {
-                  lowestImageValue = 0;
-                  highestImageValue = 5;
+                // Update progress until pass is done
+                while (!passDone.await(100, TimeUnit.MILLISECONDS)) {
+                  pm.setProgress(pixelsDone.get());
                 }
-              }
-
-              // Save coloring high-low interval
-              coloringHighest = highestImageValue;
-              coloringLowest = lowestImageValue;
-
-              // Create image
-              for (int x=0; x < resolution.width; x++) {
-                for (int y=0; y < resolution.height; y++) {
-
-                  tempChannelImage.setRGB(
-                      x,
-                      y,
-                      getColorOfSignalStrength(imageValues[x][y], lowestImageValue, highestImageValue)
-                  );
+                if (pm.isCanceled() || failed.get()) {
+                  return;
                 }
-              }
-              logger.info("Attenuating area done, time=" + (System.currentTimeMillis() - timeBeforeCalculating));
-
-              // Repaint to show the new channel propagation
-              channelStartX = startX;
-              channelStartY = startY;
-              channelWidth = width;
-              channelHeight = height;
-              channelImage = tempChannelImage;
 
-              thisPlugin.repaint();
-              coloringIntervalPanel.repaint();
-
-            } catch (Exception ex) {
-              if (pm.isCanceled()) {
-                return;
+                showImage(imageValues, passStep, dataType, resolution, startX, startY, width, height);
               }
-              logger.fatal("Attenuation aborted: " + ex);
-              ex.printStackTrace();
+
+              logger.info("Attenuating area done, time=" + (System.currentTimeMillis() - timeBeforeCalculating));
+            } catch (InterruptedException ex) {
+            } finally {
+              executor.shutdownNow();
               pm.close();
             }
-            pm.close();
           }
         };
 
@@ -1845,6 +1739,123 @@ public class AreaViewer extends VisPlugin {
     }
   };
 
+  /**
+   * Calculates the visualized channel data at a single position.
+   * May be called concurrently from several threads.
+   *
+   * @param dataType Data type to visualize
+   * @param radioX Transmitting radio position X
+   * @param radioY Transmitting radio position Y
+   * @param x Position X
+   * @param y Position Y
+   * @return Value at position
+   */
+  private double calculateImageValue(ChannelModel.TransmissionData dataType,
+      double radioX, double radioY, double x, double y) {
+    if (dataType == ChannelModel.TransmissionData.SIGNAL_STRENGTH) {
+      // Attenuate
+      return currentChannelModel.getReceivedSignalStrength(radioX, radioY, x, y)[0];
+    } else if (dataType == ChannelModel.TransmissionData.SIGNAL_STRENGTH_VAR) {
+      // Attenuate, collecting variances
+      return currentChannelModel.getReceivedSignalStrength(radioX, radioY, x, y)[1];
+    } else if (dataType == ChannelModel.TransmissionData.SNR) {
+      // Get signal to noise ratio
+      return currentChannelModel.getSINR(radioX, radioY, x, y, -Double.MAX_VALUE)[0];
+    } else if (dataType == ChannelModel.TransmissionData.SNR_VAR) {
+      // Get signal to noise ratio, collecting variances
+      return currentChannelModel.getSINR(radioX, radioY, x, y, -Double.MAX_VALUE)[1];
+    } else if (dataType == ChannelModel.TransmissionData.PROB_OF_RECEPTION) {
+      // Get probability of receiving a packet TODO What size? Does it matter?
+      return currentChannelModel.getProbability(radioX, radioY, x, y, -Double.MAX_VALUE)[0];
+    } else if (dataType == ChannelModel.TransmissionData.DELAY_SPREAD_RMS) {
+      // Get RMS delay spread of receiving a packet
+      return currentChannelModel.getRMSDelaySpread(radioX, radioY, x, y);
+    }
+    return 0;
+  }
+
+  /**
+   * Creates and shows a channel image from the calculated pixels.
+   * Pixels not yet calculated are colored as the closest calculated pixel
+   * up and to the left.
+   *
+   * @param imageValues Pixel values
+   * @param step Distance between calculated pixels
+   * @param dataType Visualized data type
+   * @param resolution Image resolution
+   * @param startX Area start X
+   * @param startY Area start Y
+   * @param width Area width
+   * @param height Area height
+   */
+  private void showImage(double[][] imageValues, int step,
+      ChannelModel.TransmissionData dataType, Dimension resolution,
+      double startX, double startY, double width, double height) {
+
+    // Available signal strength intervals
+    double lowestImageValue = Double.MAX_VALUE;
+    double highestImageValue = -Double.MAX_VALUE;
+    for (int x=0; x < resolution.width; x += step) {
+      for (int y=0; y < resolution.height; y += step) {
+        if (imageValues[x][y] < lowestImageValue) {
+          lowestImageValue = imageValues[x][y];
+        }
+        if (imageValues[x][y] > highestImageValue) {
+          highestImageValue = imageValues[x][y];
+        }
+      }
+    }
+
+    // Adjust coloring signal strength limit
+    if (coloringIsFixed) {
+      if (dataType == ChannelModel.TransmissionData.SIGNAL_STRENGTH) {
+        lowestImageValue = -100;
+        highestImageValue = 0;
+      } else if (dataType == ChannelModel.TransmissionData.SIGNAL_STRENGTH_VAR) {
+        lowestImageValue = 0;
+        highestImageValue = 20;
+      } else if (dataType == ChannelModel.TransmissionData.SNR) {
+        lowestImageValue = -10;
+        highestImageValue = 30;
+      } else if (dataType == ChannelModel.TransmissionData.SNR_VAR) {
+        lowestImageValue = 0;
+        highestImageValue = 20;
+      } else if (dataType == ChannelModel.TransmissionData.PROB_OF_RECEPTION) {
+        lowestImageValue = 0;
+        highestImageValue = 1;
+      } else if (dataType == ChannelModel.TransmissionData.DELAY_SPREAD_RMS) {
+        lowestImageValue = 0;
+        highestImageValue = 5;
+      }
+    }
+
+    // Save coloring high-low interval
+    coloringHighest = highestImageValue;
+    coloringLowest = lowestImageValue;
+
+    // Create image
+    BufferedImage tempChannelImage = new BufferedImage(resolution.width, resolution.height, BufferedImage.TYPE_INT_ARGB);
+    for (int x=0; x < resolution.width; x++) {
+      for (int y=0; y < resolution.height; y++) {
+        tempChannelImage.setRGB(
+            x,
+            y,
+            getColorOfSignalStrength(imageValues[x - x%step][y - y%step], lowestImageValue, highestImageValue)
+        );
+      }
+    }
+
+    // Repaint to show the new channel propagation
+    channelStartX = startX;
+    channelStartY = startY;
+    channelWidth = width;
+    channelHeight = height;
+    channelImage = tempChannelImage;
+
+    thisPlugin.repaint();
+    coloringIntervalPanel.repaint();
+  }
+
   /**
    * Repaint the canvas
    * @param g2d Current graphics to paint on
@@ -58,15 +58,16 @@ public class ChannelModel {
   private Properties parameterDescriptions = new Properties();
 
   // Parameters used for speeding up calculations
-  private boolean needToPrecalculateFSPL = true;
+  private volatile boolean needToPrecalculateFSPL = true;
   private static double paramFSPL = 0;
-  private boolean needToPrecalculateOutputPower = true;
+  private volatile boolean needToPrecalculateOutputPower = true;
   private static double paramOutputPower = 0;
 
   private ObstacleWorld myObstacleWorld = new ObstacleWorld();
 
   // Ray tracing components temporary vector
-  private boolean inLoggingMode = false;
+  // Only the thread currently fetching rays is in logging mode
+  private volatile Thread loggingThread = null;
   private Vector<Line2D> savedRays = null;
   private Vector<Vector<Line2D>> calculatedVisibleSides = new Vector<Vector<Line2D>>();
   private Vector<Point2D> calculatedVisibleSidesSources = new Vector<Point2D>();
@@ -74,11 +75,38 @@ public class ChannelModel {
   private Vector<AngleInterval> calculatedVisibleSidesAngleIntervals = new Vector<AngleInterval>();
   private static int maxSavedVisibleSides = 30; // Max size of lists above
 
+  // Ray tracing results cache, per source position: visible lines tree and
+  // path data per destination position. Least recently used sources and
+  // destinations are evicted. Moved radios simply get new cache entries.
+  // Cleared whenever settings or obstacles change.
+  // Concurrent queries are allowed, as long as settings are not changed.
+  private static final int MAX_CACHED_SOURCES = 64;
+  private static final int MAX_CACHED_DESTINATIONS = 1024; // Per source
+  private LinkedHashMap<Point2D, CachedSource> cachedSources =
+    new LinkedHashMap<Point2D, CachedSource>(16, 0.75f, true) {
+    protected boolean removeEldestEntry(Map.Entry<Point2D, CachedSource> eldest) {
+      return size() > MAX_CACHED_SOURCES;
+    }
+  };
+
+  private int cacheGeneration = 0; // Incremented when cache is cleared
+
+  private static class CachedSource {
+    DefaultMutableTreeNode visibleLinesTree = null;
+    LinkedHashMap<Point2D, double[]> pathData =
+      new LinkedHashMap<Point2D, double[]>(16, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry<Point2D, double[]> eldest) {
+        return size() > MAX_CACHED_DESTINATIONS;
+      }
+    };
+  }
+
   /**
    * Notifies observers when this channel model has changed settings.
    */
   private class SettingsObservable extends Observable {
     private void notifySettingsChanged() {
+      clearCache();
       setChanged();
       notifyObservers();
     }
@@ -239,6 +267,24 @@ public class ChannelModel {
    */
   public void addRectObstacle(double startX, double startY, double width, double height, boolean notify) {
     myObstacleWorld.addObstacle(startX, startY, width, height);
+    clearCache();
+
+    if (notify) {
+      settingsObservable.notifySettingsChanged();
+    }
+  }
+
+  /**
+   * Add several new obstacles with rectangle shapes.
+   * Obstacles are added in order, and are merged as if added one by one.
+   * Notifies observers depending on given notify argument.
+   *
+   * @param obstacles Obstacles
+   * @param notify If true, notifies all observers of the new obstacles
+   */
+  public void addRectObstacles(Collection<Rectangle2D> obstacles, boolean notify) {
+    myObstacleWorld.addObstacles(obstacles, true);
+    clearCache();
 
     if (notify) {
       settingsObservable.notifySettingsChanged();
@@ -341,6 +387,14 @@ public class ChannelModel {
     return ((String) value);
   }
 
+  /**
+   * @return True if the current thread is fetching rays
+   * @see #getRaysOfTransmission(double, double, double, double)
+   */
+  private boolean inLoggingMode() {
+    return loggingThread == Thread.currentThread();
+  }
+
   /**
    * When this method is called all settings observers
    * will be notified.
@@ -349,6 +403,78 @@ public class ChannelModel {
     settingsObservable.notifySettingsChanged();
   }
 
+  /**
+   * Clears all cached ray tracing results.
+   * Called when settings or obstacles change.
+   */
+  private void clearCache() {
+    synchronized (cachedSources) {
+      cachedSources.clear();
+      cacheGeneration++;
+    }
+    synchronized (calculatedVisibleSides) {
+      calculatedVisibleSides.clear();
+      calculatedVisibleSidesSources.clear();
+      calculatedVisibleSidesLines.clear();
+      calculatedVisibleSidesAngleIntervals.clear();
+    }
+  }
+
+  /**
+   * Returns the visible lines tree of given origin, building it unless cached.
+   * Concurrent queries from the same source wait for a single tree to be built.
+   *
+   * @param originRayData Origin ray data
+   * @return Visible lines tree
+   */
+  private DefaultMutableTreeNode getVisibleLinesTree(RayData originRayData) {
+    CachedSource cached;
+    synchronized (cachedSources) {
+      cached = getCachedSource(originRayData.getSourcePoint());
+    }
+    synchronized (cached) {
+      if (cached.visibleLinesTree == null) {
+        cached.visibleLinesTree = buildVisibleLinesTree(originRayData);
+      }
+      return cached.visibleLinesTree;
+    }
+  }
+
+  private int getCacheGeneration() {
+    synchronized (cachedSources) {
+      return cacheGeneration;
+    }
+  }
+
+  private double[] getCachedPathData(Point2D source, Point2D dest) {
+    synchronized (cachedSources) {
+      CachedSource cached = cachedSources.get(source);
+      if (cached == null) {
+        return null;
+      }
+      return cached.pathData.get(dest);
+    }
+  }
+
+  private void cachePathData(Point2D source, Point2D dest, double[] pathData, int generation) {
+    synchronized (cachedSources) {
+      if (generation != cacheGeneration) {
+        /* Calculated using old settings */
+        return;
+      }
+      getCachedSource(source).pathData.put(dest, pathData);
+    }
+  }
+
+  private CachedSource getCachedSource(Point2D source) {
+    CachedSource cached = cachedSources.get(source);
+    if (cached == null) {
+      cached = new CachedSource();
+      cachedSources.put(source, cached);
+    }
+    return cached;
+  }
+
   /**
    * Returns the Free Space Path Loss factor (in dB), by using
    * parts of the Friis equation. (FSPL <= 0)
@@ -816,6 +942,11 @@ public class ChannelModel {
    * @return True if no obstacles between source and destination
    */
   private boolean isDirectPath(Point2D source, Point2D dest) {
+    // No obstacle near path => no visible sides can intersect it
+    if (!myObstacleWorld.mayIntersectObstacle(source.getX(), source.getY(), dest.getX(), dest.getY())) {
+      return true;
+    }
+
     Line2D sourceToDest = new Line2D.Double(source, dest);
 
     // Get angle
@@ -864,11 +995,9 @@ public class ChannelModel {
     Point2D source = new Point2D.Double(sourceX, sourceY);
 
     // Destination inside an obstacle? => no reflection factor
-    for (int i=0; i < myObstacleWorld.getNrObstacles(); i++) {
-      if (myObstacleWorld.getObstacle(i).contains(dest)) {
-        //logger.debug("Destination inside obstacle, aborting fast fading");
-        return 0;
-      }
+    if (myObstacleWorld.isInsideObstacle(dest.getX(), dest.getY())) {
+      //logger.debug("Destination inside obstacle, aborting fast fading");
+      return 0;
     }
 
     return 0;
@@ -920,32 +1049,34 @@ public class ChannelModel {
     Point2D source = new Point2D.Double(sourceX, sourceY);
 
     // Check if results were already calculated earlier
-    for (int i=0; i < calculatedVisibleSidesSources.size(); i++) {
-      if (
-          // Compare sources
-          source.equals(calculatedVisibleSidesSources.get(i)) &&
-
-          // Compare angle intervals
-          (angleInterval == calculatedVisibleSidesAngleIntervals.get(i) ||
-              angleInterval != null && angleInterval.equals(calculatedVisibleSidesAngleIntervals.get(i)) ) &&
-
-              // Compare lines
-              (lookThrough == calculatedVisibleSidesLines.get(i) ||
-                  lookThrough != null && lookThrough.equals(calculatedVisibleSidesLines.get(i)) )
-      ) {
-        // Move to top of list
-        Point2D oldSource = calculatedVisibleSidesSources.remove(i);
-        Line2D oldLine = calculatedVisibleSidesLines.remove(i);
-        AngleInterval oldAngleInterval = calculatedVisibleSidesAngleIntervals.remove(i);
-        Vector<Line2D> oldVisibleLines = calculatedVisibleSides.remove(i);
-
-        calculatedVisibleSidesSources.add(0, oldSource);
-        calculatedVisibleSidesLines.add(0, oldLine);
-        calculatedVisibleSidesAngleIntervals.add(0, oldAngleInterval);
-        calculatedVisibleSides.add(0, oldVisibleLines);
-
-        // Return old results
-        return oldVisibleLines;
+    synchronized (calculatedVisibleSides) {
+      for (int i=0; i < calculatedVisibleSidesSources.size(); i++) {
+        if (
+            // Compare sources
+            source.equals(calculatedVisibleSidesSources.get(i)) &&
+
+            // Compare angle intervals
+            (angleInterval == calculatedVisibleSidesAngleIntervals.get(i) ||
+                angleInterval != null && angleInterval.equals(calculatedVisibleSidesAngleIntervals.get(i)) ) &&
+
+                // Compare lines
+                (lookThrough == calculatedVisibleSidesLines.get(i) ||
+                    lookThrough != null && lookThrough.equals(calculatedVisibleSidesLines.get(i)) )
+        ) {
+          // Move to top of list
+          Point2D oldSource = calculatedVisibleSidesSources.remove(i);
+          Line2D oldLine = calculatedVisibleSidesLines.remove(i);
+          AngleInterval oldAngleInterval = calculatedVisibleSidesAngleIntervals.remove(i);
+          Vector<Line2D> oldVisibleLines = calculatedVisibleSides.remove(i);
+
+          calculatedVisibleSidesSources.add(0, oldSource);
+          calculatedVisibleSidesLines.add(0, oldLine);
+          calculatedVisibleSidesAngleIntervals.add(0, oldAngleInterval);
+          calculatedVisibleSides.add(0, oldVisibleLines);
+
+          // Return old results
+          return oldVisibleLines;
+        }
       }
     }
 
@@ -1287,19 +1418,21 @@ public class ChannelModel {
     } // End of outer loop
 
     // Save results in order to speed up later calculations
-    int size = calculatedVisibleSides.size();
-    // Crop saved sides vectors
-    if (size >= maxSavedVisibleSides) {
-      calculatedVisibleSides.remove(size-1);
-      calculatedVisibleSidesSources.remove(size-1);
-      calculatedVisibleSidesAngleIntervals.remove(size-1);
-      calculatedVisibleSidesLines.remove(size-1);
-    }
+    synchronized (calculatedVisibleSides) {
+      int size = calculatedVisibleSides.size();
+      // Crop saved sides vectors
+      if (size >= maxSavedVisibleSides) {
+        calculatedVisibleSides.remove(size-1);
+        calculatedVisibleSidesSources.remove(size-1);
+        calculatedVisibleSidesAngleIntervals.remove(size-1);
+        calculatedVisibleSidesLines.remove(size-1);
+      }
 
-    calculatedVisibleSides.add(0, visibleLines);
-    calculatedVisibleSidesSources.add(0, source);
-    calculatedVisibleSidesAngleIntervals.add(0, angleInterval);
-    calculatedVisibleSidesLines.add(0, lookThrough);
+      calculatedVisibleSides.add(0, visibleLines);
+      calculatedVisibleSidesSources.add(0, source);
+      calculatedVisibleSidesAngleIntervals.add(0, angleInterval);
+      calculatedVisibleSidesLines.add(0, lookThrough);
+    }
 
     return visibleLines;
   }
@@ -1325,12 +1458,14 @@ public class ChannelModel {
     return getTransmissionData(sourceX, sourceY, destX, destY, TransmissionData.SIGNAL_STRENGTH);
   }
 
-  // TODO Fix better data type support
-  private double[] getTransmissionData(double sourceX, double sourceY, double destX, double destY, TransmissionData dataType) {
-    Point2D source = new Point2D.Double(sourceX, sourceY);
-    Point2D dest = new Point2D.Double(destX, destY);
-    double accumulatedVariance = 0;
-
+  /**
+   * Ray traces all paths from source to destination, and combines them.
+   *
+   * @param source Source position
+   * @param dest Destination position
+   * @return Total path gain (dB), delay spread and RMS delay spread
+   */
+  private double[] calculatePathData(Point2D source, Point2D dest) {
     // - Get all ray paths from source to destination -
     RayData originRayData = new RayData(
         RayData.RayType.ORIGIN,
@@ -1345,14 +1480,12 @@ public class ChannelModel {
     // TODO Current (changing) signal strength should be built into 'build visible lines' to speed up things!
 
     // Check if origin tree is already calculated and saved
-    DefaultMutableTreeNode visibleLinesTree = null;
-    visibleLinesTree =
-      buildVisibleLinesTree(originRayData);
+    DefaultMutableTreeNode visibleLinesTree = getVisibleLinesTree(originRayData);
 
     // Calculate all paths from source to destination, using above calculated tree
     Vector<RayPath> allPaths = getConnectingPaths(source, dest, visibleLinesTree);
 
-    if (inLoggingMode) {
+    if (inLoggingMode()) {
       logger.info("Saved rays:");
       Enumeration<RayPath> pathsEnum = allPaths.elements();
       while (pathsEnum.hasMoreElements()) {
@@ -1481,10 +1614,10 @@ public class ChannelModel {
 
         // Using Rician fading approach, TODO Only one best signal considered - combine these? (need two limits)
         totalPathGain += Math.pow(10, pathGain[i]/10.0)*Math.cos(2*Math.PI * pathModdedLengths[i]/wavelength);
-        if (inLoggingMode) {
+        if (inLoggingMode()) {
           logger.info("Adding ray path with gain " + pathGain[i] + " and phase " + (2*Math.PI * pathModdedLengths[i]/wavelength));
         }
-      } else if (inLoggingMode) {
+      } else if (inLoggingMode()) {
         pathModdedLengths[i] = (pathLengths[i] - pathLengths[bestSignalNr]) % wavelength;
         logger.info("Not adding ray path with gain " + pathGain[i] + " and phase " + (2*Math.PI * pathModdedLengths[i]/wavelength));
       }
@@ -1499,12 +1632,37 @@ public class ChannelModel {
     // Convert back to dB
     totalPathGain = 10*Math.log10(Math.abs(totalPathGain));
 
-    if (inLoggingMode) {
+    if (inLoggingMode()) {
       logger.info("Total path gain:\t" + totalPathGain);
       logger.info("Delay spread:\t" + delaySpread);
       logger.info("RMS Delay spread:\t" + delaySpreadRMS);
     }
 
+    return new double[] {totalPathGain, delaySpread, delaySpreadRMS};
+  }
+
+  // TODO Fix better data type support
+  private double[] getTransmissionData(double sourceX, double sourceY, double destX, double destY, TransmissionData dataType) {
+    Point2D source = new Point2D.Double(sourceX, sourceY);
+    Point2D dest = new Point2D.Double(destX, destY);
+    double accumulatedVariance = 0;
+
+    // - Get total path gain and delay spreads, ray tracing if not cached -
+    double[] pathData = null;
+    int generation = getCacheGeneration();
+    if (!inLoggingMode()) {
+      pathData = getCachedPathData(source, dest);
+    }
+    if (pathData == null) {
+      pathData = calculatePathData(source, dest);
+      if (!inLoggingMode()) {
+        cachePathData(source, dest, pathData, generation);
+      }
+    }
+    double totalPathGain = pathData[0];
+    double delaySpread = pathData[1];
+    double delaySpreadRMS = pathData[2];
+
     // - Calculate received power -
     // Using formula (dB)
     //  Received power = Output power + System gain + Transmitter gain + Path Loss + Receiver gain
@@ -1520,7 +1678,7 @@ public class ChannelModel {
     double transmitterGain = getParameterDoubleValue("tx_antenna_gain"); // TODO Should depend on angle
 
     double receivedPower = outputPower + systemGain + transmitterGain + totalPathGain;
-    if (inLoggingMode) {
+    if (inLoggingMode()) {
       logger.info("Resulting received signal strength:\t" + receivedPower + " (" + accumulatedVariance + ")");
     }
 
@@ -1542,16 +1700,18 @@ public class ChannelModel {
    * @param destY Destination position Y
    * @return All resulting rays of a simulated transmission from source to destination
    */
-  public Vector<Line2D> getRaysOfTransmission(double sourceX, double sourceY, double destX, double destY) {
+  public synchronized Vector<Line2D> getRaysOfTransmission(double sourceX, double sourceY, double destX, double destY) {
 
     // Reset current rays vector
-    inLoggingMode = true;
+    loggingThread = Thread.currentThread();
     savedRays = new Vector<Line2D>();
 
     // Calculate rays, ignore power
-    getProbability(sourceX, sourceY, destX, destY, -Double.MAX_VALUE);
-
-    inLoggingMode = false;
+    try {
+      getProbability(sourceX, sourceY, destX, destY, -Double.MAX_VALUE);
+    } finally {
+      loggingThread = null;
+    }
 
     return savedRays;
   }
@@ -1601,7 +1761,7 @@ public class ChannelModel {
     snrData[0] -= noiseMean;
     snrData[1] += noiseVariance;
 
-    if (inLoggingMode) {
+    if (inLoggingMode()) {
       logger.info("SNR at receiver:\t" + snrData[0] + " (" + snrData[1] + ")");
     }
     return snrData;
@@ -1635,7 +1795,7 @@ public class ChannelModel {
 
     // Check signal strength against receiver sensitivity and interference
     if (rxSensitivity > signalStrength - snrMean && threshold < rxSensitivity + snrMean - signalStrength) {
-      if (inLoggingMode) {
+      if (inLoggingMode()) {
         logger.info("Signal to low for receiver sensitivity, increasing threshold");
       }
 
@@ -1660,7 +1820,7 @@ public class ChannelModel {
     double probReception = 1 - GaussianWrapper.cdfErrorAlgo(
         threshold, snrMean, snrStdDev);
 
-    if (inLoggingMode) {
+    if (inLoggingMode()) {
       logger.info("Probability of reception: " + probReception);
     }
 
@@ -31,10 +31,10 @@
 
 package se.sics.mrm;
 
-import java.awt.Point;
 import java.awt.geom.*;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Enumeration;
+import java.util.List;
 import java.util.Vector;
 import org.apache.log4j.Logger;
 import org.jdom.Element;
@@ -43,34 +43,168 @@ import org.jdom.Element;
  * This class represents an area with obstacles.
  * Obstacles may only be of rectangular shape.
  * 
+ * Obstacles are organized in a uniform grid covering the outer bounds of
+ * all obstacles. The grid resolution adapts to the number of obstacles,
+ * and the grid is rebuilt on the first query after obstacles change.
+ * 
  * @author Fredrik Osterlind
  */
 class ObstacleWorld {
   private static Logger logger = Logger.getLogger(ObstacleWorld.class);
   
+  // Grid resolution bounds, the resolution aims at about four obstacles per box
+  private static final int MIN_SPATIAL_RESOLUTION = 10;
+  private static final int MAX_SPATIAL_RESOLUTION = 64;
+
+  // Margin used by segment queries, coordinates are rounded to mm
+  private static final double SEGMENT_MARGIN = 0.001;
+
   // All registered obstacles
-  private Vector<Rectangle2D> allObstacles = null;
+  private ArrayList<Rectangle2D> allObstacles = null;
   
-  // All registered obstacles, with spatial information
-  private int spatialResolution = 10;
-  private Vector<Rectangle2D>[][] allObstaclesSpatial = new Vector[spatialResolution][spatialResolution];
-  private boolean obstaclesOrganized = false;
+  // All registered obstacles, with spatial information (null when outdated)
+  private volatile SpatialGrid spatialGrid = null;
   
   // Outer bounds of all obstacles
   private Rectangle2D outerBounds = null;
   
+  /**
+   * Immutable snapshot of all obstacles, organized in a uniform grid.
+   * 
+   * Obstacle bounds are stored in flat arrays. The obstacles of grid cell
+   * (x, y) are cellObstacles[cellStart[c]] .. cellObstacles[cellStart[c+1]-1],
+   * where c = x*resolution + y, in registration order.
+   */
+  private static class SpatialGrid {
+    final int resolution;
+    final double areaStartX, areaStartY;
+    final double boxWidth, boxHeight;
+
+    final Rectangle2D[] obstacles;
+    final double[] minX, minY, maxX, maxY;
+
+    final int[] cellStart;
+    final int[] cellObstacles;
+
+    SpatialGrid(List<Rectangle2D> allObstacles, Rectangle2D outerBounds) {
+      int nrObstacles = allObstacles.size();
+      resolution = Math.max(MIN_SPATIAL_RESOLUTION,
+          Math.min(MAX_SPATIAL_RESOLUTION, (int) Math.ceil(Math.sqrt(nrObstacles/4.0))));
+      boxWidth = outerBounds.getWidth() / (double) resolution;
+      boxHeight = outerBounds.getHeight() / (double) resolution;
+      areaStartX = outerBounds.getMinX();
+      areaStartY = outerBounds.getMinY();
+
+      obstacles = allObstacles.toArray(new Rectangle2D[nrObstacles]);
+      minX = new double[nrObstacles];
+      minY = new double[nrObstacles];
+      maxX = new double[nrObstacles];
+      maxY = new double[nrObstacles];
+      for (int i=0; i < nrObstacles; i++) {
+        minX[i] = obstacles[i].getMinX();
+        minY[i] = obstacles[i].getMinY();
+        maxX[i] = obstacles[i].getMaxX();
+        maxY[i] = obstacles[i].getMaxY();
+      }
+
+      // Count obstacles per cell, then fill cells
+      cellStart = new int[resolution*resolution + 1];
+      for (int i=0; i < nrObstacles; i++) {
+        forEachCell(i, null);
+      }
+      for (int c=0; c < resolution*resolution; c++) {
+        cellStart[c+1] += cellStart[c];
+      }
+      cellObstacles = new int[cellStart[resolution*resolution]];
+      int[] cellFill = new int[resolution*resolution];
+      System.arraycopy(cellStart, 0, cellFill, 0, cellFill.length);
+      for (int i=0; i < nrObstacles; i++) {
+        forEachCell(i, cellFill);
+      }
+    }
+
+    /**
+     * Counts or registers obstacle in all cells it intersects.
+     * 
+     * @param i Obstacle index
+     * @param cellFill Next free position of each cell, or null to count
+     */
+    private void forEachCell(int i, int[] cellFill) {
+      double x0 = obstacles[i].getX();
+      double y0 = obstacles[i].getY();
+      double w = obstacles[i].getWidth();
+      double h = obstacles[i].getHeight();
+      if (w <= 0 || h <= 0 || boxWidth <= 0 || boxHeight <= 0) {
+        return;
+      }
+
+      // Candidate cells, verified using the same test as Rectangle2D.intersects()
+      int firstX = Math.max(0, (int) Math.floor((minX[i] - areaStartX)/boxWidth) - 1);
+      int lastX = Math.min(resolution-1, (int) Math.floor((maxX[i] - areaStartX)/boxWidth) + 1);
+      int firstY = Math.max(0, (int) Math.floor((minY[i] - areaStartY)/boxHeight) - 1);
+      int lastY = Math.min(resolution-1, (int) Math.floor((maxY[i] - areaStartY)/boxHeight) + 1);
+      for (int x=firstX; x <= lastX; x++) {
+        double boxX = areaStartX + x*boxWidth;
+        if (!(boxX + boxWidth > x0 && boxX < x0 + w)) {
+          continue;
+        }
+        for (int y=firstY; y <= lastY; y++) {
+          double boxY = areaStartY + y*boxHeight;
+          if (!(boxY + boxHeight > y0 && boxY < y0 + h)) {
+            continue;
+          }
+          int c = x*resolution + y;
+          if (cellFill == null) {
+            cellStart[c+1]++;
+          } else {
+            cellObstacles[cellFill[c]++] = i;
+          }
+        }
+      }
+    }
+
+    boolean isEmpty(int x, int y) {
+      int c = x*resolution + y;
+      return cellStart[c] == cellStart[c+1];
+    }
+
+    /**
+     * Adds all obstacles of given cell not already added.
+     */
+    void addCell(int x, int y, Vector<Rectangle2D> toAdd, boolean[] added) {
+      int c = x*resolution + y;
+      for (int j=cellStart[c]; j < cellStart[c+1]; j++) {
+        int i = cellObstacles[j];
+        if (added == null) {
+          toAdd.add(obstacles[i]);
+        } else if (!added[i]) {
+          added[i] = true;
+          toAdd.add(obstacles[i]);
+        }
+      }
+    }
+
+    /**
+     * @return True if point is inside any obstacle of given cell, same as Rectangle2D.contains()
+     */
+    boolean cellContains(int x, int y, double px, double py) {
+      int c = x*resolution + y;
+      for (int j=cellStart[c]; j < cellStart[c+1]; j++) {
+        int i = cellObstacles[j];
+        if (px >= minX[i] && py >= minY[i] && px < maxX[i] && py < maxY[i]) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
   
   /**
    * Creates a new obstacle world without any obstacles.
    */
   public ObstacleWorld() {
     // No obstacles present so far
-    allObstacles = new Vector<Rectangle2D>();
-    
-    for (int x=0; x < spatialResolution; x++)
-      for (int y=0; y < spatialResolution; y++) 
-        allObstaclesSpatial[x][y] = new Vector<Rectangle2D>();
-    
+    allObstacles = new ArrayList<Rectangle2D>();
     outerBounds = new Rectangle2D.Double(0,0,0,0);
   }
   
@@ -105,10 +239,21 @@ class ObstacleWorld {
   /**
    * @return All registered obstacles
    */
-  public Vector<Rectangle2D> getAllObstacles() {
+  public List<Rectangle2D> getAllObstacles() {
     return allObstacles;
   }
   
+  /**
+   * @return Spatially organized obstacles, reorganized if needed
+   */
+  private SpatialGrid getSpatialGrid() {
+    SpatialGrid grid = spatialGrid;
+    if (grid == null) {
+      grid = organizeSpatialObstacles();
+    }
+    return grid;
+  }
+
   /**
    * Returns at least all registered obstacles that contains given point.
    * Note that obstacles close to but not containing the point may also
@@ -118,51 +263,38 @@ class ObstacleWorld {
    * @return All obstacles containing or near center
    */
   public Vector<Rectangle2D> getAllObstaclesNear(Point2D center) {
-    double boxWidth = outerBounds.getWidth() / (double) spatialResolution;
-    double boxHeight = outerBounds.getHeight() / (double) spatialResolution;
-    double areaStartX = outerBounds.getMinX();
-    double areaStartY = outerBounds.getMinY();
+    SpatialGrid grid = getSpatialGrid();
     
-    double centerX = (center.getX() - areaStartX)/boxWidth;
-    double centerY = (center.getY() - areaStartY)/boxHeight;
+    double centerX = (center.getX() - grid.areaStartX)/grid.boxWidth;
+    double centerY = (center.getY() - grid.areaStartY)/grid.boxHeight;
+    int x = (int) centerX;
+    int y = (int) centerY;
 
     Vector<Rectangle2D> allNearObstacles = new Vector<Rectangle2D>();
 
-    Point pointToAdd = new Point((int) centerX, (int) centerY);
-    if (pointToAdd.x >= 0 &&
-        pointToAdd.x < allObstaclesSpatial.length &&
-        pointToAdd.y >= 0 &&
-        pointToAdd.y < allObstaclesSpatial[0].length)
-      allNearObstacles.addAll(allObstaclesSpatial[pointToAdd.x][pointToAdd.y]);
+    if (x >= 0 && x < grid.resolution && y >= 0 && y < grid.resolution) {
+      grid.addCell(x, y, allNearObstacles, null);
+    }
 
     // Add borders if needed
     boolean addedXBorder = false;
     boolean addedYBorder = false;
     if (Math.floor(centerX) == centerX) {
-      pointToAdd = new Point((int) centerX-1, (int) centerY);
-      if (pointToAdd.x >= 0 &&
-          pointToAdd.x < allObstaclesSpatial.length &&
-          pointToAdd.y >= 0 &&
-          pointToAdd.y < allObstaclesSpatial[0].length) {
-        allNearObstacles.addAll(allObstaclesSpatial[pointToAdd.x][pointToAdd.y]);
+      if (x-1 >= 0 && x-1 < grid.resolution && y >= 0 && y < grid.resolution) {
+        grid.addCell(x-1, y, allNearObstacles, null);
         addedXBorder = true;
       }
     }
 
     if (Math.floor(centerY) == centerY) {
-      pointToAdd = new Point((int) centerX, (int) centerY-1);
-      if (pointToAdd.x >= 0 &&
-          pointToAdd.x < allObstaclesSpatial.length &&
-          pointToAdd.y >= 0 &&
-          pointToAdd.y < allObstaclesSpatial[0].length) {
-        allNearObstacles.addAll(allObstaclesSpatial[pointToAdd.x][pointToAdd.y]);
+      if (x >= 0 && x < grid.resolution && y-1 >= 0 && y-1 < grid.resolution) {
+        grid.addCell(x, y-1, allNearObstacles, null);
         addedYBorder = true;
       }
     }
     
     if (addedXBorder && addedYBorder) {
-      pointToAdd = new Point((int) centerX-1, (int) centerY-1);
-      allNearObstacles.addAll(allObstaclesSpatial[pointToAdd.x][pointToAdd.y]);
+      grid.addCell(x-1, y-1, allNearObstacles, null);
     }
       
     return allNearObstacles;
@@ -181,153 +313,233 @@ class ObstacleWorld {
    */
   public Vector<Rectangle2D> getAllObstaclesInAngleInterval(Point2D center, AngleInterval angleInterval) {
     Vector<Rectangle2D> obstaclesToReturn = new Vector<Rectangle2D>();
-    if (!obstaclesOrganized) {
-      reorganizeSpatialObstacles();
-    }
+    SpatialGrid grid = getSpatialGrid();
+    boolean[] added = new boolean[grid.obstacles.length];
     
-    double boxWidth = outerBounds.getWidth() / (double) spatialResolution;
-    double boxHeight = outerBounds.getHeight() / (double) spatialResolution;
-    double areaStartX = outerBounds.getMinX();
-    double areaStartY = outerBounds.getMinY();
+    // Check boxes in rings of increasing distance from center box
+    int centerX = (int) ((center.getX() - grid.areaStartX)/grid.boxWidth);
+    int centerY = (int) ((center.getY() - grid.areaStartY)/grid.boxHeight);
     
-    // Calculate which boxes to check (and in which order)
-    Point centerInArray = new Point(
-        (int) ((center.getX() - areaStartX)/boxWidth),
-        (int) ((center.getY() - areaStartY)/boxHeight)
-    );
-    Vector<Point> pointsToCheck = new Vector<Point>();
+    int maxDistance = Math.max(
+        Math.max(centerX, grid.resolution - 1 - centerX),
+        Math.max(centerY, grid.resolution - 1 - centerY));
+    maxDistance = Math.min(maxDistance, 2*grid.resolution - 1);
     
-    int currentDistance = 0;
-    while (currentDistance < 2*spatialResolution) {
+    for (int currentDistance=0; currentDistance <= maxDistance; currentDistance++) {
+      if (currentDistance == 0) {
+        checkBox(grid, centerX, centerY, center, angleInterval, obstaclesToReturn, added);
+        continue;
+      }
       
-      if (currentDistance > 0) {
-        int currentX = centerInArray.x - currentDistance;
-        int currentY = centerInArray.y - currentDistance;
-        
-        // Step right
-        while (currentX < centerInArray.x + currentDistance) {
-          if (currentX >= 0 &&
-              currentX < allObstaclesSpatial.length &&
-              currentY >= 0 &&
-              currentY < allObstaclesSpatial[0].length)
-            pointsToCheck.add(new Point(currentX, currentY));
-          currentX++;
-        }
-        
-        // Step right
-        while (currentY < centerInArray.y + currentDistance) {
-          if (currentX >= 0 &&
-              currentX < allObstaclesSpatial.length &&
-              currentY >= 0 &&
-              currentY < allObstaclesSpatial[0].length)
-            pointsToCheck.add(new Point(currentX, currentY));
-          currentY++;
-        }
-        
-        // Step left
-        while (currentX > centerInArray.x - currentDistance) {
-          if (currentX >= 0 &&
-              currentX < allObstaclesSpatial.length &&
-              currentY >= 0 &&
-              currentY < allObstaclesSpatial[0].length)
-            pointsToCheck.add(new Point(currentX, currentY));
-          currentX--;
-        }
-        
-        // Step up
-        while (currentY > centerInArray.y - currentDistance) {
-          if (currentX >= 0 &&
-              currentX < allObstaclesSpatial.length &&
-              currentY >= 0 &&
-              currentY < allObstaclesSpatial[0].length)
-            pointsToCheck.add(new Point(currentX, currentY));
-          currentY--;
-        }
-            
-      } else {
-        if (centerInArray.x >= 0 &&
-            centerInArray.x < allObstaclesSpatial.length &&
-            centerInArray.y >= 0 &&
-            centerInArray.y < allObstaclesSpatial[0].length) {
-          pointsToCheck.add(new Point(centerInArray.x, centerInArray.y));
-        }
+      int currentX = centerX - currentDistance;
+      int currentY = centerY - currentDistance;
+      
+      // Step right
+      while (currentX < centerX + currentDistance) {
+        checkBox(grid, currentX, currentY, center, angleInterval, obstaclesToReturn, added);
+        currentX++;
       }
-      currentDistance++;  
-    }
       
-    for (int pointNr=0; pointNr < pointsToCheck.size(); pointNr++) {
-      // Check which obstacles should be in this box
-      boolean hit = false;
-      int x = pointsToCheck.get(pointNr).x;
-      int y = pointsToCheck.get(pointNr).y;
+      // Step down
+      while (currentY < centerY + currentDistance) {
+        checkBox(grid, currentX, currentY, center, angleInterval, obstaclesToReturn, added);
+        currentY++;
+      }
       
-      // Test if we are inside test box
-      if (!hit) {
-        if (new Rectangle2D.Double(
-            areaStartX + x*boxWidth, 
-            areaStartY + y*boxHeight, 
-            boxWidth, 
-            boxHeight).contains(center)) {
-          hit = true;
-          for (int i=0; i < allObstaclesSpatial[x][y].size(); i++) {
-            if (!obstaclesToReturn.contains(allObstaclesSpatial[x][y].get(i)))
-              obstaclesToReturn.add(allObstaclesSpatial[x][y].get(i));
-          }
-        }
+      // Step left
+      while (currentX > centerX - currentDistance) {
+        checkBox(grid, currentX, currentY, center, angleInterval, obstaclesToReturn, added);
+        currentX--;
       }
       
-      // Test first diagonal
-      if (!hit) {
-        AngleInterval testInterval = AngleInterval.getAngleIntervalOfLine(
-            center,
-            new Line2D.Double(
-                areaStartX + x*boxWidth, 
-                areaStartY + y*boxHeight, 
-                areaStartX + (x+1)*boxWidth, 
-                areaStartY + (y+1)*boxHeight)
-        );
-        if (testInterval.intersects(angleInterval)) {
-          hit = true;
-          for (int i=0; i < allObstaclesSpatial[x][y].size(); i++) {
-            if (!obstaclesToReturn.contains(allObstaclesSpatial[x][y].get(i)))
-              obstaclesToReturn.add(allObstaclesSpatial[x][y].get(i));
-          }
+      // Step up
+      while (currentY > centerY - currentDistance) {
+        checkBox(grid, currentX, currentY, center, angleInterval, obstaclesToReturn, added);
+        currentY--;
+      }
+    }
+        
+    return obstaclesToReturn;
+  }
+  
+  /**
+   * Adds obstacles of given box if box contains center point, 
+   * or if any of its diagonals intersect the given angle interval.
+   */
+  private void checkBox(SpatialGrid grid, int x, int y, Point2D center, AngleInterval angleInterval, 
+      Vector<Rectangle2D> obstaclesToReturn, boolean[] added) {
+    if (x < 0 || x >= grid.resolution || y < 0 || y >= grid.resolution) {
+      return;
+    }
+    if (grid.isEmpty(x, y)) {
+      return;
+    }
+    
+    double boxMinX = grid.areaStartX + x*grid.boxWidth;
+    double boxMinY = grid.areaStartY + y*grid.boxHeight;
+    double boxMaxX = grid.areaStartX + (x+1)*grid.boxWidth;
+    double boxMaxY = grid.areaStartY + (y+1)*grid.boxHeight;
+    
+    // Test if we are inside test box
+    if (center.getX() >= boxMinX && center.getY() >= boxMinY &&
+        center.getX() < boxMinX + grid.boxWidth && center.getY() < boxMinY + grid.boxHeight) {
+      grid.addCell(x, y, obstaclesToReturn, added);
+      return;
+    }
+    
+    // Test first diagonal
+    AngleInterval testInterval = AngleInterval.getAngleIntervalOfLine(
+        center, new Line2D.Double(boxMinX, boxMinY, boxMaxX, boxMaxY));
+    if (testInterval.intersects(angleInterval)) {
+      grid.addCell(x, y, obstaclesToReturn, added);
+      return;
+    }
+    
+    // Test second diagonal
+    testInterval = AngleInterval.getAngleIntervalOfLine(
+        center, new Line2D.Double(boxMinX, boxMaxY, boxMaxX, boxMinY));
+    if (testInterval.intersects(angleInterval)) {
+      grid.addCell(x, y, obstaclesToReturn, added);
+    }
+  }
+  
+  /**
+   * Returns true if given point is inside any obstacle.
+   * 
+   * @param x X coordinate
+   * @param y Y coordinate
+   * @return True if point is inside an obstacle
+   */
+  public boolean isInsideObstacle(double x, double y) {
+    SpatialGrid grid = getSpatialGrid();
+    if (grid.boxWidth <= 0 || grid.boxHeight <= 0) {
+      return false;
+    }
+    
+    // Also check neighbor boxes, the box index may be rounded
+    double boxX = Math.floor((x - grid.areaStartX)/grid.boxWidth);
+    double boxY = Math.floor((y - grid.areaStartY)/grid.boxHeight);
+    if (boxX < -1 || boxX > grid.resolution || boxY < -1 || boxY > grid.resolution) {
+      return false;
+    }
+    int firstX = Math.max(0, (int) boxX - 1);
+    int lastX = Math.min(grid.resolution-1, (int) boxX + 1);
+    int firstY = Math.max(0, (int) boxY - 1);
+    int lastY = Math.min(grid.resolution-1, (int) boxY + 1);
+    for (int cellX=firstX; cellX <= lastX; cellX++) {
+      for (int cellY=firstY; cellY <= lastY; cellY++) {
+        if (grid.cellContains(cellX, cellY, x, y)) {
+          return true;
         }
       }
+    }
+    return false;
+  }
+  
+  /**
+   * Returns true if the given line segment may intersect any obstacle.
+   * Obstacles are extended by a small margin, so false is only returned
+   * if the segment neither intersects nor touches any obstacle.
+   * 
+   * @param x1 Start X coordinate
+   * @param y1 Start Y coordinate
+   * @param x2 End X coordinate
+   * @param y2 End Y coordinate
+   * @return True if segment may intersect an obstacle
+   */
+  public boolean mayIntersectObstacle(double x1, double y1, double x2, double y2) {
+    SpatialGrid grid = getSpatialGrid();
+    if (grid.boxWidth <= 0 || grid.boxHeight <= 0) {
+      return false;
+    }
+    
+    // Only check boxes within segment bounds
+    double margin = 2*SEGMENT_MARGIN;
+    double firstBoxX = Math.floor((Math.min(x1, x2) - margin - grid.areaStartX)/grid.boxWidth);
+    double lastBoxX = Math.floor((Math.max(x1, x2) + margin - grid.areaStartX)/grid.boxWidth);
+    double firstBoxY = Math.floor((Math.min(y1, y2) - margin - grid.areaStartY)/grid.boxHeight);
+    double lastBoxY = Math.floor((Math.max(y1, y2) + margin - grid.areaStartY)/grid.boxHeight);
+    if (lastBoxX < 0 || firstBoxX >= grid.resolution || lastBoxY < 0 || firstBoxY >= grid.resolution) {
+      return false;
+    }
+    int firstX = (int) Math.max(0, firstBoxX);
+    int lastX = (int) Math.min(grid.resolution-1, lastBoxX);
+    int firstY = (int) Math.max(0, firstBoxY);
+    int lastY = (int) Math.min(grid.resolution-1, lastBoxY);
+    
+    for (int x=firstX; x <= lastX; x++) {
+      double boxMinX = grid.areaStartX + x*grid.boxWidth;
+      for (int y=firstY; y <= lastY; y++) {
+        if (grid.isEmpty(x, y)) {
+          continue;
+        }
+        double boxMinY = grid.areaStartY + y*grid.boxHeight;
+        if (!segmentIntersectsBox(x1, y1, x2, y2,
+            boxMinX - margin, boxMinY - margin,
+            boxMinX + grid.boxWidth + margin, boxMinY + grid.boxHeight + margin)) {
+          continue;
+        }
         
-      // Test second diagonal
-      if (!hit) {
-        AngleInterval testInterval = AngleInterval.getAngleIntervalOfLine(
-            center,
-            new Line2D.Double(
-                areaStartX + x*boxWidth, 
-                areaStartY + (y+1)*boxHeight,
-                areaStartX + (x+1)*boxWidth, 
-                areaStartY + y*boxHeight)
-        );
-        if (testInterval.intersects(angleInterval)) {
-          hit = true;
-          for (int i=0; i < allObstaclesSpatial[x][y].size(); i++) {
-            if (!obstaclesToReturn.contains(allObstaclesSpatial[x][y].get(i)))
-              obstaclesToReturn.add(allObstaclesSpatial[x][y].get(i));
+        int c = x*grid.resolution + y;
+        for (int j=grid.cellStart[c]; j < grid.cellStart[c+1]; j++) {
+          int i = grid.cellObstacles[j];
+          if (segmentIntersectsBox(x1, y1, x2, y2,
+              grid.minX[i] - SEGMENT_MARGIN, grid.minY[i] - SEGMENT_MARGIN,
+              grid.maxX[i] + SEGMENT_MARGIN, grid.maxY[i] + SEGMENT_MARGIN)) {
+            return true;
           }
         }
       }
     }
-        
-    return obstaclesToReturn;
+    return false;
+  }
+  
+  /**
+   * @return True if line segment intersects or touches the given box
+   */
+  private static boolean segmentIntersectsBox(double x1, double y1, double x2, double y2,
+      double minX, double minY, double maxX, double maxY) {
+    double tMin = 0, tMax = 1;
+    
+    double deltaX = x2 - x1;
+    if (deltaX == 0) {
+      if (x1 < minX || x1 > maxX) {
+        return false;
+      }
+    } else {
+      double t1 = (minX - x1)/deltaX;
+      double t2 = (maxX - x1)/deltaX;
+      tMin = Math.max(tMin, Math.min(t1, t2));
+      tMax = Math.min(tMax, Math.max(t1, t2));
+      if (tMin > tMax) {
+        return false;
+      }
+    }
+    
+    double deltaY = y2 - y1;
+    if (deltaY == 0) {
+      if (y1 < minY || y1 > maxY) {
+        return false;
+      }
+    } else {
+      double t1 = (minY - y1)/deltaY;
+      double t2 = (maxY - y1)/deltaY;
+      tMin = Math.max(tMin, Math.min(t1, t2));
+      tMax = Math.min(tMax, Math.max(t1, t2));
+      if (tMin > tMax) {
+        return false;
+      }
+    }
+    return true;
   }
   
   /**
    * Removes all registered obstacles.
    */
   public void removeAll() {
-    allObstacles.removeAllElements();
-    for (int x=0; x < spatialResolution; x++)
-      for (int y=0; y < spatialResolution; y++) 
-        allObstaclesSpatial[x][y].removeAllElements();
-    
+    allObstacles.clear();
     outerBounds = new Rectangle2D.Double(0,0,0,0);
+    spatialGrid = null;
   }
   
   /**
@@ -342,50 +554,41 @@ class ObstacleWorld {
    * @return True of point is on a corner, false otherwise
    */
   public boolean pointIsNearCorner(Point2D point) {
-    double boxWidth = outerBounds.getWidth() / (double) spatialResolution;
-    double boxHeight = outerBounds.getHeight() / (double) spatialResolution;
-    double areaStartX = outerBounds.getMinX();
-    double areaStartY = outerBounds.getMinY();
+    SpatialGrid grid = getSpatialGrid();
 
     // Which obstacles should be checked
-    Point centerInArray = new Point(
-        (int) ((point.getX() - areaStartX)/boxWidth),
-        (int) ((point.getY() - areaStartY)/boxHeight)
-    );
-    Vector<Rectangle2D> allObstaclesToCheck = null;
-    if (centerInArray.x < 0)
-      centerInArray.x = 0;
-    if (centerInArray.x >= spatialResolution)
-      centerInArray.x = spatialResolution-1;
-    if (centerInArray.y < 0)
-      centerInArray.y = 0;
-    if (centerInArray.y >= spatialResolution)
-      centerInArray.y = spatialResolution-1;
-    
-    allObstaclesToCheck = allObstaclesSpatial[centerInArray.x][centerInArray.y];
+    int x = (int) ((point.getX() - grid.areaStartX)/grid.boxWidth);
+    int y = (int) ((point.getY() - grid.areaStartY)/grid.boxHeight);
+    x = Math.max(0, Math.min(grid.resolution-1, x));
+    y = Math.max(0, Math.min(grid.resolution-1, y));
+    int c = x*grid.resolution + y;
 
-    if (allObstaclesToCheck.size() == 0) {
+    if (grid.cellStart[c] == grid.cellStart[c+1]) {
       return false;
     } 
     
-    // Create the four point to check
+    // The four points to check
     double deltaDistance = 0.01; // 1 cm TODO Change this?
-    Point2D point1 = new Point2D.Double(point.getX() - deltaDistance, point.getY() - deltaDistance);
-    Point2D point2 = new Point2D.Double(point.getX() - deltaDistance, point.getY() + deltaDistance);
-    Point2D point3 = new Point2D.Double(point.getX() + deltaDistance, point.getY() - deltaDistance);
-    Point2D point4 = new Point2D.Double(point.getX() + deltaDistance, point.getY() + deltaDistance);
+    double lowX = point.getX() - deltaDistance;
+    double highX = point.getX() + deltaDistance;
+    double lowY = point.getY() - deltaDistance;
+    double highY = point.getY() + deltaDistance;
 
     int containedPoints = 0;
-    Enumeration<Rectangle2D> allObstaclesToCheckEnum = allObstaclesToCheck.elements();
-    while (allObstaclesToCheckEnum.hasMoreElements()) {
-      Rectangle2D obstacleToCheck = allObstaclesToCheckEnum.nextElement();
-      if (obstacleToCheck.contains(point1))
+    for (int j=grid.cellStart[c]; j < grid.cellStart[c+1]; j++) {
+      int i = grid.cellObstacles[j];
+      double minX = grid.minX[i], minY = grid.minY[i], maxX = grid.maxX[i], maxY = grid.maxY[i];
+      boolean lowXInside = lowX >= minX && lowX < maxX;
+      boolean highXInside = highX >= minX && highX < maxX;
+      boolean lowYInside = lowY >= minY && lowY < maxY;
+      boolean highYInside = highY >= minY && highY < maxY;
+      if (lowXInside && lowYInside)
         containedPoints++;
-      if (obstacleToCheck.contains(point2))
+      if (lowXInside && highYInside)
         containedPoints++;
-      if (obstacleToCheck.contains(point3))
+      if (highXInside && lowYInside)
         containedPoints++;
-      if (obstacleToCheck.contains(point4))
+      if (highXInside && highYInside)
         containedPoints++;
 
       // Abort if already to many contained points
@@ -415,14 +618,23 @@ class ObstacleWorld {
   private Rectangle2D mergeObstacle(Rectangle2D mergeObstacle) {
     double mergeObstacleArea = mergeObstacle.getWidth() * mergeObstacle.getHeight();
     double mergeObstacleTolerance = mergeObstacleArea * 0.01; // 1%
+    double mergeMinX = mergeObstacle.getMinX();
+    double mergeMinY = mergeObstacle.getMinY();
+    double mergeMaxX = mergeObstacle.getMaxX();
+    double mergeMaxY = mergeObstacle.getMaxY();
     
     // Loop through all existing obstacles (but ignore itself)
-    for (int i=0; i < getNrObstacles(); i++) {
-      Rectangle2D existingObstacle = getObstacle(i);
+    for (int i=0; i < allObstacles.size(); i++) {
+      Rectangle2D existingObstacle = allObstacles.get(i);
       if (!existingObstacle.equals(mergeObstacle)) {
         double existingObstacleArea = existingObstacle.getWidth() * existingObstacle.getHeight();
-        Rectangle2D unionObstacle = existingObstacle.createUnion(mergeObstacle);
-        double unionArea = unionObstacle.getWidth() * unionObstacle.getHeight();
+        
+        // Union area, calculated as by createUnion()
+        double unionWidth = 
+          Math.max(existingObstacle.getMaxX(), mergeMaxX) - Math.min(existingObstacle.getMinX(), mergeMinX);
+        double unionHeight = 
+          Math.max(existingObstacle.getMaxY(), mergeMaxY) - Math.min(existingObstacle.getMinY(), mergeMinY);
+        double unionArea = unionWidth * unionHeight;
         
         // Fault-tolerance
         double faultTolerance = Math.min(mergeObstacleTolerance, existingObstacleArea*0.01);
@@ -430,11 +642,12 @@ class ObstacleWorld {
         // Compare areas
         if (unionArea - faultTolerance <= existingObstacleArea + mergeObstacleArea) {
           // Remove both old obstacles, add union
-          removeObstacle(mergeObstacle);
-          removeObstacle(existingObstacle);
+          Rectangle2D unionObstacle = existingObstacle.createUnion(mergeObstacle);
+          allObstacles.remove(mergeObstacle);
+          allObstacles.remove(existingObstacle);
+          recreateOuterBounds();
           addObstacle(unionObstacle, false);
           
-          obstaclesOrganized = false;
           return unionObstacle;
         }
       }
@@ -510,7 +723,21 @@ class ObstacleWorld {
         mergedObstacle = mergeObstacle(mergedObstacle);
     }
     
-    obstaclesOrganized = false;
+    spatialGrid = null;
+  }
+  
+  /**
+   * Registers all given obstacles, in order.
+   * Equivalent to adding the obstacles one by one, but obstacles
+   * are only reorganized once on the next query.
+   * 
+   * @param obstacles New obstacles
+   * @param merge Should obstacles, if possible, be merged with existing obstacles
+   */
+  public void addObstacles(Collection<Rectangle2D> obstacles, boolean merge) {
+    for (Rectangle2D obstacle: obstacles) {
+      addObstacle(obstacle, merge);
+    }
   }
   
   /**
@@ -522,7 +749,6 @@ class ObstacleWorld {
     allObstacles.remove(obstacle);
     
     recreateOuterBounds();
-    obstaclesOrganized = false;
   }
   
   /**
@@ -533,42 +759,43 @@ class ObstacleWorld {
    * by a user.
    */
   public void recreateOuterBounds() {
-    outerBounds = new Rectangle2D.Double(0,0,0,0);
+    // Same result as repeated createUnion(), without intermediate objects
+    double x = 0, y = 0, width = 0, height = 0;
     for (int i=0; i < allObstacles.size(); i++) {
-      outerBounds = outerBounds.createUnion(allObstacles.get(i));
+      Rectangle2D obstacle = allObstacles.get(i);
+      double x1 = Math.min(x, obstacle.getMinX());
+      double y1 = Math.min(y, obstacle.getMinY());
+      double x2 = Math.max(x + width, obstacle.getMaxX());
+      double y2 = Math.max(y + height, obstacle.getMaxY());
+      x = x1;
+      y = y1;
+      width = x2 - x1;
+      height = y2 - y1;
     }
-    obstaclesOrganized = false;
+    outerBounds = new Rectangle2D.Double(x, y, width, height);
+    spatialGrid = null;
   }
   
+  /**
+   * Reorganizes obstacles unless already organized.
+   * Concurrent queries wait for a single reorganization.
+   * 
+   * @return Spatially organized obstacles
+   */
+  private synchronized SpatialGrid organizeSpatialObstacles() {
+    if (spatialGrid == null) {
+      reorganizeSpatialObstacles();
+    }
+    return spatialGrid;
+  }
+
   /**
    * Reorganizes all registered obstacles in order to speed up
    * searches for obstacles in spatial areas.
    * This method is run automatically 
    */
-  public void reorganizeSpatialObstacles() {
-    // Remove all spatial obstacles
-    for (int x=0; x < spatialResolution; x++)
-      for (int y=0; y < spatialResolution; y++) 
-        allObstaclesSpatial[x][y].removeAllElements();
-    
-    double boxWidth = outerBounds.getWidth() / (double) spatialResolution;
-    double boxHeight = outerBounds.getHeight() / (double) spatialResolution;
-    double currentBoxMinX = outerBounds.getMinX();
-    double currentBoxMinY = outerBounds.getMinY();
-    
-    // For each box, add obstacles that belong there
-    for (int x=0; x < spatialResolution; x++)
-      for (int y=0; y < spatialResolution; y++) {
-        // Check which obstacles should be in this box
-        Rectangle2D boxToCheck = new Rectangle2D.Double(currentBoxMinX + x*boxWidth, currentBoxMinY + y*boxHeight, boxWidth, boxHeight);
-        for (int i=0; i < allObstacles.size(); i++) {
-          if (allObstacles.get(i).intersects(boxToCheck)) {
-            allObstaclesSpatial[x][y].add(allObstacles.get(i));
-          }
-        }
-      }
-    
-    obstaclesOrganized = true;
+  public synchronized void reorganizeSpatialObstacles() {
+    spatialGrid = new SpatialGrid(allObstacles, outerBounds);
     
     //printObstacleGridToConsole();
   }
@@ -577,30 +804,30 @@ class ObstacleWorld {
    * Prints a description of all obstacles to the console
    */
   public void printObstacleGridToConsole() {
+    SpatialGrid grid = getSpatialGrid();
+    
     logger.info("<<<<<<< printObstacleGridToConsole >>>>>>>");
     logger.info(". Number of obstacles:\t" + getNrObstacles());
     logger.info(". Outer boundary min:\t" + getOuterBounds().getMinX() + ", " + getOuterBounds().getMinY());
     logger.info(". Outer boundary max:\t" + getOuterBounds().getMaxX() + ", " + getOuterBounds().getMaxY());
+    logger.info(". Spatial resolution:\t" + grid.resolution);
     
-    Vector<Rectangle2D> uniqueSpatialObstacles = new Vector<Rectangle2D>();
-    for (int x=0; x < spatialResolution; x++)
-      for (int y=0; y < spatialResolution; y++) 
-        for (int i=0; i < allObstaclesSpatial[x][y].size(); i++) 
-          if (!uniqueSpatialObstacles.contains(allObstaclesSpatial[x][y].get(i)))
-            uniqueSpatialObstacles.add(allObstaclesSpatial[x][y].get(i));
-    logger.info(". Unique spatial obstacles:\t" + uniqueSpatialObstacles.size());
-    
-    int allSpatialObstacles = 0;
-    for (int x=0; x < spatialResolution; x++)
-      for (int y=0; y < spatialResolution; y++) 
-        for (int i=0; i < allObstaclesSpatial[x][y].size(); i++) 
-          allSpatialObstacles++;
-    logger.debug(". All spatial obstacles:\t" + allSpatialObstacles);
+    boolean[] unique = new boolean[grid.obstacles.length];
+    int uniqueSpatialObstacles = 0;
+    for (int i: grid.cellObstacles) {
+      if (!unique[i]) {
+        unique[i] = true;
+        uniqueSpatialObstacles++;
+      }
+    }
+    logger.info(". Unique spatial obstacles:\t" + uniqueSpatialObstacles);
+    logger.debug(". All spatial obstacles:\t" + grid.cellObstacles.length);
     
     logger.info(". Spatial map counts:");
-    for (int y=0; y < spatialResolution; y++) {
-      for (int x=0; x < spatialResolution; x++) {
-        System.out.print(allObstaclesSpatial[x][y].size() + " ");
+    for (int y=0; y < grid.resolution; y++) {
+      for (int x=0; x < grid.resolution; x++) {
+        int c = x*grid.resolution + y;
+        System.out.print((grid.cellStart[c+1] - grid.cellStart[c]) + " ");
       }
       System.out.println("");
     }
@@ -51,6 +51,7 @@ import se.sics.cooja.mspmote.interfaces.MspClock;
 import se.sics.cooja.mspmote.interfaces.MspMoteID;
 import se.sics.cooja.mspmote.interfaces.MspSerial;
 import se.sics.cooja.mspmote.interfaces.TR1001Radio;
+import se.sics.cooja.util.FirmwareCache;
 
 @ClassDescription("ESB Mote Type")
 @AbstractionLevelDescription("Emulated level")
@@ -140,7 +141,21 @@ public class ESBMoteType extends MspMoteType {
 
     final MessageList compilationOutput = new MessageList();
 
-    if (getCompileCommands() != null) {
+    /* Look up identical firmware in cache */
+    FirmwareCache cache = null;
+    String cacheKey = null;
+    boolean cached = false;
+    if (getCompileCommands() != null && getContikiSourceFile() != null &&
+        getContikiFirmwareFile() != null) {
+      cache = FirmwareCache.getDefault();
+      if (cache != null) {
+        cacheKey = FirmwareCache.computeKey(
+            getContikiSourceFile().getParentFile(), getCompileCommands(), null);
+        cached = cache.restore(cacheKey, getContikiFirmwareFile());
+      }
+    }
+
+    if (getCompileCommands() != null && !cached) {
       /* Handle multiple compilation commands one by one */
       String[] arr = getCompileCommands().split("\n");
       for (String cmd: arr) {
@@ -184,6 +199,9 @@ public class ESBMoteType extends MspMoteType {
         !getContikiFirmwareFile().exists()) {
       throw new MoteTypeCreationException("Contiki firmware file does not exist: " + getContikiFirmwareFile());
     }
+    if (cache != null && !cached) {
+      cache.store(cacheKey, null, getContikiFirmwareFile());
+    }
     return true;
   }
 
@@ -35,7 +35,6 @@ import java.awt.event.ActionListener;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Hashtable;
@@ -44,7 +43,6 @@ import java.util.Observable;
 import org.apache.log4j.Logger;
 import org.jdom.Element;
 
-import se.sics.cooja.GUI;
 import se.sics.cooja.Mote;
 import se.sics.cooja.MoteInterface;
 import se.sics.cooja.MoteInterfaceHandler;
@@ -66,9 +64,7 @@ import se.sics.mspsim.platform.GenericNode;
 import se.sics.mspsim.ui.JFrameWindowManager;
 import se.sics.mspsim.util.ComponentRegistry;
 import se.sics.mspsim.util.ConfigManager;
-import se.sics.mspsim.util.DebugInfo;
 import se.sics.mspsim.util.ELF;
-import se.sics.mspsim.util.MapEntry;
 import se.sics.mspsim.util.MapTable;
 
 /**
@@ -125,7 +121,7 @@ public abstract class MspMote extends AbstractEmulatedMote implements Mote, Watc
       registry.registerComponent("windowManager", new JFrameWindowManager());
 
       /* Create watchpoint container */
-      breakpointsContainer = new MspBreakpointContainer(this, getFirmwareDebugInfo(this));
+      breakpointsContainer = new MspBreakpointContainer(this, getFirmwareDebugInfo());
     }
   }
 
@@ -234,7 +230,9 @@ public abstract class MspMote extends AbstractEmulatedMote implements Mote, Watc
 
   /**
    * Prepares CPU, memory and ELF module.
+   * The parsed ELF is shared by all motes of the same type.
    *
+   * @see MspMoteType#getELF()
    * @param fileELF ELF file
    * @param cpu MSP430 cpu
    * @throws IOException Preparing mote failed
@@ -261,20 +259,14 @@ public abstract class MspMote extends AbstractEmulatedMote implements Mote, Watc
     this.myCpu.setTrace(0); /* TODO Enable */
 
     int[] memory = myCpu.getMemory();
-    logger.info("Loading ELF from: " + fileELF.getAbsolutePath());
-    if (GUI.isVisualizedInApplet()) {
-      myELFModule = node.loadFirmware(new URL(GUI.getAppletCodeBase(), fileELF.getName()), memory);
-    } else {
-      myELFModule = node.loadFirmware(fileELF.getPath(), memory);
-    }
+    myELFModule = node.loadFirmware(myMoteType.getELF(), memory);
 
     /* Throw exceptions at bad memory access */
     /*myCpu.setThrowIfWarning(true);*/
 
     /* Create mote address memory */
     MapTable map = myELFModule.getMap();
-    MapEntry[] allEntries = map.getAllEntries();
-    myMemory = new MspMoteMemory(allEntries, myCpu);
+    myMemory = new MspMoteMemory(myMoteType.getMapEntries(), myCpu);
 
     heapStartAddress = map.heapStartAddress;
     myCpu.reset();
@@ -396,7 +388,7 @@ public abstract class MspMote extends AbstractEmulatedMote implements Mote, Watc
     myMoteInterfaceHandler = createMoteInterfaceHandler();
 
     /* Create watchpoint container */
-    breakpointsContainer = new MspBreakpointContainer(this, getFirmwareDebugInfo(this));
+    breakpointsContainer = new MspBreakpointContainer(this, getFirmwareDebugInfo());
 
     for (Element element: configXML) {
       String name = element.getName();
@@ -484,44 +476,13 @@ public abstract class MspMote extends AbstractEmulatedMote implements Mote, Watc
     return breakpointsContainer;
   }
 
-  private static Hashtable<File, Hashtable<Integer, Integer>> getFirmwareDebugInfo(MspMote mote) {
-    /* Fetch all executable addresses */
-    ArrayList<Integer> addresses = mote.getELF().getDebug().getExecutableAddresses();
-
-    Hashtable<File, Hashtable<Integer, Integer>> fileToLineHash =
-      new Hashtable<File, Hashtable<Integer, Integer>>();
-
-    for (int address: addresses) {
-      DebugInfo info = mote.getELF().getDebugInfo(address);
-
-      if (info != null && info.getPath() != null && info.getFile() != null && info.getLine() >= 0) {
-
-        /* Nasty Cygwin-Windows fix */
-        String path = info.getPath();
-        if (path.contains("/cygdrive/")) {
-          int index = path.indexOf("/cygdrive/");
-          char driveCharacter = path.charAt(index+10);
-
-          path = path.replace("/cygdrive/" + driveCharacter + "/", driveCharacter + ":/");
-        }
-
-        File file = new File(path, info.getFile());
-        try {
-          file = file.getCanonicalFile();
-        } catch (IOException e) {
-        }
-
-        Hashtable<Integer, Integer> lineToAddrHash = fileToLineHash.get(file);
-        if (lineToAddrHash == null) {
-          lineToAddrHash = new Hashtable<Integer, Integer>();
-          fileToLineHash.put(file, lineToAddrHash);
-        }
-
-        lineToAddrHash.put(info.getLine(), address);
-      }
+  private Hashtable<File, Hashtable<Integer, Integer>> getFirmwareDebugInfo() {
+    try {
+      return myMoteType.getFirmwareDebugInfo();
+    } catch (IOException e) {
+      logger.warn("Could not read firmware debug info: " + e.getMessage());
+      return null;
     }
-
-    return fileToLineHash;
   }
 
 }
@@ -33,8 +33,10 @@ package se.sics.cooja.mspmote;
 
 import java.awt.*;
 import java.io.*;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Hashtable;
 import java.util.Vector;
 import javax.swing.*;
 import org.apache.log4j.Logger;
@@ -42,6 +44,10 @@ import org.jdom.Element;
 import se.sics.cooja.*;
 import se.sics.cooja.interfaces.IPAddress;
 import se.sics.cooja.mspmote.interfaces.MspSerial;
+import se.sics.mspsim.util.DebugInfo;
+import se.sics.mspsim.util.ELF;
+import se.sics.mspsim.util.MapEntry;
+import se.sics.mspsim.util.MapTable;
 
 /**
  * MSP430-based mote types emulated in MSPSim.
@@ -67,6 +73,29 @@ public abstract class MspMoteType implements MoteType {
 
   private Class<? extends MoteInterface>[] moteInterfaceClasses = null;
 
+  /* Parsed firmware, shared read-only by all motes of this type */
+  private ELF elf = null;
+  private File elfFile = null;
+  private long elfLastModified = 0;
+  private MapEntry[] mapEntries = null;
+  private Hashtable<File, Hashtable<Integer, Integer>> debuggingInfo = null;
+
+  /* Caches the map table: ELF.getMap() parses the symbol table on each call */
+  private static class SharedELF extends ELF {
+    private MapTable map = null;
+
+    public SharedELF(byte[] data) {
+      super(data);
+    }
+
+    public MapTable getMap() {
+      if (map == null) {
+        map = super.getMap();
+      }
+      return map;
+    }
+  }
+
   public String getIdentifier() {
     return identifier;
   }
@@ -115,6 +144,123 @@ public abstract class MspMoteType implements MoteType {
     moteInterfaceClasses = classes;
   }
 
+  /**
+   * Returns the parsed firmware of this mote type.
+   * The firmware is parsed once, and is shared by all motes of this type.
+   * It is reparsed if the firmware file changes.
+   *
+   * @return Firmware ELF
+   * @throws IOException If firmware could not be read
+   */
+  public ELF getELF() throws IOException {
+    File file = getContikiFirmwareFile();
+    long lastModified = GUI.isVisualizedInApplet()?0:file.lastModified();
+    if (elf != null && file.equals(elfFile) && lastModified == elfLastModified) {
+      return elf;
+    }
+
+    logger.info("Loading ELF from: " + file.getAbsolutePath());
+    InputStream in;
+    if (GUI.isVisualizedInApplet()) {
+      in = new URL(GUI.getAppletCodeBase(), file.getName()).openStream();
+    } else {
+      in = new FileInputStream(file);
+    }
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+    try {
+      byte[] buf = new byte[2048];
+      int read;
+      while ((read = in.read(buf)) != -1) {
+        data.write(buf, 0, read);
+      }
+    } finally {
+      in.close();
+    }
+
+    ELF newELF = new SharedELF(data.toByteArray());
+    newELF.readAll();
+
+    elf = newELF;
+    elfFile = file;
+    elfLastModified = lastModified;
+    mapEntries = null;
+    debuggingInfo = null;
+    return elf;
+  }
+
+  /**
+   * @return All map table entries of the firmware
+   * @throws IOException If firmware could not be read
+   */
+  public MapEntry[] getMapEntries() throws IOException {
+    ELF elf = getELF();
+    if (mapEntries == null) {
+      mapEntries = elf.getMap().getAllEntries();
+    }
+    return mapEntries;
+  }
+
+  /**
+   * Returns source file and line to executable address mappings of the
+   * firmware. The returned table must not be modified.
+   *
+   * @return Source file -> (line -> address) table
+   * @throws IOException If firmware could not be read
+   */
+  public Hashtable<File, Hashtable<Integer, Integer>> getFirmwareDebugInfo()
+  throws IOException {
+    ELF elf = getELF();
+    if (debuggingInfo != null) {
+      return debuggingInfo;
+    }
+
+    /* Fetch all executable addresses */
+    ArrayList<Integer> addresses = elf.getDebug().getExecutableAddresses();
+
+    Hashtable<File, Hashtable<Integer, Integer>> fileToLineHash =
+      new Hashtable<File, Hashtable<Integer, Integer>>();
+
+    /* Canonical file names, by debug path and file */
+    Hashtable<String, File> canonicalFiles = new Hashtable<String, File>();
+
+    for (int address: addresses) {
+      DebugInfo info = elf.getDebugInfo(address);
+
+      if (info != null && info.getPath() != null && info.getFile() != null && info.getLine() >= 0) {
+        String key = info.getPath() + "/" + info.getFile();
+        File file = canonicalFiles.get(key);
+        if (file == null) {
+          /* Nasty Cygwin-Windows fix */
+          String path = info.getPath();
+          if (path.contains("/cygdrive/")) {
+            int index = path.indexOf("/cygdrive/");
+            char driveCharacter = path.charAt(index+10);
+
+            path = path.replace("/cygdrive/" + driveCharacter + "/", driveCharacter + ":/");
+          }
+
+          file = new File(path, info.getFile());
+          try {
+            file = file.getCanonicalFile();
+          } catch (IOException e) {
+          }
+          canonicalFiles.put(key, file);
+        }
+
+        Hashtable<Integer, Integer> lineToAddrHash = fileToLineHash.get(file);
+        if (lineToAddrHash == null) {
+          lineToAddrHash = new Hashtable<Integer, Integer>();
+          fileToLineHash.put(file, lineToAddrHash);
+        }
+
+        lineToAddrHash.put(info.getLine(), address);
+      }
+    }
+
+    debuggingInfo = fileToLineHash;
+    return debuggingInfo;
+  }
+
   public final Mote generateMote(Simulation simulation) {
     MspMote mote = createMote(simulation);
     mote.initMote();
@@ -66,6 +66,7 @@ import se.sics.cooja.mspmote.interfaces.SkyCoffeeFilesystem;
 import se.sics.cooja.mspmote.interfaces.SkyFlash;
 import se.sics.cooja.mspmote.interfaces.SkyLED;
 import se.sics.cooja.mspmote.interfaces.MspSerial;
+import se.sics.cooja.util.FirmwareCache;
 
 @ClassDescription("Sky Mote Type")
 @AbstractionLevelDescription("Emulated level")
@@ -137,7 +138,21 @@ public class SkyMoteType extends MspMoteType {
 
     final MessageList compilationOutput = new MessageList();
 
-    if (getCompileCommands() != null) {
+    /* Look up identical firmware in cache */
+    FirmwareCache cache = null;
+    String cacheKey = null;
+    boolean cached = false;
+    if (getCompileCommands() != null && getContikiSourceFile() != null &&
+        getContikiFirmwareFile() != null) {
+      cache = FirmwareCache.getDefault();
+      if (cache != null) {
+        cacheKey = FirmwareCache.computeKey(
+            getContikiSourceFile().getParentFile(), getCompileCommands(), null);
+        cached = cache.restore(cacheKey, getContikiFirmwareFile());
+      }
+    }
+
+    if (getCompileCommands() != null && !cached) {
       /* Handle multiple compilation commands one by one */
       String[] arr = getCompileCommands().split("\n");
       for (String cmd: arr) {
@@ -181,6 +196,9 @@ public class SkyMoteType extends MspMoteType {
         !getContikiFirmwareFile().exists()) {
       throw new MoteTypeCreationException("Contiki firmware file does not exist: " + getContikiFirmwareFile());
     }
+    if (cache != null && !cached) {
+      cache.store(cacheKey, null, getContikiFirmwareFile());
+    }
     return true;
   }
 
@@ -41,11 +41,28 @@ import se.sics.coffee.CoffeeImage;
 import se.sics.mspsim.chip.M25P80;
 import se.sics.mspsim.core.*;
 
+/**
+ * External flash of Sky motes.
+ *
+ * Flash memory is allocated in pages, on first write. Unwritten pages are
+ * backed by a single zero page shared by all motes, and erasing a whole
+ * page releases it. Whole-page writes of only 0x00 or only 0xFF bytes, as
+ * done by sector erases, are backed by shared pages too. Shared pages are
+ * read-only, and are copied on the first partial write.
+ */
 public class CoojaM25P80 extends M25P80 implements CoffeeImage {
   private static Logger logger = Logger.getLogger(CoojaM25P80.class);
 
   public static int SIZE = 1024*1024;
-  private byte[] data = new byte[SIZE];
+
+  private static final int PAGE_SIZE = 4096;
+  private static final byte[] ZERO_PAGE = new byte[PAGE_SIZE];
+  private static final byte[] ERASED_PAGE = new byte[PAGE_SIZE];
+  static {
+    Arrays.fill(ERASED_PAGE, (byte)0xFF);
+  }
+
+  private byte[][] pages = new byte[(SIZE + PAGE_SIZE - 1) / PAGE_SIZE][];
   private long pos;
 
   private static CoffeeConfiguration COFFEE_CONF;
@@ -68,12 +85,12 @@ public class CoojaM25P80 extends M25P80 implements CoffeeImage {
   }
 
   public int readFully(byte[] b) throws IOException {
-    System.arraycopy(data, (int) pos, b, 0, b.length);
+    readData(pos, b, b.length);
     return b.length;
   }
 
   public void write(byte[] b) throws IOException {
-    System.arraycopy(b, 0, data, (int) pos, b.length);
+    writeData(pos, b, b.length);
   }
 
   /**
@@ -81,7 +98,20 @@ public class CoojaM25P80 extends M25P80 implements CoffeeImage {
    * @see se.sics.coffee.CoffeeImage#erase(int, int)
    */
   public void erase(int size, int offset) throws IOException {
-    Arrays.fill(data, CoffeeConfiguration.startOffset + offset, size, (byte)0);
+    long address = CoffeeConfiguration.startOffset + offset;
+    checkBounds(address, size);
+    while (size > 0) {
+      int page = (int) (address / PAGE_SIZE);
+      int pageOffset = (int) (address % PAGE_SIZE);
+      int len = Math.min(size, PAGE_SIZE - pageOffset);
+      if (len == PAGE_SIZE) {
+        pages[page] = null;
+      } else if (pages[page] != null) {
+        Arrays.fill(getPrivatePage(page), pageOffset, pageOffset + len, (byte)0);
+      }
+      address += len;
+      size -= len;
+    }
   }
 
   /**
@@ -97,7 +127,7 @@ public class CoojaM25P80 extends M25P80 implements CoffeeImage {
    * @see se.sics.coffee.CoffeeImage#read(byte[], int, int)
    */
   public void read(byte[] bytes, int size, int offset) throws IOException {
-    System.arraycopy(data, CoffeeConfiguration.startOffset + offset, bytes, 0, size);
+    readData(CoffeeConfiguration.startOffset + offset, bytes, size);
   }
 
   /**
@@ -105,7 +135,70 @@ public class CoojaM25P80 extends M25P80 implements CoffeeImage {
    * @see se.sics.coffee.CoffeeImage#write(byte[], int, int)
    */
   public void write(byte[] bytes, int size, int offset) throws IOException {
-    System.arraycopy(bytes, 0, data, CoffeeConfiguration.startOffset + offset, size);
+    writeData(CoffeeConfiguration.startOffset + offset, bytes, size);
+  }
+
+  private void checkBounds(long address, int size) throws IOException {
+    if (address < 0 || size < 0 || address + size > SIZE) {
+      throw new IOException("Flash access out of bounds: " + address + " + " + size);
+    }
+  }
+
+  private void readData(long address, byte[] b, int size) throws IOException {
+    checkBounds(address, size);
+    int off = 0;
+    while (off < size) {
+      int page = (int) (address / PAGE_SIZE);
+      int pageOffset = (int) (address % PAGE_SIZE);
+      int len = Math.min(size - off, PAGE_SIZE - pageOffset);
+      byte[] data = pages[page] != null ? pages[page] : ZERO_PAGE;
+      System.arraycopy(data, pageOffset, b, off, len);
+      address += len;
+      off += len;
+    }
+  }
+
+  private void writeData(long address, byte[] b, int size) throws IOException {
+    checkBounds(address, size);
+    int off = 0;
+    while (off < size) {
+      int page = (int) (address / PAGE_SIZE);
+      int pageOffset = (int) (address % PAGE_SIZE);
+      int len = Math.min(size - off, PAGE_SIZE - pageOffset);
+      if (len == PAGE_SIZE && isFilled(b, off, (byte)0)) {
+        pages[page] = null;
+      } else if (len == PAGE_SIZE && isFilled(b, off, (byte)0xFF)) {
+        pages[page] = ERASED_PAGE;
+      } else {
+        System.arraycopy(b, off, getPrivatePage(page), pageOffset, len);
+      }
+      address += len;
+      off += len;
+    }
+  }
+
+  /**
+   * Returns a writable page, copying shared pages.
+   *
+   * @param page Page index
+   * @return Page data private to this flash
+   */
+  private byte[] getPrivatePage(int page) {
+    if (pages[page] == null) {
+      pages[page] = new byte[PAGE_SIZE];
+    } else if (pages[page] == ERASED_PAGE) {
+      pages[page] = ERASED_PAGE.clone();
+    }
+    return pages[page];
+  }
+
+  private static boolean isFilled(byte[] b, int off, byte value) {
+    for (int i=off; i < off + PAGE_SIZE; i++) {
+      if (b[i] != value) {
+        return false;
+      }
+    }
+    return true;
   }
 
 }
@@ -35,6 +35,7 @@ import java.awt.BorderLayout;
 import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Observable;
 import java.util.Observer;
@@ -92,6 +93,39 @@ public class SkyByteRadio extends Radio implements CustomDataRadio {
   private RadioPacket lastOutgoingPacket = null;
   private RadioPacket lastIncomingPacket = null;
 
+  /* Idle events delivering received bytes to the CC2420 */
+  private ArrayList<ByteDeliveryEvent> idleDeliveries = new ArrayList<ByteDeliveryEvent>();
+
+  /**
+   * Delivers a single received byte to the CC2420.
+   * Events are returned to the idle list after execution, and reused.
+   */
+  private class ByteDeliveryEvent extends MspMoteTimeEvent {
+    private byte data;
+
+    public ByteDeliveryEvent() {
+      super(mote, 0);
+    }
+
+    public void execute(long t) {
+      super.execute(t);
+      cc2420.receivedByte(data);
+      mote.requestImmediateWakeup();
+      idleDeliveries.add(this);
+    }
+  }
+
+  private void scheduleByteDelivery(byte b, long time) {
+    ByteDeliveryEvent delivery;
+    if (idleDeliveries.isEmpty()) {
+      delivery = new ByteDeliveryEvent();
+    } else {
+      delivery = idleDeliveries.remove(idleDeliveries.size()-1);
+    }
+    delivery.data = b;
+    mote.getSimulation().scheduleEvent(delivery, time);
+  }
+
   public SkyByteRadio(Mote mote) {
     this.mote = (SkyMote) mote;
     this.cc2420 = this.mote.skyNode.radio;
@@ -207,15 +241,7 @@ public class SkyByteRadio extends Radio implements CustomDataRadio {
       if (isInterfered()) {
         b = (byte) 0xFF;
       }
-
-      final byte byteToDeliver = b;
-      getMote().getSimulation().scheduleEvent(new MspMoteTimeEvent(mote, 0) {
-        public void execute(long t) {
-          super.execute(t);
-          cc2420.receivedByte(byteToDeliver);
-          mote.requestImmediateWakeup();
-        }        
-      }, deliveryTime);
+      scheduleByteDelivery(b, deliveryTime);
       deliveryTime += DELAY_BETWEEN_BYTES;
     }
   }
@@ -242,14 +268,7 @@ public class SkyByteRadio extends Radio implements CustomDataRadio {
     } else {
       inputByte = lastIncomingByte;
     }
-    mote.getSimulation().scheduleEvent(new MspMoteTimeEvent(mote, 0) {
-      public void execute(long t) {
-        super.execute(t);
-        cc2420.receivedByte(inputByte);
-        mote.requestImmediateWakeup();
-      }        
-    }, mote.getSimulation().getSimulationTime());
-
+    scheduleByteDelivery(inputByte, mote.getSimulation().getSimulationTime());
   }
 
   /* General radio support */
@@ -218,6 +218,45 @@ Java_se_sics_cooja_corecomm_[CLASS_NAME]_getMemory(JNIEnv *env, jobject obj, jin
   );
 }
 /*---------------------------------------------------------------------------*/
+/**
+ * \brief      Get the changed pages of a segment from the process memory.
+ * \param start Start address of segment
+ * \param length Size of memory segment
+ * \param mem_arr Byte array containing the segment as it was before the tick
+ * \param page_size Page size
+ * \return     Number of changed pages, or -1 on error
+ *
+ *             Compares the process memory segment starting at (start), with
+ *             size (length), page by page against the given Java byte array.
+ *             Only pages that differ are copied to the Java byte array.
+ *             This function does not perform ANY error checking, and the
+ *             process may crash if addresses are not available/readable.
+ *
+ *             This is a JNI function and should only be called via the
+ *             responsible Java part (MoteType.java).
+ */
+JNIEXPORT jint JNICALL
+Java_se_sics_cooja_corecomm_[CLASS_NAME]_getMemoryChanges(JNIEnv *env, jobject obj, jint rel_addr, jint length, jbyteArray mem_arr, jint page_size)
+{
+  char *core = (char *) (((long)rel_addr) + referenceVar);
+  jbyte *mem;
+  jint pos, size, changed = 0;
+
+  mem = (*env)->GetPrimitiveArrayCritical(env, mem_arr, 0);
+  if(mem == NULL) {
+    return -1;
+  }
+  for(pos = 0; pos < length; pos += page_size) {
+    size = (length - pos < page_size) ? (length - pos) : page_size;
+    if(memcmp(mem + pos, core + pos, size) != 0) {
+      memcpy(mem + pos, core + pos, size);
+      changed++;
+    }
+  }
+  (*env)->ReleasePrimitiveArrayCritical(env, mem_arr, mem, 0);
+  return changed;
+}
+/*---------------------------------------------------------------------------*/
 /**
  * \brief      Replace a segment of the process memory with given byte array.
  * \param start Start address of segment
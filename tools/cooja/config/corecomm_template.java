@@ -54,5 +54,6 @@ public class [CLASSNAME] extends CoreComm {
   public native void init();
   public native void setReferenceAddress(int addr);
   public native void getMemory(int rel_addr, int length, byte[] mem);
+  public native int getMemoryChanges(int rel_addr, int length, byte[] mem, int page_size);
   public native void setMemory(int rel_addr, int length, byte[] mem);
 }
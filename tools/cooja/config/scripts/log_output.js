@@ -0,0 +1,11 @@
+/*
+ * Example Contiki test script (JavaScript).
+ * LOG_OUTPUT() logs all mote output without executing any script code
+ * per log line. The format may contain:
+ *  %t simulation time (us), %T simulation time (ms), %i mote ID, %m message
+ * An optional regular expression filters which lines are logged.
+ */
+
+TIMEOUT(60000);
+
+LOG_OUTPUT("%T:%i:%m");
@@ -0,0 +1,327 @@
+/*
+ * Copyright (c) 2010, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * $Id$
+ */
+
+package se.sics.cooja;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.jdom.Element;
+import org.jdom.input.SAXBuilder;
+
+import se.sics.cooja.contikimote.ContikiMoteType;
+import se.sics.cooja.plugins.LogScriptEngine;
+import se.sics.cooja.plugins.ScriptRunner;
+import se.sics.cooja.util.StringUtils;
+
+/**
+ * Runs several simulations, created from the same simulation config
+ * template, concurrently in a single JVM.
+ *
+ * The parameter file lists one simulation per line: a unique simulation
+ * identifier followed by KEY=value pairs. All occurrences of xxKEYxx in the
+ * template are replaced by the value. The SEED key sets the simulation
+ * random seed. Empty lines and lines starting with # are ignored.
+ * Example:
+ * <pre>
+ * 8_0_10_0 POSITION_FILE=pos_8_0_10_0.txt SEED=12345
+ * 8_0_10_1 POSITION_FILE=pos_8_0_10_1.txt SEED=12346
+ * </pre>
+ *
+ * Each simulation must contain an active test script (ScriptRunner), and
+ * runs until its test ends. Test output is written to one file per
+ * simulation, and a summary of all simulations is written at the end.
+ *
+ * Each worker thread reuses the same GUI, and hence project classes, for
+ * all its simulations.
+ * Simulations with Contiki mote types cannot be run concurrently, since
+ * their native libraries can only be loaded once per JVM: if the template
+ * contains a Contiki mote type, a single thread is always used.
+ *
+ * @see GUI#setBatchLogFile(File)
+ */
+public class BatchRunner {
+  private static Logger logger = Logger.getLogger(BatchRunner.class);
+
+  public static final String DEFAULT_OUTPUT_PATTERN = "COOJA_%s.testlog";
+  public static final String DEFAULT_SUMMARY_FILENAME = "COOJA.batchlog";
+
+  /* GUI construction touches static settings */
+  private static final Object guiLock = new Object();
+
+  private final File templateFile;
+  private final String template;
+  private final boolean hasContikiMoteTypes;
+  private final ArrayList<BatchSimulation> simulations = new ArrayList<BatchSimulation>();
+
+  private int threads = 1;
+  private String outputPattern = DEFAULT_OUTPUT_PATTERN;
+  private File summaryFile = new File(DEFAULT_SUMMARY_FILENAME);
+
+  private final ThreadLocal<GUI> workerGUI = new ThreadLocal<GUI>() {
+    protected GUI initialValue() {
+      synchronized (guiLock) {
+        return new GUI(GUI.createDesktopPane());
+      }
+    }
+  };
+
+  private static class BatchSimulation {
+    final String id;
+    final ArrayList<String[]> params = new ArrayList<String[]>();
+    Long seed = null;
+
+    String result = null;
+    long simulationTime = 0;
+    long duration = 0;
+
+    BatchSimulation(String id) {
+      this.id = id;
+    }
+  }
+
+  /**
+   * @param templateFile Simulation config template
+   * @param paramsFile Parameter file
+   * @throws IOException If template or parameter file could not be read
+   */
+  public BatchRunner(File templateFile, File paramsFile) throws IOException {
+    this.templateFile = templateFile;
+    template = StringUtils.loadFromFile(templateFile);
+    if (template == null) {
+      throw new IOException("Could not read simulation template: " + templateFile);
+    }
+    hasContikiMoteTypes = template.contains(ContikiMoteType.class.getName());
+
+    BufferedReader reader = new BufferedReader(new FileReader(paramsFile));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (line.length() == 0 || line.startsWith("#")) {
+          continue;
+        }
+        String[] tokens = line.split("\\s+");
+        BatchSimulation sim = new BatchSimulation(tokens[0]);
+        for (int i=1; i < tokens.length; i++) {
+          int eq = tokens[i].indexOf('=');
+          if (eq <= 0) {
+            throw new IOException("Bad parameter in " + paramsFile + ": " + tokens[i]);
+          }
+          String key = tokens[i].substring(0, eq);
+          String value = tokens[i].substring(eq+1);
+          if (key.equals("SEED")) {
+            try {
+              sim.seed = Long.parseLong(value);
+            } catch (NumberFormatException e) {
+              throw new IOException("Bad random seed in " + paramsFile + ": " + value);
+            }
+          } else {
+            sim.params.add(new String[] { "xx" + key + "xx", value });
+          }
+        }
+        simulations.add(sim);
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Simulations with Contiki mote types are always run in a single thread.
+   *
+   * @param threads Number of concurrently executing simulations
+   */
+  public void setThreads(int threads) {
+    if (threads > 1 && hasContikiMoteTypes) {
+      logger.warn("Simulation template contains Contiki mote types, running simulations in a single thread");
+      threads = 1;
+    }
+    this.threads = Math.max(1, threads);
+  }
+
+  /**
+   * @param pattern Test log filename, %s is replaced by simulation identifier
+   */
+  public void setOutputPattern(String pattern) {
+    outputPattern = pattern;
+  }
+
+  /**
+   * @param file Summary file
+   */
+  public void setSummaryFile(File file) {
+    summaryFile = file;
+  }
+
+  /**
+   * Runs all simulations, and blocks until they have finished.
+   *
+   * @return True if all simulations were run without errors.
+   * Note that failed tests are not errors.
+   */
+  public boolean runAll() {
+    logger.info("Running " + simulations.size() + " simulations, " + threads + " concurrently");
+    long startTime = System.currentTimeMillis();
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    for (final BatchSimulation sim: simulations) {
+      executor.execute(new Runnable() {
+        public void run() {
+          runSimulation(sim, workerGUI.get());
+        }
+      });
+    }
+    executor.shutdown();
+    try {
+      while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+      }
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+    }
+
+    return writeSummary(System.currentTimeMillis() - startTime);
+  }
+
+  private void runSimulation(BatchSimulation batchSim, GUI gui) {
+    long startTime = System.currentTimeMillis();
+    logger.info("Starting simulation " + batchSim.id);
+
+    String config = template;
+    for (String[] param: batchSim.params) {
+      config = config.replace(param[0], param[1]);
+    }
+
+    Simulation sim = null;
+    try {
+      Element root = new SAXBuilder().build(new StringReader(config)).getRootElement();
+      gui.currentConfigFile = templateFile;
+      gui.setBatchLogFile(new File(outputPattern.replace("%s", batchSim.id)));
+      sim = gui.loadSimulationConfig(root, true, batchSim.seed);
+      if (sim != null) {
+        gui.setSimulation(sim, false);
+        waitForTest(batchSim, sim, gui);
+      } else {
+        logger.fatal("Simulation " + batchSim.id + " not loaded");
+      }
+    } catch (Exception e) {
+      logger.fatal("Simulation " + batchSim.id + " error: " + e.getMessage(), e);
+    } finally {
+      if (sim != null) {
+        gui.doRemoveSimulation(false);
+      }
+      gui.setBatchLogFile(null);
+    }
+
+    if (batchSim.result == null) {
+      batchSim.result = LogScriptEngine.TEST_ERROR;
+    }
+    batchSim.duration = System.currentTimeMillis() - startTime;
+    logger.info("Simulation " + batchSim.id + " finished: " + batchSim.result +
+        " (" + batchSim.duration + " ms)");
+  }
+
+  private void waitForTest(BatchSimulation batchSim, final Simulation sim, GUI gui)
+  throws InterruptedException {
+    ScriptRunner scriptRunner = null;
+    for (Plugin plugin: gui.getStartedPlugins()) {
+      if (plugin instanceof ScriptRunner) {
+        scriptRunner = (ScriptRunner) plugin;
+        break;
+      }
+    }
+    if (scriptRunner == null) {
+      logger.fatal("No test editor controlling simulation " + batchSim.id);
+      return;
+    }
+
+    /* Wait until test ends: the simulation was started by the test editor */
+    final CountDownLatch stopped = new CountDownLatch(1);
+    sim.addObserver(new Observer() {
+      public void update(Observable obs, Object obj) {
+        if (!sim.isRunning()) {
+          stopped.countDown();
+        }
+      }
+    });
+    if (!sim.isRunning()) {
+      stopped.countDown();
+    }
+    stopped.await();
+
+    batchSim.result = scriptRunner.getTestResult();
+    batchSim.simulationTime = sim.getSimulationTimeMillis();
+  }
+
+  private boolean writeSummary(long duration) {
+    int ok = 0, failed = 0, errors = 0;
+    try {
+      BufferedWriter writer = new BufferedWriter(new FileWriter(summaryFile));
+      writer.write("# id\tresult\tsimulated_ms\tduration_ms\n");
+      for (BatchSimulation sim: simulations) {
+        if (LogScriptEngine.TEST_OK.equals(sim.result)) {
+          ok++;
+        } else if (LogScriptEngine.TEST_FAILED.equals(sim.result)) {
+          failed++;
+        } else {
+          errors++;
+        }
+        writer.write(sim.id + "\t" + sim.result + "\t" +
+            sim.simulationTime + "\t" + sim.duration + "\n");
+      }
+      writer.write("# " + simulations.size() + " simulations, " +
+          ok + " ok, " + failed + " failed, " + errors + " errors, " +
+          threads + " threads, " + duration + " ms\n");
+      writer.close();
+    } catch (IOException e) {
+      logger.fatal("Error when writing batch summary: " + e.getMessage(), e);
+      return false;
+    }
+
+    logger.info("Batch finished: " + ok + " ok, " + failed + " failed, " +
+        errors + " errors, " + duration + " ms. Summary: " + summaryFile);
+    return errors == 0;
+  }
+
+}
@@ -32,6 +32,7 @@ package se.sics.cooja;
 import java.io.*;
 import java.lang.reflect.*;
 import java.net.*;
+import java.util.HashSet;
 import java.util.Vector;
 
 import se.sics.cooja.MoteType.MoteTypeCreationException;
@@ -54,6 +55,10 @@ import se.sics.cooja.dialogs.MessageList;
  * same corecomm class without restarting the JVM and thus the entire
  * simulation.
  *
+ * The first corecomm classes are precompiled by the build (see build.xml),
+ * and are loaded directly from the class path. Only if the pool is exhausted,
+ * new classes are generated from the template and compiled using javac.
+ *
  * Each implemented CoreComm class needs read access to the following core
  * variables:
  * <ul>
@@ -66,6 +71,7 @@ import se.sics.cooja.dialogs.MessageList;
  * <li>getReferenceAbsAddr()
  * <li>getMemory(int start, int length, byte[] mem)
  * <li>setMemory(int start, int length, byte[] mem)
+ * <li>getMemoryChanges(int start, int length, byte[] mem, int pageSize)
  *
  * @author Fredrik Osterlind
  */
@@ -78,6 +84,9 @@ public abstract class CoreComm {
 
   private static int fileCounter = 1;
 
+  /* Class names of created core communicators */
+  private final static HashSet<String> usedClassNames = new HashSet<String>();
+
   /**
    * Has any library been loaded? Since libraries can't be unloaded the entire
    * simulator may have to be restarted.
@@ -115,6 +124,9 @@ public abstract class CoreComm {
    * @return Class name
    */
   public static String getAvailableClassName() {
+    while (usedClassNames.contains("Lib" + fileCounter)) {
+      fileCounter++;
+    }
     return "Lib" + fileCounter;
   }
 
@@ -311,6 +323,27 @@ public abstract class CoreComm {
     return loadedClass;
   }
 
+  /**
+   * Loads given core communicator class from the class path, if available.
+   * COOJA's build ships a pool of precompiled classes (Lib1, Lib2, ...) so that
+   * mote types can be created without compiling Java code at runtime.
+   *
+   * @param className Java class name
+   * @return Loaded class, or null if not available
+   */
+  public static Class<?> loadPrecompiledClass(String className) {
+    try {
+      Class<?> loadedClass = Class.forName("se.sics.cooja.corecomm." + className,
+          false, CoreComm.class.getClassLoader());
+      if (!CoreComm.class.isAssignableFrom(loadedClass)) {
+        return null;
+      }
+      return loadedClass;
+    } catch (ClassNotFoundException e) {
+      return null;
+    }
+  }
+
   /**
    * Create and return an instance of the core communicator identified by
    * className. This core communicator will load the native library libFile.
@@ -323,26 +356,123 @@ public abstract class CoreComm {
    */
   public static CoreComm createCoreComm(String className, File libFile)
       throws MoteTypeCreationException {
-    generateLibSourceFile(className);
+    Class<?> newCoreCommClass = loadPrecompiledClass(className);
+    if (newCoreCommClass == null) {
+      generateLibSourceFile(className);
+
+      compileSourceFile(className);
 
-    compileSourceFile(className);
+      newCoreCommClass = loadClassFile(className);
+    }
+    if (usedClassNames.contains(className)) {
+      /* Class is already bound to another library, e.g. when loading a
+       * cached library compiled for this class name */
+      newCoreCommClass = loadReplicaClass(newCoreCommClass);
+    }
 
-    Class newCoreCommClass = loadClassFile(className);
+    CoreComm newCoreComm = newCoreComm(newCoreCommClass, libFile);
+    usedClassNames.add(className);
+    return newCoreComm;
+  }
 
+  /**
+   * Creates and returns a replica of the given core communicator. The replica
+   * loads its own copy of the library, libFile, and therefore has a separate
+   * Contiki memory. Since a native library is bound to the class loader of the
+   * class declaring the native methods, the replica's class is defined by a
+   * private class loader from the same class file as the given core
+   * communicator's class.
+   *
+   * @param coreComm Core communicator to replicate
+   * @param libFile Copy of the core communicator's native library file
+   * @return Core communicator replica
+   * @throws MoteTypeCreationException If error occurs
+   */
+  public static CoreComm createCoreCommReplica(CoreComm coreComm, File libFile)
+      throws MoteTypeCreationException {
+    if (hasLibraryFileBeenLoaded(libFile)) {
+      throw new MoteTypeCreationException(
+          "Library file has already been loaded: " + libFile.getName());
+    }
+
+    return newCoreComm(loadReplicaClass(coreComm.getClass()), libFile);
+  }
+
+  private static Class<?> loadReplicaClass(Class<?> originalClass)
+      throws MoteTypeCreationException {
     try {
-      Constructor constr = newCoreCommClass
+      return new ReplicaClassLoader(originalClass).loadClass(originalClass.getName());
+    } catch (ClassNotFoundException e) {
+      throw (MoteTypeCreationException) new MoteTypeCreationException(
+          "Could not load corecomm replica class: " + originalClass.getName())
+          .initCause(e);
+    }
+  }
+
+  private static CoreComm newCoreComm(Class<?> coreCommClass, File libFile)
+      throws MoteTypeCreationException {
+    try {
+      Constructor<?> constr = coreCommClass
           .getConstructor(new Class[] { File.class });
       CoreComm newCoreComm = (CoreComm) constr
           .newInstance(new Object[] { libFile });
 
       coreComms.add(newCoreComm);
       coreCommFiles.add(libFile);
-      fileCounter++;
 
       return newCoreComm;
     } catch (Exception e) {
       throw (MoteTypeCreationException) new MoteTypeCreationException(
-          "Error when creating corecomm instance: " + className).initCause(e);
+          "Error when creating corecomm instance: " + coreCommClass.getName()).initCause(e);
+    }
+  }
+
+  /**
+   * Defines a private copy of a core communicator class, so that the copy can
+   * load its own native library.
+   */
+  private static class ReplicaClassLoader extends ClassLoader {
+    private final Class<?> originalClass;
+
+    public ReplicaClassLoader(Class<?> originalClass) {
+      super(originalClass.getClassLoader());
+      this.originalClass = originalClass;
+    }
+
+    protected synchronized Class<?> loadClass(String name, boolean resolve)
+        throws ClassNotFoundException {
+      if (!name.equals(originalClass.getName())) {
+        return super.loadClass(name, resolve);
+      }
+
+      Class<?> c = findLoadedClass(name);
+      if (c == null) {
+        String resource = name.replace('.', '/') + ".class";
+        InputStream input = originalClass.getClassLoader().getResourceAsStream(resource);
+        if (input == null) {
+          throw new ClassNotFoundException(name);
+        }
+        try {
+          ByteArrayOutputStream classData = new ByteArrayOutputStream();
+          byte[] buffer = new byte[4096];
+          int n;
+          while ((n = input.read(buffer)) >= 0) {
+            classData.write(buffer, 0, n);
+          }
+          c = defineClass(name, classData.toByteArray(), 0, classData.size());
+        } catch (IOException e) {
+          throw new ClassNotFoundException(name, e);
+        } finally {
+          try {
+            input.close();
+          } catch (IOException e) {
+          }
+        }
+      }
+      if (resolve) {
+        resolveClass(c);
+      }
+      return c;
     }
   }
 
@@ -375,6 +505,19 @@ public abstract class CoreComm {
    */
   public abstract void getMemory(int relAddr, int length, byte[] mem);
 
+  /**
+   * Updates the pages of the given byte array that differ from the memory
+   * segment identified by start and length. The byte array must contain
+   * the memory segment as it was before the last tick.
+   *
+   * @param relAddr Relative memory start address
+   * @param length Length of segment
+   * @param mem Array to update with changed pages
+   * @param pageSize Page size
+   * @return Number of changed pages
+   */
+  public abstract int getMemoryChanges(int relAddr, int length, byte[] mem, int pageSize);
+
   /**
    * Overwrites a memory segment identified by start and length.
    *
@@ -153,6 +153,25 @@ public class EventQueue {
     return first;
   }
 
+  /**
+   * Removes all scheduled events associated with given mote.
+   * Should only be called from simulation thread!
+   *
+   * @see MoteTimeEvent
+   * @param mote Mote
+   */
+  public void removeMoteEvents(Mote mote) {
+    TimeEvent ev = first;
+    while (ev != null) {
+      if (ev instanceof MoteTimeEvent) {
+        if (((MoteTimeEvent)ev).getMote() == mote) {
+          ev.remove();
+        }
+      }
+      ev = ev.nextEvent;
+    }
+  }
+
   public String toString() {
     return "EventQueue with " + eventCount + " events";
   }
@@ -71,8 +71,6 @@ import java.util.Observable;
 import java.util.Observer;
 import java.util.Properties;
 import java.util.Vector;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
@@ -133,6 +131,7 @@ import se.sics.cooja.plugins.MoteTypeInformation;
 import se.sics.cooja.plugins.ScriptRunner;
 import se.sics.cooja.plugins.SimControl;
 import se.sics.cooja.plugins.SimInformation;
+import se.sics.cooja.util.ConfigSnapshot;
 import se.sics.cooja.util.ExecuteJAR;
 
 /**
@@ -199,7 +198,7 @@ public class GUI extends Observable {
   public static final String PROJECT_CONFIG_FILENAME = "cooja.config";
 
   /**
-   * File filter only showing saved simulations files (*.csc).
+   * File filter only showing saved simulations files (*.csc, *.cscb).
    */
   public static final FileFilter SAVED_SIMULATIONS_FILES = new FileFilter() {
     public boolean accept(File file) {
@@ -210,6 +209,9 @@ public class GUI extends Observable {
       if (file.getName().endsWith(".csc")) {
         return true;
       }
+      if (file.getName().endsWith(ConfigSnapshot.SUFFIX)) {
+        return true;
+      }
 
       return false;
     }
@@ -245,6 +247,7 @@ public class GUI extends Observable {
     "PATH_AR", "AR_COMMAND_1", "AR_COMMAND_2",
     "PATH_OBJDUMP", "OBJDUMP_ARGS",
     "PATH_JAVAC",
+    "FIRMWARE_CACHE",
 
     "CONTIKI_STANDARD_PROCESSES",
     "CONTIKI_MAIN_TEMPLATE_FILENAME",
@@ -339,6 +342,9 @@ public class GUI extends Observable {
   private JScrollPane quickHelpScroll;
   private Properties quickHelpProperties = null; /* quickhelp.txt */
 
+  /* Batch mode test log, see BatchRunner */
+  private File batchLogFile = null;
+
   /**
    * Mote relation (directed).
    */
@@ -435,6 +441,32 @@ public class GUI extends Observable {
   }
 
 
+  /**
+   * Enables batch mode, used when several simulations are run in the same JVM.
+   * In batch mode, test scripts write their output to the given file, and
+   * simulations are stopped instead of COOJA being terminated when tests end.
+   *
+   * @see BatchRunner
+   * @param logFile Test log file, or null to disable batch mode
+   */
+  public void setBatchLogFile(File logFile) {
+    batchLogFile = logFile;
+  }
+
+  /**
+   * @return Batch mode test log file, or null if not in batch mode
+   */
+  public File getBatchLogFile() {
+    return batchLogFile;
+  }
+
+  /**
+   * @return True if in batch mode
+   */
+  public boolean isBatchMode() {
+    return batchLogFile != null;
+  }
+
   /**
    * Add mote highlight observer.
    *
@@ -1098,7 +1130,7 @@ public class GUI extends Observable {
     desktop.revalidate();
   }
 
-  private static JDesktopPane createDesktopPane() {
+  static JDesktopPane createDesktopPane() {
     final JDesktopPane desktop = new JDesktopPane() {
       public void setBounds(int x, int y, int w, int h) {
         super.setBounds(x, y, w, h);
@@ -1157,6 +1189,43 @@ public class GUI extends Observable {
     }
   }
 
+  /**
+   * Captures all radio traffic of given simulation to a binary file,
+   * until the JVM exits.
+   *
+   * @param sim Simulation
+   * @param file Capture file
+   * @see RadioCapture
+   */
+  private static void startRadioCapture(final Simulation sim, File file) {
+    final RadioCapture capture;
+    try {
+      capture = RadioCapture.create(file);
+    } catch (IOException e) {
+      logger.fatal("Could not create radio capture file: " + e.getMessage());
+      System.exit(1);
+      return;
+    }
+
+    Runnable startCapture = new Runnable() {
+      public void run() {
+        capture.startCapture(sim.getRadioMedium());
+      }
+    };
+    if (sim.isRunning()) {
+      sim.invokeSimulationThread(startCapture);
+    } else {
+      startCapture.run();
+    }
+
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      public void run() {
+        capture.close();
+      }
+    });
+    logger.info("Capturing radio traffic to: " + file);
+  }
+
   /**
    * Allows user to create a simulation with a single mote type.
    *
@@ -3073,7 +3142,7 @@ public class GUI extends Observable {
       }
 
       boolean ok = false;
-      if (contikiApp.endsWith(".csc")) {
+      if (contikiApp.endsWith(".csc") || contikiApp.endsWith(ConfigSnapshot.SUFFIX)) {
 
         ok = quickStartSimulationConfig(new File(contikiApp), true) != null;
 
@@ -3102,6 +3171,13 @@ public class GUI extends Observable {
         System.exit(1);
       }
       GUI gui = sim.getGUI();
+
+      /* Capture radio traffic */
+      for (int i = 1; i < args.length; i++) {
+        if (args[i].startsWith("-radiocapture=")) {
+          startRadioCapture(sim, new File(args[i].substring("-radiocapture=".length())));
+        }
+      }
       
       /* Make sure at least one test editor is controlling the simulation */
       boolean hasEditor = false;
@@ -3116,7 +3192,8 @@ public class GUI extends Observable {
        * simulation has no test editor, but has external (old style) test script.
        * We will manually start a test editor from here. */
       if (!hasEditor) {
-        File scriptFile = new File(config.substring(0, config.length()-4) + ".js");
+        int suffixLength = config.endsWith(ConfigSnapshot.SUFFIX)?ConfigSnapshot.SUFFIX.length():4;
+        File scriptFile = new File(config.substring(0, config.length()-suffixLength) + ".js");
         if (scriptFile.exists()) {
           logger.info("Detected old simulation test, starting test editor manually from: " + scriptFile);
           ScriptRunner plugin = (ScriptRunner) gui.tryStartPlugin(ScriptRunner.class, gui, sim, null);
@@ -3132,7 +3209,53 @@ public class GUI extends Observable {
           System.exit(1);
         }
       }
-      
+
+    } else if (args.length > 0 && args[0].startsWith("-batch=")) {
+
+      /* Run many simulations in this JVM */
+      File templateFile = new File(args[0].substring("-batch=".length()));
+      File paramsFile = null;
+      int threads = Runtime.getRuntime().availableProcessors();
+      String outputPattern = null;
+      File summaryFile = null;
+      for (int i = 1; i < args.length; i++) {
+        if (args[i].startsWith("-params=")) {
+          paramsFile = new File(args[i].substring("-params=".length()));
+        } else if (args[i].startsWith("-threads=")) {
+          try {
+            threads = Integer.parseInt(args[i].substring("-threads=".length()));
+          } catch (NumberFormatException e) {
+            logger.fatal("Bad number of batch threads: " + args[i] + ", aborting");
+            System.exit(1);
+          }
+        } else if (args[i].startsWith("-output=")) {
+          outputPattern = args[i].substring("-output=".length());
+        } else if (args[i].startsWith("-summary=")) {
+          summaryFile = new File(args[i].substring("-summary=".length()));
+        }
+      }
+      if (paramsFile == null) {
+        logger.fatal("No batch parameter file specified (-params=), aborting");
+        System.exit(1);
+      }
+
+      boolean ok;
+      try {
+        BatchRunner batch = new BatchRunner(templateFile, paramsFile);
+        batch.setThreads(threads);
+        if (outputPattern != null) {
+          batch.setOutputPattern(outputPattern);
+        }
+        if (summaryFile != null) {
+          batch.setSummaryFile(summaryFile);
+        }
+        ok = batch.runAll();
+      } catch (IOException e) {
+        logger.fatal("Error when reading batch configuration: " + e.getMessage(), e);
+        ok = false;
+      }
+      System.exit(ok?0:1);
+
     } else if (args.length > 0 && args[0].startsWith("-applet")) {
 
       String tmpWebPath=null, tmpBuildPath=null, tmpEsbFirmware=null, tmpSkyFirmware=null;
@@ -3201,9 +3324,14 @@ public class GUI extends Observable {
     this.currentConfigFile = file; /* Used to generate config relative paths */
 
     try {
-      SAXBuilder builder = new SAXBuilder();
-      Document doc = builder.build(file);
-      Element root = doc.getRootElement();
+      Element root;
+      if (ConfigSnapshot.isSnapshot(file)) {
+        root = ConfigSnapshot.read(file);
+      } else {
+        SAXBuilder builder = new SAXBuilder();
+        Document doc = builder.build(file);
+        root = doc.getRootElement();
+      }
 
       return loadSimulationConfig(root, quick, null);
     } catch (JDOMException e) {
@@ -3245,16 +3373,10 @@ public class GUI extends Observable {
       boolean projectsOk = verifyProjects(root.getChildren(), !quick);
 
       /* GENERATE UNIQUE MOTE TYPE IDENTIFIERS */
-      root.detach();
-      String configString = new XMLOutputter().outputString(new Document(root));
 
       /* Locate Contiki mote types in config */
       Properties moteTypeIDMappings = new Properties();
-      String identifierExtraction = ContikiMoteType.class.getName() + "[\\s\\n]*<identifier>([^<]*)</identifier>";
-      Matcher matcher = Pattern.compile(identifierExtraction).matcher(configString);
-      while (matcher.find()) {
-        moteTypeIDMappings.setProperty(matcher.group(1), "");
-      }
+      findContikiMoteTypeIdentifiers(root, moteTypeIDMappings);
 
       /* Create old to new identifier mappings */
       Enumeration<Object> existingIdentifiers = moteTypeIDMappings.keys();
@@ -3271,27 +3393,16 @@ public class GUI extends Observable {
         moteTypeIDMappings.setProperty(existingIdentifier, newID);
       }
 
-      /* Create new config */
-      existingIdentifiers = moteTypeIDMappings.keys();
-      while (existingIdentifiers.hasMoreElements()) {
-        String existingIdentifier = (String) existingIdentifiers.nextElement();
-        configString = configString.replaceAll(
-            "<identifier>" + existingIdentifier + "</identifier>",
-            "<identifier>" + moteTypeIDMappings.get(existingIdentifier) + "</identifier>");
-        configString = configString.replaceAll(
-            "<motetype_identifier>" + existingIdentifier + "</motetype_identifier>",
-            "<motetype_identifier>" + moteTypeIDMappings.get(existingIdentifier) + "</motetype_identifier>");
+      /* Update config, in a single pass */
+      if (!moteTypeIDMappings.isEmpty()) {
+        remapMoteTypeIdentifiers(root, moteTypeIDMappings);
       }
 
-      /* Replace existing config */
-      root = new SAXBuilder().build(new StringReader(configString)).getRootElement();
-
       // Create new simulation from config
       for (Object element : root.getChildren()) {
         if (((Element) element).getName().equals("simulation")) {
           Collection<Element> config = ((Element) element).getChildren();
           newSim = new Simulation(this);
-          System.gc();
           boolean createdOK = newSim.setConfigXML(config, !quick, manualRandomSeed);
           if (!createdOK) {
             logger.info("Simulation not loaded");
@@ -3303,12 +3414,6 @@ public class GUI extends Observable {
       // Restart plugins from config
       setPluginsConfigXML(root.getChildren(), newSim, !quick);
 
-    } catch (JDOMException e) {
-      throw (SimulationCreationException) new SimulationCreationException(
-          "Configuration file not wellformed: " + e.getMessage()).initCause(e);
-    } catch (IOException e) {
-      throw (SimulationCreationException) new SimulationCreationException(
-          "No access to configuration file: " + e.getMessage()).initCause(e);
     } catch (MoteTypeCreationException e) {
       throw (SimulationCreationException) new SimulationCreationException(
           "Mote type creation error: " + e.getMessage()).initCause(e);
@@ -3320,9 +3425,55 @@ public class GUI extends Observable {
     return newSim;
   }
 
+  /**
+   * Collects identifiers of all Contiki mote types in given config tree.
+   *
+   * @param element Config element
+   * @param identifiers Found identifiers are added as keys
+   */
+  private static void findContikiMoteTypeIdentifiers(Element element, Properties identifiers) {
+    for (Object o: element.getChildren()) {
+      Element child = (Element) o;
+      if (child.getName().equals("motetype")) {
+        if (child.getTextTrim().equals(ContikiMoteType.class.getName())) {
+          Element identifier = child.getChild("identifier");
+          if (identifier != null) {
+            identifiers.setProperty(identifier.getText(), "");
+          }
+        }
+      } else {
+        findContikiMoteTypeIdentifiers(child, identifiers);
+      }
+    }
+  }
+
+  /**
+   * Replaces mote type identifiers in given config tree, both in mote types
+   * (identifier) and in motes (motetype_identifier).
+   *
+   * @param element Config element
+   * @param mappings Old to new identifier mappings
+   */
+  private static void remapMoteTypeIdentifiers(Element element, Properties mappings) {
+    for (Object o: element.getChildren()) {
+      Element child = (Element) o;
+      if (child.getName().equals("identifier") ||
+          child.getName().equals("motetype_identifier")) {
+        String newIdentifier = mappings.getProperty(child.getText());
+        if (newIdentifier != null) {
+          child.setText(newIdentifier);
+        }
+      } else {
+        remapMoteTypeIdentifiers(child, mappings);
+      }
+    }
+  }
+
   /**
    * Saves current simulation configuration to given file and notifies
    * observers.
+   * If the file name ends with {@link ConfigSnapshot#SUFFIX}, the configuration
+   * is saved as a binary snapshot.
    *
    * @see #loadSimulationConfig(File, boolean)
    * @param file
@@ -3332,6 +3483,12 @@ public class GUI extends Observable {
     this.currentConfigFile = file; /* Used to generate config relative paths */
 
     try {
+      if (file.getName().endsWith(ConfigSnapshot.SUFFIX)) {
+        ConfigSnapshot.write(extractSimulationConfig(), file);
+        logger.info("Saved snapshot to file: " + file.getAbsolutePath());
+        return;
+      }
+
       // Create and write to document
       Document doc = new Document(extractSimulationConfig());
       FileOutputStream out = new FileOutputStream(file);
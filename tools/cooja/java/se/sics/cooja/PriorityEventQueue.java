@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2010, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * $Id$
+ */
+
+package se.sics.cooja;
+
+/**
+ * Binary heap event queue.
+ *
+ * Events are ordered by execution time, and events with equal execution
+ * times are executed in the order they were scheduled (FIFO).
+ * This is the same ordering as the linked list {@link EventQueue}, but
+ * scheduling is O(log n) instead of O(n).
+ *
+ * Removed events are not unlinked from the heap, they are skipped when
+ * popped.
+ *
+ * @see EventQueue
+ */
+public class PriorityEventQueue extends EventQueue {
+
+  private TimeEvent[] heap = new TimeEvent[256];
+  private int size = 0;
+
+  /* Insertion counter, used to keep equal time events in FIFO order */
+  private long sequence = 0;
+
+  /**
+   * Should only be called from simulation thread!
+   *
+   * @param event Event
+   * @param time Time
+   */
+  public void addEvent(TimeEvent event, long time) {
+    if (event.removed && event.queue == this) {
+      removeFromHeap(event);
+    }
+    if (event.queue != null) {
+      throw new IllegalStateException("Event was already scheduled in the past: " + event);
+    }
+
+    event.time = time;
+    event.sequence = sequence++;
+
+    if (size == heap.length) {
+      TimeEvent[] tmp = new TimeEvent[heap.length*2];
+      System.arraycopy(heap, 0, tmp, 0, size);
+      heap = tmp;
+    }
+    heap[size] = event;
+    event.heapIndex = size;
+    size++;
+    siftUp(event.heapIndex);
+
+    event.removed = false;
+    event.queue = this;
+  }
+
+  private void removeFromHeap(TimeEvent event) {
+    int pos = event.heapIndex;
+    size--;
+    if (pos != size) {
+      heap[pos] = heap[size];
+      heap[pos].heapIndex = pos;
+      heap[size] = null;
+      siftDown(pos);
+      siftUp(pos);
+    } else {
+      heap[size] = null;
+    }
+
+    event.heapIndex = -1;
+    event.queue = null;
+  }
+
+  public void removeAll() {
+    for (int i=0; i < size; i++) {
+      heap[i].heapIndex = -1;
+      heap[i].queue = null;
+      heap[i] = null;
+    }
+    size = 0;
+  }
+
+  /**
+   * Should only be called from simulation thread!
+   *
+   * @return Event
+   */
+  public TimeEvent popFirst() {
+    while (size > 0) {
+      TimeEvent tmp = heap[0];
+      removeFromHeap(tmp);
+      if (!tmp.removed) {
+        return tmp;
+      }
+    }
+    return null;
+  }
+
+  public TimeEvent peekFirst() {
+    if (size == 0) {
+      return null;
+    }
+    return heap[0];
+  }
+
+  public void removeMoteEvents(Mote mote) {
+    for (int i=0; i < size; i++) {
+      if (heap[i] instanceof MoteTimeEvent &&
+          ((MoteTimeEvent)heap[i]).getMote() == mote) {
+        heap[i].remove();
+      }
+    }
+  }
+
+  private static boolean before(TimeEvent a, TimeEvent b) {
+    if (a.time != b.time) {
+      return a.time < b.time;
+    }
+    return a.sequence < b.sequence;
+  }
+
+  private void siftUp(int pos) {
+    TimeEvent event = heap[pos];
+    while (pos > 0) {
+      int parent = (pos - 1) >>> 1;
+      if (!before(event, heap[parent])) {
+        break;
+      }
+      heap[pos] = heap[parent];
+      heap[pos].heapIndex = pos;
+      pos = parent;
+    }
+    heap[pos] = event;
+    event.heapIndex = pos;
+  }
+
+  private void siftDown(int pos) {
+    TimeEvent event = heap[pos];
+    int half = size >>> 1;
+    while (pos < half) {
+      int child = 2*pos + 1;
+      int right = child + 1;
+      if (right < size && before(heap[right], heap[child])) {
+        child = right;
+      }
+      if (!before(heap[child], event)) {
+        break;
+      }
+      heap[pos] = heap[child];
+      heap[pos].heapIndex = pos;
+      pos = child;
+    }
+    heap[pos] = event;
+    event.heapIndex = pos;
+  }
+
+  public String toString() {
+    return "PriorityEventQueue with " + size + " events";
+  }
+}
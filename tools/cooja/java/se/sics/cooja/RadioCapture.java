@@ -0,0 +1,454 @@
+/*
+ * Copyright (c) 2010, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * $Id$
+ */
+
+package se.sics.cooja;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Observable;
+import java.util.Observer;
+
+import org.apache.log4j.Logger;
+
+import se.sics.cooja.interfaces.Radio;
+
+/**
+ * Radio capture streams radio connections to a binary file as they finish,
+ * and provides random access to the captured connections.
+ *
+ * Only a sparse index is kept in memory: the file offset and end time of
+ * every {@link #INDEX_INTERVAL}th connection. Connections are appended in
+ * order of end time.
+ *
+ * File format, all values big-endian:
+ * <pre>
+ * Header: int magic ('CRAD'), int version
+ * Connection record:
+ *   int record length (bytes following)
+ *   long start time, long end time (us)
+ *   int source mote ID
+ *   int destination count, int[] destination mote IDs
+ *   int interfered count, int[] interfered mote IDs
+ *   byte packet type (0: none, 1: packet, 2: converted packet)
+ *   int length, byte[] packet data (original data if converted)
+ *   int length, byte[] converted packet data (only converted packets)
+ * </pre>
+ *
+ * A truncated last record, for example after a crash, is ignored when
+ * opening a capture file.
+ *
+ * @see se.sics.cooja.plugins.RadioLogger
+ */
+public class RadioCapture {
+  private static Logger logger = Logger.getLogger(RadioCapture.class);
+
+  public static final int FILE_MAGIC = 0x43524144; /* 'CRAD' */
+  public static final int FILE_VERSION = 1;
+  private static final int HEADER_SIZE = 8;
+
+  public static final int INDEX_INTERVAL = 64;
+
+  private static final byte PACKET_NONE = 0;
+  private static final byte PACKET_DATA = 1;
+  private static final byte PACKET_CONVERTED = 2;
+
+  private final File file;
+  private RandomAccessFile reader = null;
+  private DataOutputStream writer = null;
+  private boolean writerDirty = false;
+
+  private int count = 0;
+  private long fileLength = 0;
+  private long[] indexOffsets = new long[16];
+  private long[] indexEndTimes = new long[16];
+
+  /* Position of next sequential read */
+  private int readPosition = -1;
+  private long readOffset = -1;
+
+  private RadioMedium radioMedium = null;
+  private Observer radioMediumObserver = null;
+
+  private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream();
+  private final DataOutputStream recordOut = new DataOutputStream(recordBuffer);
+
+  /**
+   * A captured radio connection. Radios are referred to by mote IDs.
+   */
+  public static class Entry {
+    public long startTime;
+    public long endTime;
+    public int source;
+    public int[] destinations;
+    public int[] interfered;
+
+    /* Null if no packet was available */
+    public byte[] packetData;
+    /* Null unless a converted (cross-level) packet */
+    public byte[] convertedPacketData;
+  }
+
+  private RadioCapture(File file) {
+    this.file = file;
+  }
+
+  /**
+   * Creates a new capture file, overwriting any existing file.
+   *
+   * @param file Capture file
+   * @return Radio capture
+   * @throws IOException On file errors
+   */
+  public static RadioCapture create(File file) throws IOException {
+    RadioCapture capture = new RadioCapture(file);
+    capture.writer = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    capture.writer.writeInt(FILE_MAGIC);
+    capture.writer.writeInt(FILE_VERSION);
+    capture.writer.flush();
+    capture.fileLength = HEADER_SIZE;
+    return capture;
+  }
+
+  /**
+   * Opens an existing capture file for reading.
+   * The file is scanned once to build the index.
+   *
+   * @param file Capture file
+   * @return Radio capture
+   * @throws IOException On file errors, or if not a capture file
+   */
+  public static RadioCapture open(File file) throws IOException {
+    RadioCapture capture = new RadioCapture(file);
+    RandomAccessFile in = new RandomAccessFile(file, "r");
+    capture.reader = in;
+    if (in.length() < HEADER_SIZE || in.readInt() != FILE_MAGIC) {
+      in.close();
+      throw new IOException("Not a radio capture file: " + file);
+    }
+    int version = in.readInt();
+    if (version != FILE_VERSION) {
+      in.close();
+      throw new IOException("Unsupported radio capture version: " + version);
+    }
+
+    long offset = HEADER_SIZE;
+    long length = in.length();
+    while (offset + 4 + 16 <= length) {
+      in.seek(offset);
+      int recordLength = in.readInt();
+      if (recordLength < 16 || offset + 4 + recordLength > length) {
+        break;
+      }
+      in.readLong(); /* Start time */
+      capture.addToIndex(offset, in.readLong());
+      offset += 4 + recordLength;
+    }
+    capture.fileLength = offset;
+    if (offset < length) {
+      logger.warn("Ignoring truncated radio capture data: " + file);
+    }
+    return capture;
+  }
+
+  /**
+   * @return Capture file
+   */
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Starts capturing all connections of the given radio medium.
+   *
+   * @param radioMedium Radio medium
+   */
+  public synchronized void startCapture(final RadioMedium radioMedium) {
+    stopCapture();
+    this.radioMedium = radioMedium;
+    radioMedium.addRadioMediumObserver(radioMediumObserver = new Observer() {
+      public void update(Observable obs, Object obj) {
+        RadioConnection conn = radioMedium.getLastConnection();
+        if (conn == null) {
+          return;
+        }
+        Mote mote = conn.getSource().getMote();
+        long endTime = mote.getSimulation().getSimulationTime();
+        try {
+          add(conn, conn.getSource().getLastPacketTransmitted(), endTime);
+        } catch (IOException e) {
+          logger.fatal("Radio capture error, stopping capture: " + e.getMessage());
+          stopCapture();
+        }
+      }
+    });
+  }
+
+  /**
+   * Stops capturing connections.
+   */
+  public synchronized void stopCapture() {
+    if (radioMedium != null && radioMediumObserver != null) {
+      radioMedium.deleteRadioMediumObserver(radioMediumObserver);
+    }
+    radioMedium = null;
+    radioMediumObserver = null;
+  }
+
+  /**
+   * Appends a finished radio connection.
+   *
+   * @param conn Radio connection
+   * @param packet Transmitted packet, may be null
+   * @param endTime Connection end time
+   * @throws IOException On file errors
+   */
+  public synchronized void add(RadioConnection conn, RadioPacket packet, long endTime)
+  throws IOException {
+    if (writer == null) {
+      throw new IOException("Radio capture is read-only: " + file);
+    }
+
+    recordBuffer.reset();
+    recordOut.writeLong(conn.getStartTime());
+    recordOut.writeLong(endTime);
+    recordOut.writeInt(conn.getSource().getMote().getID());
+    writeMoteIDs(recordOut, conn.getDestinations());
+    writeMoteIDs(recordOut, conn.getInterfered());
+    if (packet == null) {
+      recordOut.writeByte(PACKET_NONE);
+    } else if (packet instanceof ConvertedRadioPacket) {
+      recordOut.writeByte(PACKET_CONVERTED);
+      writeData(recordOut, ((ConvertedRadioPacket)packet).getOriginalPacketData());
+      writeData(recordOut, packet.getPacketData());
+    } else {
+      recordOut.writeByte(PACKET_DATA);
+      writeData(recordOut, packet.getPacketData());
+    }
+
+    writer.writeInt(recordBuffer.size());
+    recordBuffer.writeTo(writer);
+    writerDirty = true;
+
+    addToIndex(fileLength, endTime);
+    fileLength += 4 + recordBuffer.size();
+  }
+
+  private static void writeMoteIDs(DataOutputStream out, Radio[] radios) throws IOException {
+    out.writeInt(radios.length);
+    for (Radio radio: radios) {
+      out.writeInt(radio.getMote().getID());
+    }
+  }
+
+  private static void writeData(DataOutputStream out, byte[] data) throws IOException {
+    if (data == null) {
+      out.writeInt(-1);
+      return;
+    }
+    out.writeInt(data.length);
+    out.write(data);
+  }
+
+  private void addToIndex(long offset, long endTime) {
+    if (count % INDEX_INTERVAL == 0) {
+      int i = count / INDEX_INTERVAL;
+      if (i == indexOffsets.length) {
+        long[] offsets = new long[2*i];
+        long[] endTimes = new long[2*i];
+        System.arraycopy(indexOffsets, 0, offsets, 0, i);
+        System.arraycopy(indexEndTimes, 0, endTimes, 0, i);
+        indexOffsets = offsets;
+        indexEndTimes = endTimes;
+      }
+      indexOffsets[i] = offset;
+      indexEndTimes[i] = endTime;
+    }
+    count++;
+  }
+
+  /**
+   * @return Number of captured connections
+   */
+  public synchronized int getEntryCount() {
+    return count;
+  }
+
+  /**
+   * Reads a captured connection.
+   * Sequential reads are faster than random reads.
+   *
+   * @param index Connection index
+   * @return Captured connection
+   * @throws IOException On file errors
+   */
+  public synchronized Entry getEntry(int index) throws IOException {
+    if (index < 0 || index >= count) {
+      throw new IndexOutOfBoundsException("No radio capture entry: " + index);
+    }
+    if (writerDirty) {
+      writer.flush();
+      writerDirty = false;
+    }
+    if (reader == null) {
+      reader = new RandomAccessFile(file, "r");
+    }
+
+    /* Skip from closest position */
+    long offset;
+    int position;
+    if (readPosition >= 0 && readPosition <= index &&
+        readPosition > (index / INDEX_INTERVAL) * INDEX_INTERVAL) {
+      position = readPosition;
+      offset = readOffset;
+    } else {
+      position = (index / INDEX_INTERVAL) * INDEX_INTERVAL;
+      offset = indexOffsets[index / INDEX_INTERVAL];
+    }
+    reader.seek(offset);
+    while (position < index) {
+      int recordLength = reader.readInt();
+      offset += 4 + recordLength;
+      reader.seek(offset);
+      position++;
+    }
+
+    byte[] record = new byte[reader.readInt()];
+    reader.readFully(record);
+    readPosition = index + 1;
+    readOffset = offset + 4 + record.length;
+
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+    Entry entry = new Entry();
+    entry.startTime = in.readLong();
+    entry.endTime = in.readLong();
+    entry.source = in.readInt();
+    entry.destinations = readMoteIDs(in);
+    entry.interfered = readMoteIDs(in);
+    byte packetType = in.readByte();
+    if (packetType == PACKET_DATA) {
+      entry.packetData = readData(in);
+    } else if (packetType == PACKET_CONVERTED) {
+      entry.packetData = readData(in);
+      entry.convertedPacketData = readData(in);
+      if (entry.convertedPacketData == null) {
+        entry.convertedPacketData = new byte[0];
+      }
+    }
+    return entry;
+  }
+
+  private static int[] readMoteIDs(DataInputStream in) throws IOException {
+    int[] ids = new int[in.readInt()];
+    for (int i=0; i < ids.length; i++) {
+      ids[i] = in.readInt();
+    }
+    return ids;
+  }
+
+  private static byte[] readData(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] data = new byte[length];
+    in.readFully(data);
+    return data;
+  }
+
+  /**
+   * Finds the first connection that ended at or after the given time.
+   *
+   * @param time Time
+   * @return Connection index, or -1 if no such connection
+   * @throws IOException On file errors
+   */
+  public synchronized int findEntry(long time) throws IOException {
+    if (count == 0) {
+      return -1;
+    }
+
+    /* Last index block starting before time */
+    int low = 0, high = (count - 1) / INDEX_INTERVAL;
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if (indexEndTimes[mid] < time) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+
+    for (int i=low*INDEX_INTERVAL; i < count; i++) {
+      if (getEntry(i).endTime >= time) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Writes buffered connections to file.
+   *
+   * @throws IOException On file errors
+   */
+  public synchronized void flush() throws IOException {
+    if (writer != null) {
+      writer.flush();
+      writerDirty = false;
+    }
+  }
+
+  /**
+   * Stops capturing and closes the capture file.
+   */
+  public synchronized void close() {
+    stopCapture();
+    try {
+      if (writer != null) {
+        writer.close();
+      }
+      if (reader != null) {
+        reader.close();
+      }
+    } catch (IOException e) {
+      logger.warn("Error when closing radio capture: " + e.getMessage());
+    }
+    writer = null;
+    reader = null;
+  }
+}
@@ -31,8 +31,6 @@
 
 package se.sics.cooja;
 
-import java.util.ArrayList;
-
 import org.apache.log4j.Logger;
 
 import se.sics.cooja.interfaces.Radio;
@@ -51,6 +49,11 @@ import se.sics.cooja.interfaces.Radio;
  * receive the connection data.
  * And the interfered non-destination radios do not receive the connection data.
  * 
+ * Radios are stored in arrays. The getters return copies, while radio
+ * mediums may use the indexed accessors to avoid allocations.
+ * Finished connections may be reused by the radio medium, see
+ * {@link #reset(Radio)}.
+ *
  * @see RadioMedium
  * @author Fredrik Osterlind
  */
@@ -62,24 +65,107 @@ public class RadioConnection {
 
   private Radio source;
   
-  private ArrayList<Radio> allDestinations = new ArrayList<Radio>();
-  private ArrayList<Long> allDestinationDelays = new ArrayList<Long>();
+  private RadioList allDestinations = new RadioList();
+  private long[] allDestinationDelays = new long[8];
 
-  private ArrayList<Radio> allInterfered = new ArrayList<Radio>();
-  private ArrayList<Radio> onlyInterfered = new ArrayList<Radio>();
-  private ArrayList<Radio> destinationsNonInterfered = new ArrayList<Radio>();
+  private RadioList allInterfered = new RadioList();
+  private RadioList onlyInterfered = new RadioList();
+  private RadioList destinationsNonInterfered = new RadioList();
   
   private long startTime;
 
+  /* Destinations receiving custom data, see #getCustomDataDestinationsCount() */
+  private Radio[] customDataDestinations = null;
+  private long[] customDataDelays = null;
+
+  /**
+   * Ordered set of radios.
+   */
+  private static class RadioList {
+    private Radio[] radios = new Radio[8];
+    private int size = 0;
+
+    public void add(Radio radio) {
+      if (size == radios.length) {
+        Radio[] tmp = new Radio[size*2];
+        System.arraycopy(radios, 0, tmp, 0, size);
+        radios = tmp;
+      }
+      radios[size++] = radio;
+    }
+
+    public int indexOf(Radio radio) {
+      for (int i=0; i < size; i++) {
+        if (radios[i] == radio) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    public boolean contains(Radio radio) {
+      return indexOf(radio) >= 0;
+    }
+
+    public void remove(Radio radio) {
+      int idx = indexOf(radio);
+      if (idx < 0) {
+        return;
+      }
+      size--;
+      System.arraycopy(radios, idx+1, radios, idx, size-idx);
+      radios[size] = null;
+    }
+
+    public void clear() {
+      for (int i=0; i < size; i++) {
+        radios[i] = null;
+      }
+      size = 0;
+    }
+
+    public Radio get(int idx) {
+      return radios[idx];
+    }
+
+    public int size() {
+      return size;
+    }
+
+    public Radio[] toArray() {
+      Radio[] array = new Radio[size];
+      System.arraycopy(radios, 0, array, 0, size);
+      return array;
+    }
+  }
+
   /**
    * Creates a new radio connection with given source and no destinations.
    *
    * @param sourceRadio Source radio
    */
   public RadioConnection(Radio sourceRadio) {
+    reset(sourceRadio);
+  }
+
+  /**
+   * Clears a finished connection, and reuses it for a new connection with
+   * given source and no destinations.
+   * Should only be called by radio mediums.
+   *
+   * @param sourceRadio Source radio
+   */
+  public void reset(Radio sourceRadio) {
     this.source = sourceRadio;
     startTime = sourceRadio.getMote().getSimulation().getSimulationTime();
 
+    allDestinations.clear();
+    allInterfered.clear();
+    onlyInterfered.clear();
+    destinationsNonInterfered.clear();
+    customDataDestinations = null;
+    customDataDelays = null;
+
     this.id = ID++;
   }
 
@@ -96,7 +182,7 @@ public class RadioConnection {
    * @param radio Radio
    */
   public void addDestination(Radio radio) {
-    addDestination(radio, new Long(0));
+    addDestination(radio, 0);
   }
 
   /**
@@ -106,13 +192,30 @@ public class RadioConnection {
    * @param delay Radio propagation delay (us)
    */
   public void addDestination(Radio radio, Long delay) {
+    addDestination(radio, delay.longValue());
+  }
+
+  /**
+   * Add (non-interfered) destination radio to connection.
+   * 
+   * @param radio Radio
+   * @param delay Radio propagation delay (us)
+   */
+  public void addDestination(Radio radio, long delay) {
     if (isDestination(radio)) {
       logger.fatal("Radio is already a destination: " + radio);
       return;
     }
+    if (allDestinations.size() == allDestinationDelays.length) {
+      long[] tmp = new long[allDestinationDelays.length*2];
+      System.arraycopy(allDestinationDelays, 0, tmp, 0, allDestinations.size());
+      allDestinationDelays = tmp;
+    }
+    allDestinationDelays[allDestinations.size()] = delay;
     allDestinations.add(radio);
-    allDestinationDelays.add(delay);
     destinationsNonInterfered.add(radio);
+    customDataDestinations = null;
+    customDataDelays = null;
     onlyInterfered.remove(radio);
   }
 
@@ -126,8 +229,91 @@ public class RadioConnection {
       logger.fatal("Radio is not a connection destination: " + radio);
       return 0;
     }
-    return allDestinationDelays.get(idx);
+    return allDestinationDelays[idx];
+  }
+
+  /**
+   * @see #getAllDestinations()
+   * @return Number of destination radios, including interfered
+   */
+  public int getAllDestinationsCount() {
+    return allDestinations.size();
+  }
 
+  /**
+   * @see #getAllDestinations()
+   * @param idx Destination index
+   * @return Destination radio
+   */
+  public Radio getDestination(int idx) {
+    return allDestinations.get(idx);
+  }
+
+  /**
+   * @see #getAllDestinations()
+   * @param idx Destination index
+   * @return Radio propagation delay (us)
+   */
+  public long getDestinationDelay(int idx) {
+    return allDestinationDelays[idx];
+  }
+
+  private void updateCustomDataDestinations() {
+    int count = 0;
+    for (int i=0; i < allDestinations.size(); i++) {
+      if (source.getClass().equals(allDestinations.get(i).getClass())) {
+        count++;
+      }
+    }
+    customDataDestinations = new Radio[count];
+    customDataDelays = new long[count];
+    count = 0;
+    for (int i=0; i < allDestinations.size(); i++) {
+      if (source.getClass().equals(allDestinations.get(i).getClass())) {
+        customDataDestinations[count] = allDestinations.get(i);
+        customDataDelays[count] = allDestinationDelays[i];
+        count++;
+      }
+    }
+  }
+
+  /**
+   * Custom data is forwarded only to destinations of the same radio class
+   * as the source. Other destinations communicate via radio packets.
+   * The custom data destinations are calculated once per connection.
+   *
+   * @see #getAllDestinations()
+   * @return Number of destination radios receiving custom data
+   */
+  public int getCustomDataDestinationsCount() {
+    if (customDataDestinations == null) {
+      updateCustomDataDestinations();
+    }
+    return customDataDestinations.length;
+  }
+
+  /**
+   * @see #getCustomDataDestinationsCount()
+   * @param idx Custom data destination index
+   * @return Destination radio
+   */
+  public Radio getCustomDataDestination(int idx) {
+    if (customDataDestinations == null) {
+      updateCustomDataDestinations();
+    }
+    return customDataDestinations[idx];
+  }
+
+  /**
+   * @see #getCustomDataDestinationsCount()
+   * @param idx Custom data destination index
+   * @return Radio propagation delay (us)
+   */
+  public long getCustomDataDelay(int idx) {
+    if (customDataDelays == null) {
+      updateCustomDataDestinations();
+    }
+    return customDataDelays[idx];
   }
 
   /**
@@ -179,7 +365,7 @@ public class RadioConnection {
    * @return All non-interfered destinations
    */
   public Radio[] getDestinations() {
-    return destinationsNonInterfered.toArray(new Radio[0]);
+    return destinationsNonInterfered.toArray();
   }
 
   /**
@@ -188,18 +374,60 @@ public class RadioConnection {
    * interfered after the connection started.
    */
   public Radio[] getAllDestinations() {
-    return allDestinations.toArray(new Radio[0]);
+    return allDestinations.toArray();
   }
 
   /**
    * @return All radios interfered by this connection, including destinations
    */
   public Radio[] getInterfered() {
-    return allInterfered.toArray(new Radio[0]);
+    return allInterfered.toArray();
   }
 
   public Radio[] getInterferedNonDestinations() {
-    return onlyInterfered.toArray(new Radio[0]);
+    return onlyInterfered.toArray();
+  }
+
+  /**
+   * @see #getDestinations()
+   * @return Number of non-interfered destinations
+   */
+  public int getDestinationsCount() {
+    return destinationsNonInterfered.size();
+  }
+
+  /**
+   * @see #getInterfered()
+   * @return Number of interfered radios, including destinations
+   */
+  public int getInterferedCount() {
+    return allInterfered.size();
+  }
+
+  /**
+   * @see #getInterfered()
+   * @param idx Interfered radio index
+   * @return Interfered radio
+   */
+  public Radio getInterfered(int idx) {
+    return allInterfered.get(idx);
+  }
+
+  /**
+   * @see #getInterferedNonDestinations()
+   * @return Number of interfered radios that are not destinations
+   */
+  public int getInterferedNonDestinationsCount() {
+    return onlyInterfered.size();
+  }
+
+  /**
+   * @see #getInterferedNonDestinations()
+   * @param idx Interfered radio index
+   * @return Interfered radio
+   */
+  public Radio getInterferedNonDestination(int idx) {
+    return onlyInterfered.get(idx);
   }
 
   public String toString() {
@@ -30,6 +30,7 @@
 package se.sics.cooja;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Properties;
 
 import org.apache.log4j.Logger;
@@ -47,8 +48,19 @@ import org.apache.log4j.Logger;
 public class SectionMoteMemory implements MoteMemory, AddressMemory {
   private static Logger logger = Logger.getLogger(SectionMoteMemory.class);
 
+  /**
+   * Size of the pages used to track which parts of a section have been
+   * written via this memory.
+   *
+   * @see #isDirtyPage(int, int)
+   */
+  public static final int PAGE_SIZE = 128;
+
   private ArrayList<MoteMemorySection> sections = new ArrayList<MoteMemorySection>();
 
+  /* Changed whenever sections are added or removed, invalidates handles */
+  private int sectionsVersion = 0;
+
   private final Properties addresses;
 
   /**
@@ -78,6 +90,7 @@ public class SectionMoteMemory implements MoteMemory, AddressMemory {
 
   public void clearMemory() {
     sections.clear();
+    sectionsVersion++;
   }
 
   public byte[] getMemorySegment(int address, int size) {
@@ -100,6 +113,7 @@ public class SectionMoteMemory implements MoteMemory, AddressMemory {
       }
     }
     sections.add(new MoteMemorySection(address, data));
+    sectionsVersion++;
   }
 
   public int getTotalSize() {
@@ -145,6 +159,7 @@ public class SectionMoteMemory implements MoteMemory, AddressMemory {
             startAddr + size, dataSecondPart);
 
         // Remove old section, add new sections
+        sectionsVersion++;
         sections.remove(oldSection);
         if (newSectionFirstPart.getSize() > 0) {
           sections.add(newSectionFirstPart);
@@ -201,6 +216,206 @@ public class SectionMoteMemory implements MoteMemory, AddressMemory {
     return sections.get(sectionNr).getData();
   }
 
+  /**
+   * True if any page of the section at given position has been written since
+   * the last call to {@link #clearDirtyPages()}.
+   * New sections have all pages marked as written.
+   *
+   * @param sectionNr Section position
+   * @return True if section has written pages
+   */
+  public boolean hasDirtyPages(int sectionNr) {
+    if (sectionNr >= sections.size()) {
+      return false;
+    }
+
+    return sections.get(sectionNr).hasDirtyPages();
+  }
+
+  /**
+   * True if given page of the section at given position has been written
+   * since the last call to {@link #clearDirtyPages()}.
+   *
+   * @see #PAGE_SIZE
+   * @param sectionNr Section position
+   * @param page Page number, relative to section start address
+   * @return True if page has been written
+   */
+  public boolean isDirtyPage(int sectionNr, int page) {
+    if (sectionNr >= sections.size()) {
+      return false;
+    }
+
+    return sections.get(sectionNr).isDirtyPage(page);
+  }
+
+  /**
+   * Marks all pages of all sections as not written.
+   */
+  public void clearDirtyPages() {
+    for (MoteMemorySection section : sections) {
+      section.clearDirtyPages();
+    }
+  }
+
+  /**
+   * Returns a handle to the variable with the given name.
+   * The variable address is resolved once, and the handle accesses the
+   * memory without name lookups or allocations.
+   * Handles should be created once, for example when constructing a mote
+   * interface, and are only valid for this memory.
+   *
+   * @param varName Variable name
+   * @return Variable handle
+   * @throws UnknownVariableException Variable does not exist
+   */
+  public VariableHandle getVariableHandle(String varName) throws UnknownVariableException {
+    return new VariableHandle(varName, getVariableAddress(varName));
+  }
+
+  /**
+   * Handle to a variable in this memory, resolved to a fixed address.
+   * Integers are accessed in the same byte order as
+   * {@link SectionMoteMemory#getIntValueOf(String)}.
+   *
+   * @see SectionMoteMemory#getVariableHandle(String)
+   */
+  public class VariableHandle {
+    private final String name;
+    private final int address;
+
+    /* Cached section containing variable */
+    private MoteMemorySection section = null;
+    private int version = -1;
+
+    private VariableHandle(String name, int address) {
+      this.name = name;
+      this.address = address;
+    }
+
+    /**
+     * @return Variable name
+     */
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * @return Variable address
+     */
+    public int getAddress() {
+      return address;
+    }
+
+    private MoteMemorySection getSection(int length) {
+      if (version != sectionsVersion) {
+        section = null;
+        for (MoteMemorySection s : sections) {
+          if (s.includesAddr(address)) {
+            section = s;
+            break;
+          }
+        }
+        version = sectionsVersion;
+      }
+      if (section == null || !section.includesAddr(address + length - 1)) {
+        return null;
+      }
+      return section;
+    }
+
+    private MoteMemorySection getExistingSection(int length) {
+      MoteMemorySection s = getSection(length);
+      if (s == null) {
+        throw new UnknownVariableException(name);
+      }
+      return s;
+    }
+
+    public byte getByte() throws UnknownVariableException {
+      return getExistingSection(1).getByte(address);
+    }
+
+    public void setByte(byte value) {
+      MoteMemorySection s = getSection(1);
+      if (s == null) {
+        setMemorySegment(address, new byte[] { value });
+        return;
+      }
+      s.setByte(address, value);
+    }
+
+    public int getInt() throws UnknownVariableException {
+      MoteMemorySection s = getExistingSection(4);
+
+      /* TODO Correct for all platforms? */
+      return
+        ((s.getByte(address) & 0xFF)) +
+        ((s.getByte(address+1) & 0xFF) << 8) +
+        ((s.getByte(address+2) & 0xFF) << 16) +
+        ((s.getByte(address+3) & 0xFF) << 24);
+    }
+
+    public void setInt(int value) {
+      MoteMemorySection s = getSection(4);
+      if (s == null) {
+        setIntValueOf(name, value);
+        return;
+      }
+
+      /* TODO Correct for all platforms? */
+      s.setByte(address, (byte) value);
+      s.setByte(address+1, (byte) (value >> 8));
+      s.setByte(address+2, (byte) (value >> 16));
+      s.setByte(address+3, (byte) (value >> 24));
+    }
+
+    /**
+     * Reads variable data into the given buffer.
+     *
+     * @param dst Buffer
+     * @param offset Buffer offset
+     * @param length Number of bytes to read
+     * @throws UnknownVariableException Variable data does not exist
+     */
+    public void getBytes(byte[] dst, int offset, int length) throws UnknownVariableException {
+      getExistingSection(length).getBytes(address, dst, offset, length);
+    }
+
+    /**
+     * @param length Number of bytes to read
+     * @return Copy of variable data
+     * @throws UnknownVariableException Variable data does not exist
+     */
+    public byte[] getBytes(int length) throws UnknownVariableException {
+      byte[] data = new byte[length];
+      getBytes(data, 0, length);
+      return data;
+    }
+
+    /**
+     * Writes the given buffer to the variable.
+     *
+     * @param src Buffer
+     * @param offset Buffer offset
+     * @param length Number of bytes to write
+     */
+    public void setBytes(byte[] src, int offset, int length) {
+      MoteMemorySection s = getSection(length);
+      if (s == null) {
+        byte[] data = new byte[length];
+        System.arraycopy(src, offset, data, 0, length);
+        setMemorySegment(address, data);
+        return;
+      }
+      s.setBytes(address, src, offset, length);
+    }
+
+    public void setBytes(byte[] data) {
+      setBytes(data, 0, data.length);
+    }
+  }
+
   public boolean variableExists(String varName) {
     return addresses.containsKey(varName);
   }
@@ -315,6 +530,9 @@ public class SectionMoteMemory implements MoteMemory, AddressMemory {
 
     private int startAddr;
 
+    private boolean[] dirtyPages;
+    private boolean hasDirtyPages;
+
     /**
      * Create a new memory section.
      *
@@ -326,6 +544,11 @@ public class SectionMoteMemory implements MoteMemory, AddressMemory {
     public MoteMemorySection(int startAddr, byte[] data) {
       this.startAddr = startAddr;
       this.data = data;
+
+      /* All pages of a new section are considered written */
+      dirtyPages = new boolean[(data.length + PAGE_SIZE - 1) / PAGE_SIZE];
+      Arrays.fill(dirtyPages, true);
+      hasDirtyPages = true;
     }
 
     /**
@@ -395,7 +618,51 @@ public class SectionMoteMemory implements MoteMemory, AddressMemory {
      *          Data of memory segment
      */
     public void setMemorySegment(int addr, byte[] data) {
-      System.arraycopy(data, 0, this.data, addr - startAddr, data.length);
+      setBytes(addr, data, 0, data.length);
+    }
+
+    public void getBytes(int addr, byte[] dst, int offset, int length) {
+      System.arraycopy(data, addr - startAddr, dst, offset, length);
+    }
+
+    public void setBytes(int addr, byte[] src, int offset, int length) {
+      System.arraycopy(src, offset, this.data, addr - startAddr, length);
+
+      if (length > 0) {
+        int first = (addr - startAddr) / PAGE_SIZE;
+        int last = (addr - startAddr + length - 1) / PAGE_SIZE;
+        for (int page = first; page <= last; page++) {
+          dirtyPages[page] = true;
+        }
+        hasDirtyPages = true;
+      }
+    }
+
+    public byte getByte(int addr) {
+      return data[addr - startAddr];
+    }
+
+    public void setByte(int addr, byte value) {
+      int pos = addr - startAddr;
+      data[pos] = value;
+      dirtyPages[pos / PAGE_SIZE] = true;
+      hasDirtyPages = true;
+    }
+
+    public boolean hasDirtyPages() {
+      return hasDirtyPages;
+    }
+
+    public boolean isDirtyPage(int page) {
+      return dirtyPages[page];
+    }
+
+    public void clearDirtyPages() {
+      if (!hasDirtyPages) {
+        return;
+      }
+      Arrays.fill(dirtyPages, false);
+      hasDirtyPages = false;
     }
 
     public MoteMemorySection clone() {
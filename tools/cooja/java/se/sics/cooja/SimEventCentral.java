@@ -33,6 +33,7 @@ import java.io.File;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.Vector;
@@ -72,6 +73,8 @@ public class SimEventCentral {
 
     /* Log output: notifications and history */
     logOutputListeners = new LogOutputListener[0];
+    moteLogOutputSubscriptions = new HashMap<Mote, LogOutputSubscription[]>();
+    prefixLogOutputSubscriptions = new LogOutputSubscription[0];
     logOutputEvents = new ArrayDeque<LogOutputEvent>();
   }
   
@@ -204,6 +207,60 @@ public class SimEventCentral {
     public void newLogOutput(LogOutputEvent ev);
   }
   private LogOutputListener[] logOutputListeners;
+
+  /** Log output listener subscribed to a single mote and/or message prefix */
+  private static class LogOutputSubscription {
+    private final String prefix;
+    private final LogOutputListener listener;
+    public LogOutputSubscription(String prefix, LogOutputListener listener) {
+      this.prefix = prefix;
+      this.listener = listener;
+    }
+    public boolean matches(LogOutputEvent ev) {
+      return prefix == null || ev.msg.startsWith(prefix);
+    }
+  }
+  private HashMap<Mote, LogOutputSubscription[]> moteLogOutputSubscriptions;
+  private LogOutputSubscription[] prefixLogOutputSubscriptions;
+  private int logOutputListenersCount = 0;
+
+  private void notifyNewLogOutput(LogOutputEvent ev) {
+    for (LogOutputListener l: logOutputListeners) {
+      l.newLogOutput(ev);
+    }
+    LogOutputSubscription[] subscriptions = moteLogOutputSubscriptions.get(ev.getMote());
+    if (subscriptions != null) {
+      for (LogOutputSubscription s: subscriptions) {
+        if (s.matches(ev)) {
+          s.listener.newLogOutput(ev);
+        }
+      }
+    }
+    for (LogOutputSubscription s: prefixLogOutputSubscriptions) {
+      if (s.matches(ev)) {
+        s.listener.newLogOutput(ev);
+      }
+    }
+  }
+  private void notifyRemovedLogOutput(LogOutputEvent ev) {
+    for (LogOutputListener l: logOutputListeners) {
+      l.removedLogOutput(ev);
+    }
+    LogOutputSubscription[] subscriptions = moteLogOutputSubscriptions.get(ev.getMote());
+    if (subscriptions != null) {
+      for (LogOutputSubscription s: subscriptions) {
+        if (s.matches(ev)) {
+          s.listener.removedLogOutput(ev);
+        }
+      }
+    }
+    for (LogOutputSubscription s: prefixLogOutputSubscriptions) {
+      if (s.matches(ev)) {
+        s.listener.removedLogOutput(ev);
+      }
+    }
+  }
+
   private Observer logOutputObserver = new Observer() {
     public void update(Observable obs, Object obj) {
       Mote mote = (Mote) obj;
@@ -221,41 +278,99 @@ public class SimEventCentral {
         if (removed == null) {
           break;
         }
-        for (LogOutputListener l: logOutputListeners) {
-          l.removedLogOutput(removed);
-        }
+        notifyRemovedLogOutput(removed);
       }
       
       /* Store log output, and notify listeners */
       LogOutputEvent ev = 
         new LogOutputEvent(mote, simulation.getSimulationTime(), msg);
       logOutputEvents.add(ev);
-      for (LogOutputListener l: logOutputListeners) {
-        l.newLogOutput(ev);
-      }
+      notifyNewLogOutput(ev);
     }
   };
+
+  /**
+   * Adds a log output listener that is notified of log output from all motes.
+   *
+   * @param listener Listener
+   */
   public void addLogOutputListener(LogOutputListener listener) {
-    if (logOutputListeners.length == 0) {
-      /* Start observing all log interfaces */
-      Mote[] motes = simulation.getMotes();
-      for (Mote m: motes) {
-        for (MoteInterface mi: m.getInterfaces().getInterfaces()) {
-          if (mi instanceof Log) {
-            moteObservations.add(new MoteObservation(m, mi, logOutputObserver));
-          }
-        }
-      }
+    startLogOutputObservations();
+    logOutputListeners = ArrayUtils.add(logOutputListeners, listener);
+    addMoteCountListener(listener);
+  }
+
+  /**
+   * Adds a log output listener that is only notified of log output from the
+   * given mote and/or starting with the given prefix.
+   * Dispatching log output to keyed listeners does not depend on the
+   * number of listeners subscribed to other motes.
+   *
+   * @param mote Mote, or null for all motes
+   * @param prefix Log message prefix, or null for all messages
+   * @param listener Listener
+   */
+  public void addLogOutputListener(Mote mote, String prefix, LogOutputListener listener) {
+    if (mote == null && prefix == null) {
+      addLogOutputListener(listener);
+      return;
     }
 
-    logOutputListeners = ArrayUtils.add(logOutputListeners, listener);
+    startLogOutputObservations();
+    LogOutputSubscription subscription = new LogOutputSubscription(prefix, listener);
+    if (mote == null) {
+      prefixLogOutputSubscriptions = ArrayUtils.add(prefixLogOutputSubscriptions, subscription);
+    } else {
+      LogOutputSubscription[] subscriptions = moteLogOutputSubscriptions.get(mote);
+      if (subscriptions == null) {
+        subscriptions = new LogOutputSubscription[] { subscription };
+      } else {
+        subscriptions = ArrayUtils.add(subscriptions, subscription);
+      }
+      moteLogOutputSubscriptions.put(mote, subscriptions);
+    }
     addMoteCountListener(listener);
   }
+
+  /**
+   * Removes a log output listener, including any keyed subscriptions.
+   *
+   * @param listener Listener
+   */
   public void removeLogOutputListener(LogOutputListener listener) {
-    logOutputListeners = ArrayUtils.remove(logOutputListeners, listener);
-    removeMoteCountListener(listener);
+    int oldCount = logOutputListenersCount;
+    if (ArrayUtils.indexOf(logOutputListeners, listener) >= 0) {
+      logOutputListeners = ArrayUtils.remove(logOutputListeners, listener);
+      logOutputListenersCount--;
+    }
+    for (LogOutputSubscription s: prefixLogOutputSubscriptions) {
+      if (s.listener == listener) {
+        prefixLogOutputSubscriptions = ArrayUtils.remove(prefixLogOutputSubscriptions, s);
+        logOutputListenersCount--;
+      }
+    }
+    for (Mote m: moteLogOutputSubscriptions.keySet().toArray(new Mote[0])) {
+      LogOutputSubscription[] subscriptions = moteLogOutputSubscriptions.get(m);
+      for (LogOutputSubscription s: subscriptions) {
+        if (s.listener == listener) {
+          subscriptions = ArrayUtils.remove(subscriptions, s);
+          logOutputListenersCount--;
+        }
+      }
+      if (subscriptions.length == 0) {
+        moteLogOutputSubscriptions.remove(m);
+      } else {
+        moteLogOutputSubscriptions.put(m, subscriptions);
+      }
+    }
+    if (oldCount == logOutputListenersCount) {
+      return;
+    }
+    for (int i=logOutputListenersCount; i < oldCount; i++) {
+      removeMoteCountListener(listener);
+    }
 
-    if (logOutputListeners.length == 0) {
+    if (logOutputListenersCount == 0) {
       /* Stop observing all log interfaces */
       MoteObservation[] observations = moteObservations.toArray(new MoteObservation[0]);
       for (MoteObservation o: observations) {
@@ -269,6 +384,21 @@ public class SimEventCentral {
       logOutputEvents.clear();
     }
   }
+  private void startLogOutputObservations() {
+    if (logOutputListenersCount++ > 0) {
+      return;
+    }
+
+    /* Start observing all log interfaces */
+    Mote[] motes = simulation.getMotes();
+    for (Mote m: motes) {
+      for (MoteInterface mi: m.getInterfaces().getInterfaces()) {
+        if (mi instanceof Log) {
+          moteObservations.add(new MoteObservation(m, mi, logOutputObserver));
+        }
+      }
+    }
+  }
   public LogOutputEvent[] getLogOutputHistory() {
     return logOutputEvents.toArray(new LogOutputEvent[0]);
   }
@@ -284,9 +414,7 @@ public class SimEventCentral {
       if (removed == null) {
         break;
       }
-      for (LogOutputListener l: logOutputListeners) {
-        l.removedLogOutput(removed);
-      }
+      notifyRemovedLogOutput(removed);
     }
   }
   public int getLogOutputObservationsCount() {
@@ -303,7 +431,7 @@ public class SimEventCentral {
   
   /* HELP METHODS: MAINTAIN OBSERVERS */
   private void moteWasAdded(Mote mote) {
-    if (logOutputListeners.length > 0) {
+    if (logOutputListenersCount > 0) {
       /* Add another log output observation.
        * (Supports multiple log interfaces per mote) */
       for (MoteInterface mi: mote.getInterfaces().getInterfaces()) {
@@ -332,7 +460,7 @@ public class SimEventCentral {
     "\n" +
     "\nMote count listeners: " + moteCountListeners.length +
     "\n" +
-    "\nLog output listeners: " + logOutputListeners.length +
+    "\nLog output listeners: " + logOutputListenersCount +
     "\nLog output history: " + logOutputEvents.size()
     ;
   }
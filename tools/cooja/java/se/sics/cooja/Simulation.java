@@ -32,6 +32,7 @@ package se.sics.cooja;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.Random;
@@ -59,6 +60,18 @@ public class Simulation extends Observable implements Runnable {
   
   private Vector<Mote> motes = new Vector<Mote>();
 
+  /* Motes array, replaced (never modified) when motes are added or removed */
+  private volatile Mote[] motesSnapshot = new Mote[0];
+
+  /* Mote ID index, rebuilt on demand when motes or mote IDs change */
+  private HashMap<Integer, Mote> motesByID = null;
+  private final Object motesByIDLock = new Object();
+  private Observer moteIDObserver = new Observer() {
+    public void update(Observable obs, Object obj) {
+      invalidateMoteIDIndex();
+    }
+  };
+
   private Vector<MoteType> moteTypes = new Vector<MoteType>();
 
   private int delayTime=0, delayPeriod=1;
@@ -168,6 +181,39 @@ public class Simulation extends Observable implements Runnable {
     return simulationThread == Thread.currentThread();
   }
 
+  /**
+   * Changes the event queue implementation used by this simulation.
+   * Already scheduled events are moved to the new queue, keeping their
+   * execution order.
+   *
+   * May only be called when the simulation is stopped.
+   *
+   * @see EventQueue
+   * @see PriorityEventQueue
+   * @param queue New event queue
+   */
+  public void setEventQueue(EventQueue queue) {
+    if (isRunning()) {
+      throw new IllegalStateException("Cannot change event queue of running simulation");
+    }
+    if (queue == eventQueue) {
+      return;
+    }
+
+    TimeEvent ev;
+    while ((ev = eventQueue.popFirst()) != null) {
+      queue.addEvent(ev, ev.time);
+    }
+    eventQueue = queue;
+  }
+
+  /**
+   * @return True if this simulation uses the binary heap event queue
+   */
+  public boolean hasPriorityEventQueue() {
+    return eventQueue instanceof PriorityEventQueue;
+  }
+
   /**
    * Schedule simulation event for given time.
    * Already scheduled events must be removed before they are rescheduled.
@@ -279,7 +325,9 @@ public class Simulation extends Observable implements Runnable {
     } catch (RuntimeException e) {
       logger.fatal("Simulation stopped due to error: " + e.getMessage(), e);
 
-      if (!GUI.isVisualized()) {
+      if (myGUI.isBatchMode()) {
+        /* Only this simulation fails, see BatchRunner */
+      } else if (!GUI.isVisualized()) {
 	/* Quit simulator if in test mode */
 	System.exit(1);
       } else {
@@ -473,6 +521,13 @@ public class Simulation extends Observable implements Runnable {
     element.setText(Long.toString(maxMoteStartupDelay));
     config.add(element);
 
+    // Event queue
+    if (hasPriorityEventQueue()) {
+      element = new Element("eventqueue");
+      element.setText("priority");
+      config.add(element);
+    }
+
     // Radio Medium
     element = new Element("radiomedium");
     element.setText(currentRadioMedium.getClass().getName());
@@ -571,6 +626,15 @@ public class Simulation extends Observable implements Runnable {
         maxMoteStartupDelay = Integer.parseInt(element.getText());
       }
 
+      // Event queue
+      if (element.getName().equals("eventqueue")) {
+        if (element.getText().trim().equals("priority")) {
+          setEventQueue(new PriorityEventQueue());
+        } else {
+          setEventQueue(new EventQueue());
+        }
+      }
+
       // Radio medium
       if (element.getName().equals("radiomedium")) {
         String radioMediumClassName = element.getText().trim();
@@ -684,6 +748,11 @@ public class Simulation extends Observable implements Runnable {
     Runnable removeMote = new Runnable() {
       public void run() {
         motes.remove(mote);
+        motesSnapshot = motes.toArray(new Mote[motes.size()]);
+        if (mote.getInterfaces().getMoteID() != null) {
+          mote.getInterfaces().getMoteID().deleteObserver(moteIDObserver);
+        }
+        invalidateMoteIDIndex();
         currentRadioMedium.unregisterMote(mote, Simulation.this);
         
         /* Dispose mote interface resources */
@@ -694,17 +763,8 @@ public class Simulation extends Observable implements Runnable {
         setChanged();
         notifyObservers(mote);
 
-        /* Loop through all scheduled events.
-         * Delete all events associated with deleted mote. */
-        TimeEvent ev = eventQueue.peekFirst();
-        while (ev != null) {
-          if (ev instanceof MoteTimeEvent) {
-            if (((MoteTimeEvent)ev).getMote() == mote) {
-              ev.remove();
-            }
-          }
-          ev = ev.nextEvent;
-        }
+        /* Delete all events associated with deleted mote */
+        eventQueue.removeMoteEvents(mote);
       }
     };
 
@@ -752,6 +812,11 @@ public class Simulation extends Observable implements Runnable {
         }
         
         motes.add(mote);
+        motesSnapshot = motes.toArray(new Mote[motes.size()]);
+        if (mote.getInterfaces().getMoteID() != null) {
+          mote.getInterfaces().getMoteID().addObserver(moteIDObserver);
+        }
+        invalidateMoteIDIndex();
         currentRadioMedium.registerMote(mote, Simulation.this);
         setChanged();
         notifyObservers(mote);
@@ -789,13 +854,45 @@ public class Simulation extends Observable implements Runnable {
 
   /**
    * Returns all motes in this simulation.
+   * The returned array is a snapshot that is replaced when motes are added
+   * or removed, and must not be modified.
    *
    * @return Motes
    */
   public Mote[] getMotes() {
-    Mote[] arr = new Mote[motes.size()];
-    motes.toArray(arr);
-    return arr;
+    return motesSnapshot;
+  }
+
+  /**
+   * Returns mote with given ID.
+   * If several motes share the ID, the first added mote is returned.
+   *
+   * @param id Mote ID
+   * @return Mote or null if not found
+   */
+  public Mote getMoteWithID(int id) {
+    synchronized (motesByIDLock) {
+      if (motesByID != null) {
+        Mote mote = motesByID.get(id);
+        if (mote == null || mote.getID() == id) {
+          return mote;
+        }
+        /* Mote ID changed without notifying observers */
+      }
+
+      motesByID = new HashMap<Integer, Mote>();
+      Mote[] motes = motesSnapshot;
+      for (int i=motes.length-1; i >= 0; i--) {
+        motesByID.put(motes[i].getID(), motes[i]);
+      }
+      return motesByID.get(id);
+    }
+  }
+
+  private void invalidateMoteIDIndex() {
+    synchronized (motesByIDLock) {
+      motesByID = null;
+    }
   }
 
   /**
@@ -41,6 +41,10 @@ public abstract class TimeEvent {
   EventQueue queue = null;
   String name;
 
+  /* Used by PriorityEventQueue */
+  int heapIndex = -1;
+  long sequence;
+
   protected long time;
 
   boolean removed = false;
@@ -66,6 +66,7 @@ public class ContikiMote extends AbstractWakeupMote implements Mote {
   private static Logger logger = Logger.getLogger(ContikiMote.class);
 
   private ContikiMoteType myType = null;
+  private int myCore = 0; /* Core library replica */
   private SectionMoteMemory myMemory = null;
   private MoteInterfaceHandler myInterfaceHandler = null;
   private Simulation simulation = null;
@@ -90,7 +91,8 @@ public class ContikiMote extends AbstractWakeupMote implements Mote {
   public ContikiMote(ContikiMoteType moteType, Simulation sim) {
     this.simulation = sim;
     this.myType = moteType;
-    this.myMemory = moteType.createInitialMemory();
+    this.myCore = moteType.allocateCore();
+    this.myMemory = moteType.createInitialMemory(myCore);
     this.myInterfaceHandler = new MoteInterfaceHandler(this, moteType.getMoteInterfaceClasses());
     
     requestImmediateWakeup();
@@ -155,13 +157,13 @@ public class ContikiMote extends AbstractWakeupMote implements Mote {
     }
 
     /* Copy mote memory to Contiki */
-    myType.setCoreMemory(myMemory);
+    myType.setCoreMemory(myCore, myMemory);
 
     /* Handle a single Contiki events */
-    myType.tick();
+    myType.tick(myCore);
 
     /* Copy mote memory from Contiki */
-    myType.getCoreMemory(myMemory);
+    myType.getCoreMemory(myCore, myMemory);
 
     /* Poll mote interfaces */
     myInterfaceHandler.doActiveActionsAfterTick();
@@ -195,7 +197,7 @@ public class ContikiMote extends AbstractWakeupMote implements Mote {
 
   public boolean setConfigXML(Simulation simulation, Collection<Element> configXML, boolean visAvailable) {
     this.simulation = simulation;
-    myMemory = myType.createInitialMemory();
+    myMemory = myType.createInitialMemory(myCore);
     myInterfaceHandler = new MoteInterfaceHandler(this, myType.getMoteInterfaceClasses());
 
     for (Element element: configXML) {
@@ -37,14 +37,17 @@ import java.awt.Dimension;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.lang.reflect.Method;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Random;
 import java.util.Vector;
@@ -73,6 +76,7 @@ import se.sics.cooja.dialogs.CompileContiki;
 import se.sics.cooja.dialogs.ContikiMoteCompileDialog;
 import se.sics.cooja.dialogs.MessageList;
 import se.sics.cooja.dialogs.MessageList.MessageContainer;
+import se.sics.cooja.util.FirmwareCache;
 import se.sics.cooja.util.StringUtils;
 
 /**
@@ -202,11 +206,30 @@ public class ContikiMoteType implements MoteType {
 
   private CoreComm myCoreComm = null;
 
+  /* Core library replicas: core 0 uses myCoreComm */
+  private int coreReplicas = 1;
+  private Core[] cores = null;
+  private int nextCore = 0;
+
   // Variable name to address mappings
   private Properties varAddresses = new Properties();
 
-  // Initial memory for all motes of this type
-  private SectionMoteMemory initialMemory = null;
+  /* Dirty page memory synchronization */
+  private boolean dirtyMemorySync = false;
+
+  /**
+   * A loaded copy of the core library, and the mote memory it currently holds.
+   */
+  private static class Core {
+    final CoreComm coreComm;
+    SectionMoteMemory initialMemory = null; /* Initial memory of motes using this core */
+    SectionMoteMemory coreMemory = null; /* Memory currently in core */
+    final byte[] pageBuffer = new byte[SectionMoteMemory.PAGE_SIZE];
+
+    public Core(CoreComm coreComm) {
+      this.coreComm = coreComm;
+    }
+  }
 
   /**
    * Creates a new uninitialized Contiki mote type. This mote type needs to load
@@ -307,8 +330,51 @@ public class ContikiMoteType implements MoteType {
       if (getCompileCommands() == null) {
         throw new MoteTypeCreationException("No compile commands specified");
       }
+      /* Look up identical firmware in cache.
+       * The identifier only names output files, and is excluded from the key.
+       * The JNI class name is excluded from the key, and stored with the
+       * entry: a cached library is loaded with the class it was compiled for */
+      FirmwareCache cache = FirmwareCache.getDefault();
+      String cacheKey = null;
+      File[] cacheFiles;
+      if (Boolean.parseBoolean(GUI.getExternalToolsSetting("PARSE_WITH_COMMAND", "false"))) {
+        cacheFiles = new File[] { getContikiFirmwareFile() };
+      } else {
+        cacheFiles = new File[] { getContikiFirmwareFile(), mapFile };
+      }
+      String mainSource = StringUtils.loadFromFile(libSource);
+      if (cache != null && getContikiFirmwareFile() != null && mainSource != null) {
+        String[] keyEnv = new String[envOneDimension.length];
+        for (int i=0; i < envOneDimension.length; i++) {
+          keyEnv[i] = envOneDimension[i].replace(getIdentifier(), "$(LIBNAME)");
+        }
+        mainSource = mainSource.replace(
+            "corecomm_" + javaClassName + "_", "corecomm_[CLASS_NAME]_");
+        cacheKey = FirmwareCache.computeKey(
+            contikiApp.getParentFile(), getCompileCommands(), keyEnv, mainSource);
+      }
+      boolean cached = false;
+      String cachedClassName = cache==null?null:cache.getInfo(cacheKey);
+      if (cachedClassName != null && cache.restore(cacheKey, cacheFiles)) {
+        cached = true;
+        if (!cachedClassName.equals(javaClassName)) {
+          javaClassName = cachedClassName;
+          try {
+            CompileContiki.generateSourceFile(
+                libSource,
+                javaClassName,
+                getSensors(),
+                getCoreInterfaces()
+            );
+          } catch (Exception e) {
+            throw (MoteTypeCreationException) new MoteTypeCreationException(
+            "Error when generating Contiki main source").initCause(e);
+          }
+        }
+      }
+
       final MessageList compilationOutput = new MessageList();
-      String[] arr = getCompileCommands().split("\n");
+      String[] arr = cached?new String[0]:getCompileCommands().split("\n");
       for (String cmd: arr) {
         if (cmd.trim().isEmpty()) {
           continue;
@@ -350,6 +416,9 @@ public class ContikiMoteType implements MoteType {
           !getContikiFirmwareFile().exists()) {
         throw new MoteTypeCreationException("Contiki firmware file does not exist: " + getContikiFirmwareFile());
       }
+      if (cache != null && !cached) {
+        cache.store(cacheKey, javaClassName, cacheFiles);
+      }
     }
 
     /* Load compiled library */
@@ -395,54 +464,44 @@ public class ContikiMoteType implements MoteType {
     /* Parse addresses using map file or command */
     boolean useCommand = Boolean.parseBoolean(GUI.getExternalToolsSetting("PARSE_WITH_COMMAND", "false"));
 
-    int dataSectionAddr = -1, dataSectionSize = -1;
-    int bssSectionAddr = -1, bssSectionSize = -1;
-    int commonSectionAddr = -1, commonSectionSize = -1;
-
+    SymbolIndex symbols;
     if (useCommand) {
       /* Parse command output */
-      String[] output = loadCommandData(getContikiFirmwareFile());
-      if (output == null) {
+      symbols = SymbolIndex.loadCommandOutput(getContikiFirmwareFile());
+      if (symbols == null) {
         throw new MoteTypeCreationException("No parse command output loaded");
       }
-      boolean parseOK = parseCommandData(output, varAddresses);
-      if (!parseOK) {
+      if (symbols.getAddresses().isEmpty()) {
         logger.fatal("Command output parsing failed");
         throw new MoteTypeCreationException("Command output parsing failed");
       }
 
-      dataSectionAddr = parseCommandDataSectionAddr(output);
-      dataSectionSize = parseCommandDataSectionSize(output);
-      bssSectionAddr = parseCommandBssSectionAddr(output);
-      bssSectionSize = parseCommandBssSectionSize(output);
-      commonSectionAddr = parseCommandCommonSectionAddr(output);
-      commonSectionSize = parseCommandCommonSectionSize(output);
-      
     } else {
-      /* Parse command output */
+      /* Parse map file */
       if (mapFile == null ||
           !mapFile.exists()) {
         throw new MoteTypeCreationException("Map file " + mapFile + " could not be found!");
       }
-      String[] mapData = loadMapFile(mapFile);
-      if (mapData == null) {
+      symbols = SymbolIndex.loadMapFile(mapFile, getContikiFirmwareFile());
+      if (symbols == null) {
         logger.fatal("No map data could be loaded");
         throw new MoteTypeCreationException("No map data could be loaded: " + mapFile);
       }
-      boolean parseOK = parseMapFileData(mapData, varAddresses);
-      if (!parseOK) {
+      if (symbols.getAddresses().isEmpty()) {
         logger.fatal("Map data parsing failed");
         throw new MoteTypeCreationException("Map data parsing failed: " + mapFile);
       }
+    }
 
-      dataSectionAddr = parseMapDataSectionAddr(mapData);
-      dataSectionSize = parseMapDataSectionSize(mapData);
-      bssSectionAddr = parseMapBssSectionAddr(mapData);
-      bssSectionSize = parseMapBssSectionSize(mapData);
-      commonSectionAddr = parseMapCommonSectionAddr(mapData);
-      commonSectionSize = parseMapCommonSectionSize(mapData);
-      
+    for (Map.Entry<String, Integer> entry: symbols.getAddresses().entrySet()) {
+      varAddresses.put(entry.getKey(), entry.getValue());
     }
+    int dataSectionAddr = symbols.getDataSectionAddr();
+    int dataSectionSize = symbols.getDataSectionSize();
+    int bssSectionAddr = symbols.getBssSectionAddr();
+    int bssSectionSize = symbols.getBssSectionSize();
+    int commonSectionAddr = symbols.getCommonSectionAddr();
+    int commonSectionSize = symbols.getCommonSectionSize();
 
     if (varAddresses.size() == 0) {
       throw new MoteTypeCreationException("Library variables parsing failed");
@@ -463,39 +522,146 @@ public class ContikiMoteType implements MoteType {
 
     myCoreComm.setReferenceAddress(relAddressOfReferenceVariable);
 
-    /* Create initial memory: data+bss+optional common */
-    initialMemory = new SectionMoteMemory(varAddresses);
-    
-    byte[] initialDataSection = new byte[dataSectionSize];
-    getCoreMemory(dataSectionAddr, dataSectionSize, initialDataSection);
-    initialMemory.setMemorySegment(dataSectionAddr, initialDataSection);
+    /* Load private library copies for core replicas */
+    cores = new Core[coreReplicas];
+    cores[0] = new Core(myCoreComm);
+    for (int i=1; i < coreReplicas; i++) {
+      File libraryCopy = copyLibraryFile(getContikiFirmwareFile());
+      CoreComm replica = CoreComm.createCoreCommReplica(myCoreComm, libraryCopy);
+      replica.setReferenceAddress(relAddressOfReferenceVariable);
+      cores[i] = new Core(replica);
+    }
+    if (coreReplicas > 1) {
+      logger.info(getContikiFirmwareFile().getName() + ": loaded " + coreReplicas + " core replicas");
+    }
+
+    /* Create initial memory: data+bss+optional common.
+     * Contiki memory contains absolute pointers into its own library copy,
+     * so each core replica has a separate initial memory */
+    for (Core core: cores) {
+      core.initialMemory = new SectionMoteMemory(varAddresses);
+
+      byte[] initialDataSection = new byte[dataSectionSize];
+      core.coreComm.getMemory(dataSectionAddr, dataSectionSize, initialDataSection);
+      core.initialMemory.setMemorySegment(dataSectionAddr, initialDataSection);
+
+      byte[] initialBssSection = new byte[bssSectionSize];
+      core.coreComm.getMemory(bssSectionAddr, bssSectionSize, initialBssSection);
+      core.initialMemory.setMemorySegment(bssSectionAddr, initialBssSection);
+
+      if (commonSectionAddr > 0 && commonSectionSize > 0) {
+        byte[] initialCommonSection = new byte[commonSectionSize];
+        core.coreComm.getMemory(commonSectionAddr, commonSectionSize, initialCommonSection);
+        core.initialMemory.setMemorySegment(commonSectionAddr, initialCommonSection);
+      }
+    }
+
     logger.info(getContikiFirmwareFile().getName() +
         ": data section at 0x" + Integer.toHexString(dataSectionAddr) + 
         " (0x" + dataSectionSize + " bytes)");
-    
-    byte[] initialBssSection = new byte[bssSectionSize];
-    getCoreMemory(bssSectionAddr, bssSectionSize, initialBssSection);
-    initialMemory.setMemorySegment(bssSectionAddr, initialBssSection);
     logger.info(getContikiFirmwareFile().getName() +
         ": BSS section at 0x" + Integer.toHexString(bssSectionAddr) + 
         " (0x" + bssSectionSize + " bytes)");
-    
     if (commonSectionAddr > 0 && commonSectionSize > 0) {
-      byte[] initialCommonSection = new byte[commonSectionSize];
-      getCoreMemory(commonSectionAddr, commonSectionSize, initialCommonSection);
-      initialMemory.setMemorySegment(commonSectionAddr, initialCommonSection);
       logger.info(getContikiFirmwareFile().getName() +
           ": common section at 0x" + Integer.toHexString(commonSectionAddr) + 
           " (0x" + commonSectionSize + " bytes)");
     }
   }
 
+  /**
+   * Copies the library file to a new, uniquely named, temporary file.
+   *
+   * @param libFile Library file
+   * @return Library file copy
+   * @throws MoteTypeCreationException If copying fails
+   */
+  private File copyLibraryFile(File libFile) throws MoteTypeCreationException {
+    File copy = null;
+    InputStream in = null;
+    OutputStream out = null;
+    try {
+      copy = File.createTempFile(getIdentifier() + "_", librarySuffix, libFile.getParentFile());
+      copy.deleteOnExit();
+      in = new FileInputStream(libFile);
+      out = new FileOutputStream(copy);
+      byte[] buffer = new byte[8192];
+      int n;
+      while ((n = in.read(buffer)) >= 0) {
+        out.write(buffer, 0, n);
+      }
+      return copy;
+    } catch (IOException e) {
+      throw (MoteTypeCreationException) new MoteTypeCreationException(
+          "Could not copy library file: " + libFile).initCause(e);
+    } finally {
+      try {
+        if (in != null) {
+          in.close();
+        }
+        if (out != null) {
+          out.close();
+        }
+      } catch (IOException e) {
+      }
+    }
+  }
+
+  /**
+   * Sets the number of core library replicas. Each replica is a private copy
+   * of the library, with its own Contiki memory, and motes are distributed
+   * over the replicas. Motes using different replicas can hence be ticked
+   * independently of each other.
+   * Must be set before the mote type is initialized.
+   *
+   * The replica count is stored in simulation configs as
+   * &lt;corereplicas&gt;. Note that the simulation loop does not yet tick
+   * replicas concurrently.
+   *
+   * @param replicas Number of core library replicas, at least 1
+   */
+  public void setCoreReplicas(int replicas) {
+    coreReplicas = Math.max(1, replicas);
+  }
+
+  /**
+   * @return Number of core library replicas
+   */
+  public int getCoreReplicas() {
+    return coreReplicas;
+  }
+
+  /**
+   * Assigns a core library replica to a new mote.
+   * Replicas are assigned round-robin, and should be allocated once per mote.
+   *
+   * @return Core index
+   */
+  public int allocateCore() {
+    if (cores == null || cores.length == 1) {
+      return 0;
+    }
+    int core = nextCore;
+    nextCore = (nextCore + 1) % cores.length;
+    return core;
+  }
+
   /**
    * Ticks the currently loaded mote. This should not be used directly, but
    * rather via {@link ContikiMote#execute(long)}.
    */
   public void tick() {
-    myCoreComm.tick();
+    tick(0);
+  }
+
+  /**
+   * Ticks the mote currently loaded in the given core.
+   *
+   * @param core Core index
+   * @see #allocateCore()
+   */
+  public void tick(int core) {
+    cores[core].coreComm.tick();
   }
 
   /**
@@ -506,7 +672,19 @@ public class ContikiMoteType implements MoteType {
    * @return Initial memory of a mote type
    */
   public SectionMoteMemory createInitialMemory() {
-    return initialMemory.clone();
+    return createInitialMemory(0);
+  }
+
+  /**
+   * Creates and returns a copy of the initial memory of the given core.
+   * Mote memory may only be loaded into the core it was created for.
+   *
+   * @param core Core index
+   * @return Initial memory of core
+   * @see #allocateCore()
+   */
+  public SectionMoteMemory createInitialMemory(int core) {
+    return cores[core].initialMemory.clone();
   }
 
   /**
@@ -517,13 +695,100 @@ public class ContikiMoteType implements MoteType {
    *          New memory
    */
   public void setCoreMemory(SectionMoteMemory mem) {
+    setCoreMemory(0, mem);
+  }
+
+  /**
+   * Copy given memory to the given core.
+   *
+   * @param core Core index
+   * @param mem New memory
+   * @see #allocateCore()
+   */
+  public void setCoreMemory(int core, SectionMoteMemory mem) {
+    CoreComm coreComm = cores[core].coreComm;
+    SectionMoteMemory coreMemory = cores[core].coreMemory;
+    byte[] pageBuffer = cores[core].pageBuffer;
+
+    if (!dirtyMemorySync) {
+      for (int i = 0; i < mem.getNumberOfSections(); i++) {
+        coreComm.setMemory(
+            mem.getStartAddrOfSection(i),
+            mem.getSizeOfSection(i), mem.getDataOfSection(i));
+      }
+      return;
+    }
+
+    /* Copy only the pages that differ from the memory currently in core:
+     * pages written in Java since the last sync, and, if the core contains
+     * another mote's memory, pages where the two memories differ. */
     for (int i = 0; i < mem.getNumberOfSections(); i++) {
-      setCoreMemory(
-          mem.getStartAddrOfSection(i),
-          mem.getSizeOfSection(i), mem.getDataOfSection(i));
+      int startAddr = mem.getStartAddrOfSection(i);
+      int size = mem.getSizeOfSection(i);
+      byte[] data = mem.getDataOfSection(i);
+
+      if (coreMemory == null ||
+          coreMemory.getNumberOfSections() != mem.getNumberOfSections() ||
+          coreMemory.getStartAddrOfSection(i) != startAddr ||
+          coreMemory.getSizeOfSection(i) != size) {
+        coreComm.setMemory(startAddr, size, data);
+        continue;
+      }
+      if (coreMemory == mem && !mem.hasDirtyPages(i)) {
+        continue;
+      }
+
+      byte[] coreData = coreMemory.getDataOfSection(i);
+      for (int page = 0, pos = 0; pos < size; page++, pos += SectionMoteMemory.PAGE_SIZE) {
+        int length = Math.min(SectionMoteMemory.PAGE_SIZE, size - pos);
+        if (mem.isDirtyPage(i, page) ||
+            (coreMemory != mem &&
+                (coreMemory.isDirtyPage(i, page) || !equalPages(data, coreData, pos, length)))) {
+          System.arraycopy(data, pos, pageBuffer, 0, length);
+          coreComm.setMemory(startAddr + pos, length, pageBuffer);
+        }
+      }
+    }
+
+    mem.clearDirtyPages();
+    cores[core].coreMemory = mem;
+  }
+
+  private static boolean equalPages(byte[] a, byte[] b, int pos, int length) {
+    for (int i = pos; i < pos + length; i++) {
+      if (a[i] != b[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Enables or disables dirty page memory synchronization.
+   *
+   * When enabled, only memory pages that were written in Java, or that differ
+   * from the memory of the previously ticked mote, are copied to the core
+   * before a tick. After a tick only the pages changed by the core are
+   * copied back.
+   *
+   * @param enabled True to enable dirty page memory synchronization
+   */
+  public void setDirtyMemorySync(boolean enabled) {
+    dirtyMemorySync = enabled;
+    if (cores != null) {
+      for (Core core: cores) {
+        core.coreMemory = null;
+      }
     }
   }
 
+  /**
+   * @return True if dirty page memory synchronization is enabled
+   */
+  public boolean hasDirtyMemorySync() {
+    return dirtyMemorySync;
+  }
+
   /**
    * Parses specified map file data for variable name to addresses mappings. The
    * mappings are added to the given properties object.
@@ -535,21 +800,14 @@ public class ContikiMoteType implements MoteType {
    */
   public static boolean parseMapFileData(String[] mapFileData,
       Properties varAddresses) {
-    String[] varNames = getMapFileVarNames(mapFileData);
-    if (varNames == null || varNames.length == 0) {
+    SymbolIndex symbols = SymbolIndex.parseMapFile(mapFileData);
+    if (symbols.getAddresses().isEmpty()) {
       return false;
     }
 
-    for (String varName : varNames) {
-      int varAddress = getMapFileVarAddress(mapFileData, varName, varAddresses);
-      if (varAddress > 0) {
-        varAddresses.put(varName, new Integer(varAddress));
-      } else {
-        logger.warn("Parsed Contiki variable '" + varName
-            + "' but could not find address");
-      }
+    for (Map.Entry<String, Integer> entry: symbols.getAddresses().entrySet()) {
+      varAddresses.put(entry.getKey(), entry.getValue());
     }
-
     return true;
   }
 
@@ -609,12 +867,43 @@ public class ContikiMoteType implements MoteType {
    *          Memory to set
    */
   public void getCoreMemory(SectionMoteMemory mem) {
+    getCoreMemory(0, mem);
+  }
+
+  /**
+   * Copy the given core's memory to given memory.
+   *
+   * @param core Core index
+   * @param mem Memory to set
+   * @see #allocateCore()
+   */
+  public void getCoreMemory(int core, SectionMoteMemory mem) {
+    CoreComm coreComm = cores[core].coreComm;
+    if (dirtyMemorySync && cores[core].coreMemory == mem) {
+      /* Memory is in sync with core before tick: fetch changed pages only */
+      try {
+        for (int i = 0; i < mem.getNumberOfSections(); i++) {
+          coreComm.getMemoryChanges(
+              mem.getStartAddrOfSection(i), mem.getSizeOfSection(i),
+              mem.getDataOfSection(i), SectionMoteMemory.PAGE_SIZE);
+        }
+        return;
+      } catch (UnsatisfiedLinkError e) {
+        logger.warn("Core library does not support dirty page memory synchronization, disabling");
+        dirtyMemorySync = false;
+      }
+    }
+
     for (int i = 0; i < mem.getNumberOfSections(); i++) {
       int startAddr = mem.getStartAddrOfSection(i);
       int size = mem.getSizeOfSection(i);
       byte[] data = mem.getDataOfSection(i);
 
-      getCoreMemory(startAddr, size, data);
+      coreComm.getMemory(startAddr, size, data);
+    }
+    if (dirtyMemorySync) {
+      mem.clearDirtyPages();
+      cores[core].coreMemory = mem;
     }
   }
 
@@ -707,14 +996,6 @@ public class ContikiMoteType implements MoteType {
     }
   }
 
-  private void getCoreMemory(int relAddr, int length, byte[] data) {
-    myCoreComm.getMemory(relAddr, length, data);
-  }
-
-  private void setCoreMemory(int relAddr, int length, byte[] mem) {
-    myCoreComm.setMemory(relAddr, length, mem);
-  }
-
   private static String getFirstMatchGroup(String[] lines, String regexp, int groupNr) {
     Pattern pattern = Pattern.compile(regexp);
     for (String line : lines) {
@@ -763,8 +1044,8 @@ public class ContikiMoteType implements MoteType {
     for (String line : lines) {
       Matcher matcher = pattern.matcher(line);
       if (matcher.find()) {
-        if (Integer.decode(matcher.group(1)).intValue() >= startAddress
-            && Integer.decode(matcher.group(1)).intValue() <= endAddress) {
+        int address = Integer.decode(matcher.group(1));
+        if (address >= startAddress && address <= endAddress) {
           varNames.add(matcher.group(2));
         }
       }
@@ -1261,6 +1542,18 @@ public class ContikiMoteType implements MoteType {
     element.setText(getCommunicationStack().toString());
     config.add(element);
 
+    if (hasDirtyMemorySync()) {
+      element = new Element("memorysync");
+      element.setText("dirty");
+      config.add(element);
+    }
+
+    if (getCoreReplicas() > 1) {
+      element = new Element("corereplicas");
+      element.setText(Integer.toString(getCoreReplicas()));
+      config.add(element);
+    }
+
     return config;
   }
 
@@ -1300,6 +1593,10 @@ public class ContikiMoteType implements MoteType {
         hasSystemSymbols = Boolean.parseBoolean(element.getText());
       } else if (name.equals("commstack")) {
         commStack = CommunicationStack.parse(element.getText());
+      } else if (name.equals("memorysync")) {
+        setDirtyMemorySync(element.getText().trim().equals("dirty"));
+      } else if (name.equals("corereplicas")) {
+        setCoreReplicas(Integer.parseInt(element.getText().trim()));
       } else if (name.equals("moteinterface")) {
         if (element.getText().trim().equals("se.sics.cooja.contikimote.interfaces.ContikiLog")) {
           /* Backwards compatibility: ContikiLog was removed */
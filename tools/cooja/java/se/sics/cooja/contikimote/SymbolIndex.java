@@ -0,0 +1,418 @@
+/*
+ * Copyright (c) 2010, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * $Id$
+ */
+
+package se.sics.cooja.contikimote;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+import se.sics.cooja.GUI;
+import se.sics.cooja.util.StringUtils;
+
+/**
+ * Immutable index of the variable addresses and section bounds of a Contiki
+ * library, parsed either from the linker map file or from the output of the
+ * configured parse command (nm).
+ *
+ * All lines are parsed in a single pass.
+ * Indexes are cached in a file next to the library, and the cache is
+ * reused as long as the parsed file and the parse settings are unchanged.
+ *
+ * @see ContikiMoteType
+ */
+public class SymbolIndex {
+  private static Logger logger = Logger.getLogger(SymbolIndex.class);
+
+  public static final String CACHE_SUFFIX = ".symbols";
+
+  private static final String[] MAPFILE_SETTINGS = new String[] {
+    "MAPFILE_VAR_NAME",
+    "MAPFILE_DATA_START", "MAPFILE_DATA_SIZE",
+    "MAPFILE_BSS_START", "MAPFILE_BSS_SIZE",
+    "MAPFILE_COMMON_START", "MAPFILE_COMMON_SIZE"
+  };
+  private static final String[] COMMAND_SETTINGS = new String[] {
+    "PARSE_COMMAND", "COMMAND_VAR_NAME_ADDRESS",
+    "COMMAND_DATA_START", "COMMAND_DATA_END",
+    "COMMAND_BSS_START", "COMMAND_BSS_END",
+    "COMMAND_COMMON_START", "COMMAND_COMMON_END"
+  };
+
+  /* Section bounds, indexed as the section settings above */
+  private static final int DATA_START = 0, DATA_SIZE = 1;
+  private static final int BSS_START = 2, BSS_SIZE = 3;
+  private static final int COMMON_START = 4, COMMON_SIZE = 5;
+
+  private final Map<String, Integer> addresses;
+  private final int[] sections;
+
+  private SymbolIndex(Map<String, Integer> addresses, int[] sections) {
+    this.addresses = Collections.unmodifiableMap(addresses);
+    this.sections = sections;
+  }
+
+  /**
+   * @param name Variable name
+   * @return Relative variable address, or -1 if not found
+   */
+  public int getVariableAddress(String name) {
+    Integer address = addresses.get(name);
+    if (address == null) {
+      return -1;
+    }
+    return address;
+  }
+
+  /**
+   * @return Variable names
+   */
+  public String[] getVariableNames() {
+    return addresses.keySet().toArray(new String[0]);
+  }
+
+  /**
+   * @return Unmodifiable variable name to relative address mappings
+   */
+  public Map<String, Integer> getAddresses() {
+    return addresses;
+  }
+
+  public int getDataSectionAddr() {
+    return sections[DATA_START];
+  }
+  public int getDataSectionSize() {
+    return sections[DATA_SIZE];
+  }
+  public int getBssSectionAddr() {
+    return sections[BSS_START];
+  }
+  public int getBssSectionSize() {
+    return sections[BSS_SIZE];
+  }
+  public int getCommonSectionAddr() {
+    return sections[COMMON_START];
+  }
+  public int getCommonSectionSize() {
+    return sections[COMMON_SIZE];
+  }
+
+  /**
+   * Parses map file data.
+   * Only variables inside the data and bss sections are indexed.
+   * If a variable occurs several times, the first address is used.
+   *
+   * @param mapFileData Map file lines
+   * @return Symbol index
+   */
+  public static SymbolIndex parseMapFile(String[] mapFileData) {
+    Pattern varPattern = Pattern.compile(GUI.getExternalToolsSetting("MAPFILE_VAR_NAME"));
+    Pattern[] sectionPatterns = getSectionPatterns(MAPFILE_SETTINGS, 1);
+
+    int[] sections = new int[] { -1, -1, -1, -1, -1, -1 };
+    HashMap<String, Integer> firstAddresses = new HashMap<String, Integer>();
+    ArrayList<String> names = new ArrayList<String>();
+    ArrayList<Integer> lineAddresses = new ArrayList<Integer>();
+
+    for (String line: mapFileData) {
+      parseSections(line, sectionPatterns, sections);
+
+      Matcher matcher = varPattern.matcher(line);
+      if (!matcher.find()) {
+        continue;
+      }
+      int address;
+      try {
+        address = Integer.decode(matcher.group(1));
+      } catch (NumberFormatException e) {
+        continue;
+      }
+      String name = matcher.group(2);
+      if (!firstAddresses.containsKey(name)) {
+        firstAddresses.put(name, address);
+      }
+      names.add(name);
+      lineAddresses.add(address);
+    }
+
+    /* Keep variables in data and bss sections */
+    int dataStart = sections[DATA_START];
+    int dataEnd = sections[DATA_START] + sections[DATA_SIZE];
+    int bssStart = sections[BSS_START];
+    int bssEnd = sections[BSS_START] + sections[BSS_SIZE];
+    LinkedHashMap<String, Integer> addresses = new LinkedHashMap<String, Integer>();
+    for (int i=0; i < names.size(); i++) {
+      int lineAddress = lineAddresses.get(i);
+      if ((lineAddress >= dataStart && lineAddress <= dataEnd) ||
+          (lineAddress >= bssStart && lineAddress <= bssEnd)) {
+        String name = names.get(i);
+        int address = firstAddresses.get(name);
+        if (address > 0) {
+          addresses.put(name, address);
+        } else {
+          logger.warn("Parsed Contiki variable '" + name + "' but could not find address");
+        }
+      }
+    }
+
+    return new SymbolIndex(addresses, sections);
+  }
+
+  /**
+   * Parses parse command output.
+   * If a symbol occurs several times, the first address is used.
+   *
+   * @param output Command output lines
+   * @return Symbol index
+   */
+  public static SymbolIndex parseCommandOutput(String[] output) {
+    Pattern varPattern = Pattern.compile(GUI.getExternalToolsSetting("COMMAND_VAR_NAME_ADDRESS"));
+    Pattern[] sectionPatterns = getSectionPatterns(COMMAND_SETTINGS, 2);
+
+    /* Section end addresses are converted to sizes below */
+    int[] sections = new int[] { -1, -1, -1, -1, -1, -1 };
+    LinkedHashMap<String, Integer> addresses = new LinkedHashMap<String, Integer>();
+
+    for (String line: output) {
+      parseSections(line, sectionPatterns, sections);
+
+      Matcher matcher = varPattern.matcher(line);
+      if (!matcher.find()) {
+        continue;
+      }
+      String symbol = matcher.group(2);
+      if (addresses.containsKey(symbol)) {
+        continue;
+      }
+      try {
+        addresses.put(symbol, Integer.parseInt(matcher.group(1), 16));
+      } catch (NumberFormatException e) {
+      }
+    }
+
+    for (int i=0; i < sections.length; i += 2) {
+      if (sections[i] < 0 || sections[i+1] < 0) {
+        sections[i+1] = -1;
+      } else {
+        sections[i+1] = sections[i+1] - sections[i];
+      }
+    }
+
+    return new SymbolIndex(addresses, sections);
+  }
+
+  private static Pattern[] getSectionPatterns(String[] settings, int first) {
+    Pattern[] patterns = new Pattern[6];
+    for (int i=0; i < patterns.length; i++) {
+      String regexp = GUI.getExternalToolsSetting(settings[first+i], "");
+      if (!regexp.equals("")) {
+        patterns[i] = Pattern.compile(regexp);
+      }
+    }
+    return patterns;
+  }
+
+  private static void parseSections(String line, Pattern[] patterns, int[] sections) {
+    for (int i=0; i < patterns.length; i++) {
+      /* First match only */
+      if (patterns[i] == null || sections[i] >= 0) {
+        continue;
+      }
+      Matcher matcher = patterns[i].matcher(line);
+      if (matcher.find()) {
+        try {
+          sections[i] = Integer.parseInt(matcher.group(1).trim(), 16);
+        } catch (NumberFormatException e) {
+        }
+      }
+    }
+  }
+
+  /**
+   * Loads symbol index of given map file, from cache if available.
+   *
+   * @param mapFile Map file
+   * @param libraryFile Library file, the cache is stored next to it
+   * @return Symbol index, or null if map file could not be read
+   */
+  public static SymbolIndex loadMapFile(File mapFile, File libraryFile) {
+    File cacheFile = getCacheFile(libraryFile);
+    String hash = createHash(mapFile, MAPFILE_SETTINGS);
+    SymbolIndex index = loadCache(cacheFile, hash);
+    if (index != null) {
+      return index;
+    }
+
+    String[] mapData = ContikiMoteType.loadMapFile(mapFile);
+    if (mapData == null) {
+      return null;
+    }
+    index = parseMapFile(mapData);
+    index.storeCache(cacheFile, hash);
+    return index;
+  }
+
+  /**
+   * Loads symbol index of given library using the parse command, from
+   * cache if available.
+   *
+   * @param libraryFile Library file, the cache is stored next to it
+   * @return Symbol index, or null if command failed
+   */
+  public static SymbolIndex loadCommandOutput(File libraryFile) {
+    File cacheFile = getCacheFile(libraryFile);
+    String hash = createHash(libraryFile, COMMAND_SETTINGS);
+    SymbolIndex index = loadCache(cacheFile, hash);
+    if (index != null) {
+      return index;
+    }
+
+    String[] output = ContikiMoteType.loadCommandData(libraryFile);
+    if (output == null) {
+      return null;
+    }
+    index = parseCommandOutput(output);
+    index.storeCache(cacheFile, hash);
+    return index;
+  }
+
+  private static File getCacheFile(File libraryFile) {
+    return new File(libraryFile.getParentFile(), libraryFile.getName() + CACHE_SUFFIX);
+  }
+
+  /* Hash of parsed file and parse settings */
+  private static String createHash(File file, String[] settings) {
+    try {
+      MessageDigest messageDigest = MessageDigest.getInstance("MD5");
+      InputStream in = new FileInputStream(file);
+      try {
+        byte[] buf = new byte[8192];
+        int read;
+        while ((read = in.read(buf)) > 0) {
+          messageDigest.update(buf, 0, read);
+        }
+      } finally {
+        in.close();
+      }
+      for (String setting: settings) {
+        messageDigest.update(("\n" + GUI.getExternalToolsSetting(setting, "")).getBytes());
+      }
+      return StringUtils.toHex(messageDigest.digest());
+    } catch (NoSuchAlgorithmException e) {
+      return null;
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  private static SymbolIndex loadCache(File cacheFile, String hash) {
+    if (hash == null || !cacheFile.exists()) {
+      return null;
+    }
+
+    Properties cache = new Properties();
+    try {
+      InputStream in = new FileInputStream(cacheFile);
+      try {
+        cache.load(in);
+      } finally {
+        in.close();
+      }
+      if (!hash.equals(cache.getProperty("hash"))) {
+        return null;
+      }
+
+      int[] sections = new int[6];
+      for (int i=0; i < sections.length; i++) {
+        sections[i] = Integer.parseInt(cache.getProperty("section." + i));
+      }
+      int count = Integer.parseInt(cache.getProperty("variables"));
+      LinkedHashMap<String, Integer> addresses = new LinkedHashMap<String, Integer>();
+      for (int i=0; i < count; i++) {
+        addresses.put(
+            cache.getProperty("name." + i),
+            Integer.parseInt(cache.getProperty("address." + i)));
+      }
+      return new SymbolIndex(addresses, sections);
+    } catch (IOException e) {
+      logger.warn("Could not read symbol cache " + cacheFile + ": " + e.getMessage());
+    } catch (RuntimeException e) {
+      logger.warn("Bad symbol cache " + cacheFile + ": " + e.getMessage());
+    }
+    return null;
+  }
+
+  private void storeCache(File cacheFile, String hash) {
+    if (hash == null) {
+      return;
+    }
+
+    Properties cache = new Properties();
+    cache.setProperty("hash", hash);
+    for (int i=0; i < sections.length; i++) {
+      cache.setProperty("section." + i, Integer.toString(sections[i]));
+    }
+    cache.setProperty("variables", Integer.toString(addresses.size()));
+    int i = 0;
+    for (Map.Entry<String, Integer> entry: addresses.entrySet()) {
+      cache.setProperty("name." + i, entry.getKey());
+      cache.setProperty("address." + i, entry.getValue().toString());
+      i++;
+    }
+
+    try {
+      OutputStream out = new FileOutputStream(cacheFile);
+      try {
+        cache.store(out, "Contiki library symbols");
+      } finally {
+        out.close();
+      }
+    } catch (IOException e) {
+      logger.warn("Could not write symbol cache " + cacheFile + ": " + e.getMessage());
+    }
+  }
+
+}
@@ -42,6 +42,7 @@ import org.apache.log4j.Logger;
 import org.jdom.Element;
 
 import se.sics.cooja.*;
+import se.sics.cooja.SectionMoteMemory.VariableHandle;
 import se.sics.cooja.contikimote.ContikiMoteInterface;
 import se.sics.cooja.interfaces.PolledAfterActiveTicks;
 
@@ -73,6 +74,10 @@ public class ContikiCFS extends MoteInterface implements ContikiMoteInterface, P
   public int FILESYSTEM_SIZE = 1000; /* Configure CFS size here and in cfs-cooja.c */
   private Mote mote = null;
   private SectionMoteMemory moteMem = null;
+  private VariableHandle simCFSChanged;
+  private VariableHandle simCFSRead;
+  private VariableHandle simCFSWritten;
+  private VariableHandle simCFSData;
 
   private int lastRead = 0;
   private int lastWritten = 0;
@@ -87,6 +92,10 @@ public class ContikiCFS extends MoteInterface implements ContikiMoteInterface, P
   public ContikiCFS(Mote mote) {
     this.mote = mote;
     this.moteMem = (SectionMoteMemory) mote.getMemory();
+    simCFSChanged = moteMem.getVariableHandle("simCFSChanged");
+    simCFSRead = moteMem.getVariableHandle("simCFSRead");
+    simCFSWritten = moteMem.getVariableHandle("simCFSWritten");
+    simCFSData = moteMem.getVariableHandle("simCFSData");
   }
 
   public static String[] getCoreInterfaceDependencies() {
@@ -94,13 +103,13 @@ public class ContikiCFS extends MoteInterface implements ContikiMoteInterface, P
   }
 
   public void doActionsAfterTick() {
-    if (moteMem.getByteValueOf("simCFSChanged") == 1) {
-      lastRead = moteMem.getIntValueOf("simCFSRead");
-      lastWritten = moteMem.getIntValueOf("simCFSWritten");
+    if (simCFSChanged.getByte() == 1) {
+      lastRead = simCFSRead.getInt();
+      lastWritten = simCFSWritten.getInt();
 
-      moteMem.setIntValueOf("simCFSRead", 0);
-      moteMem.setIntValueOf("simCFSWritten", 0);
-      moteMem.setByteValueOf("simCFSChanged", (byte) 0);
+      simCFSRead.setInt(0);
+      simCFSWritten.setInt(0);
+      simCFSChanged.setByte((byte) 0);
 
       this.setChanged();
       this.notifyObservers(mote);
@@ -119,7 +128,7 @@ public class ContikiCFS extends MoteInterface implements ContikiMoteInterface, P
       return false;
     }
 
-    moteMem.setByteArray("simCFSData", data);
+    simCFSData.setBytes(data);
     return true;
   }
 
@@ -129,7 +138,7 @@ public class ContikiCFS extends MoteInterface implements ContikiMoteInterface, P
    * @return Filesystem data
    */
   public byte[] getFilesystemData() {
-    return moteMem.getByteArray("simCFSData", FILESYSTEM_SIZE);
+    return simCFSData.getBytes(FILESYSTEM_SIZE);
   }
 
   /**
@@ -38,6 +38,7 @@ import org.apache.log4j.Logger;
 import org.jdom.Element;
 
 import se.sics.cooja.*;
+import se.sics.cooja.SectionMoteMemory.VariableHandle;
 import se.sics.cooja.contikimote.ContikiMote;
 import se.sics.cooja.contikimote.ContikiMoteInterface;
 import se.sics.cooja.interfaces.Clock;
@@ -71,6 +72,10 @@ public class ContikiClock extends Clock implements ContikiMoteInterface, PolledB
   private Simulation simulation;
   private ContikiMote mote;
   private SectionMoteMemory moteMem;
+  private VariableHandle simCurrentTime;
+  private VariableHandle simProcessRunValue;
+  private VariableHandle simEtimerPending;
+  private VariableHandle simNextExpirationTime;
 
   private long moteTime; /* Microseconds */
   private long timeDrift; /* Microseconds */
@@ -85,6 +90,10 @@ public class ContikiClock extends Clock implements ContikiMoteInterface, PolledB
     this.simulation = mote.getSimulation();
     this.mote = (ContikiMote) mote;
     this.moteMem = (SectionMoteMemory) mote.getMemory();
+    simCurrentTime = moteMem.getVariableHandle("simCurrentTime");
+    simProcessRunValue = moteMem.getVariableHandle("simProcessRunValue");
+    simEtimerPending = moteMem.getVariableHandle("simEtimerPending");
+    simNextExpirationTime = moteMem.getVariableHandle("simNextExpirationTime");
     timeDrift = 0;
     moteTime = 0;
   }
@@ -96,7 +105,7 @@ public class ContikiClock extends Clock implements ContikiMoteInterface, PolledB
   public void setTime(long newTime) {
     moteTime = newTime;
     if (moteTime > 0) {
-      moteMem.setIntValueOf("simCurrentTime", (int)(newTime/1000));
+      simCurrentTime.setInt((int)(newTime/1000));
     }
   }
 
@@ -121,21 +130,21 @@ public class ContikiClock extends Clock implements ContikiMoteInterface, PolledB
   public void doActionsAfterTick() {
     
     /* Request next tick for remaining events / timers */
-    int processRunValue = moteMem.getIntValueOf("simProcessRunValue");
+    int processRunValue = simProcessRunValue.getInt();
     if (processRunValue != 0) {
       /* Handle next Contiki event in one millisecond */
       mote.scheduleNextWakeup(simulation.getSimulationTime() + Simulation.MILLISECOND);
       return;
     }
 
-    int etimersPending = moteMem.getIntValueOf("simEtimerPending");
+    int etimersPending = simEtimerPending.getInt();
     if (etimersPending == 0) {
       /* No timers */
       return;
     }
 
     /* Request tick next wakeup time */
-    int nextExpirationTime = moteMem.getIntValueOf("simNextExpirationTime");
+    int nextExpirationTime = simNextExpirationTime.getInt();
     if (nextExpirationTime <= 0) {
       logger.warn("Event timer already expired, but has been delayed: " + nextExpirationTime);
       mote.scheduleNextWakeup(simulation.getSimulationTime() + Simulation.MILLISECOND);
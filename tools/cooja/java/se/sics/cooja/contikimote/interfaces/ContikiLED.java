@@ -38,6 +38,7 @@ import org.apache.log4j.Logger;
 import org.jdom.Element;
 
 import se.sics.cooja.*;
+import se.sics.cooja.SectionMoteMemory.VariableHandle;
 import se.sics.cooja.contikimote.ContikiMoteInterface;
 import se.sics.cooja.interfaces.LED;
 import se.sics.cooja.interfaces.PolledAfterActiveTicks;
@@ -66,6 +67,7 @@ public class ContikiLED extends LED implements ContikiMoteInterface, PolledAfter
 
   private Mote mote = null;
   private SectionMoteMemory moteMem = null;
+  private VariableHandle simLedsValue;
   private byte currentLedValue = 0;
 
   private static final byte LEDS_GREEN = 1;
@@ -93,6 +95,7 @@ public class ContikiLED extends LED implements ContikiMoteInterface, PolledAfter
   public ContikiLED(Mote mote) {
     this.mote = mote;
     this.moteMem = (SectionMoteMemory) mote.getMemory();
+    simLedsValue = moteMem.getVariableHandle("simLedsValue");
   }
 
   public static String[] getCoreInterfaceDependencies() {
@@ -118,7 +121,7 @@ public class ContikiLED extends LED implements ContikiMoteInterface, PolledAfter
   public void doActionsAfterTick() {
     boolean ledChanged;
 
-    byte newLedsValue = moteMem.getByteValueOf("simLedsValue");
+    byte newLedsValue = simLedsValue.getByte();
     if (newLedsValue != currentLedValue) {
       ledChanged = true;
     } else {
@@ -35,6 +35,7 @@ import java.util.Vector;
 
 import org.apache.log4j.Logger;
 import se.sics.cooja.*;
+import se.sics.cooja.SectionMoteMemory.VariableHandle;
 import se.sics.cooja.contikimote.ContikiMote;
 import se.sics.cooja.contikimote.ContikiMoteInterface;
 import se.sics.cooja.dialogs.SerialUI;
@@ -70,6 +71,12 @@ public class ContikiRS232 extends SerialUI implements ContikiMoteInterface, Poll
 
   private ContikiMote mote = null;
   private SectionMoteMemory moteMem = null;
+  private VariableHandle simLoggedFlag;
+  private VariableHandle simLoggedLength;
+  private VariableHandle simLoggedData;
+  private VariableHandle simSerialReceivingLength;
+  private VariableHandle simSerialReceivingData;
+  private VariableHandle simSerialReceivingFlag;
 
   /**
    * Creates an interface to the RS232 at mote.
@@ -82,6 +89,12 @@ public class ContikiRS232 extends SerialUI implements ContikiMoteInterface, Poll
   public ContikiRS232(Mote mote) {
     this.mote = (ContikiMote) mote;
     this.moteMem = (SectionMoteMemory) mote.getMemory();
+    simLoggedFlag = moteMem.getVariableHandle("simLoggedFlag");
+    simLoggedLength = moteMem.getVariableHandle("simLoggedLength");
+    simLoggedData = moteMem.getVariableHandle("simLoggedData");
+    simSerialReceivingLength = moteMem.getVariableHandle("simSerialReceivingLength");
+    simSerialReceivingData = moteMem.getVariableHandle("simSerialReceivingData");
+    simSerialReceivingFlag = moteMem.getVariableHandle("simSerialReceivingFlag");
   }
 
   public static String[] getCoreInterfaceDependencies() {
@@ -89,12 +102,12 @@ public class ContikiRS232 extends SerialUI implements ContikiMoteInterface, Poll
   }
 
   public void doActionsAfterTick() {
-    if (moteMem.getByteValueOf("simLoggedFlag") == 1) {
-      int len = moteMem.getIntValueOf("simLoggedLength");
-      byte[] bytes = moteMem.getByteArray("simLoggedData", len);
+    if (simLoggedFlag.getByte() == 1) {
+      int len = simLoggedLength.getInt();
+      byte[] bytes = simLoggedData.getBytes(len);
 
-      moteMem.setByteValueOf("simLoggedFlag", (byte) 0);
-      moteMem.setIntValueOf("simLoggedLength", 0);
+      simLoggedFlag.setByte((byte) 0);
+      simLoggedLength.setInt(0);
 
       for (byte b: bytes) {
         dataReceived(b);
@@ -108,19 +121,19 @@ public class ContikiRS232 extends SerialUI implements ContikiMoteInterface, Poll
     mote.getSimulation().invokeSimulationThread(new Runnable() {
       public void run() {
         /* Append to existing buffer */
-        int oldSize = moteMem.getIntValueOf("simSerialReceivingLength");
+        int oldSize = simSerialReceivingLength.getInt();
         int newSize = oldSize + dataToAppend.length;
-        moteMem.setIntValueOf("simSerialReceivingLength", newSize);
+        simSerialReceivingLength.setInt(newSize);
 
-        byte[] oldData = moteMem.getByteArray("simSerialReceivingData", oldSize);
+        byte[] oldData = simSerialReceivingData.getBytes(oldSize);
         byte[] newData = new byte[newSize];
 
         System.arraycopy(oldData, 0, newData, 0, oldData.length);
         System.arraycopy(dataToAppend, 0, newData, oldSize, dataToAppend.length);
 
-        moteMem.setByteArray("simSerialReceivingData", newData);
+        simSerialReceivingData.setBytes(newData);
 
-        moteMem.setByteValueOf("simSerialReceivingFlag", (byte) 1);
+        simSerialReceivingFlag.setByte((byte) 1);
         mote.requestImmediateWakeup();
       }
     });
@@ -158,19 +171,19 @@ public class ContikiRS232 extends SerialUI implements ContikiMoteInterface, Poll
         }
 
         /* Append to existing buffer */
-        int oldSize = moteMem.getIntValueOf("simSerialReceivingLength");
+        int oldSize = simSerialReceivingLength.getInt();
         int newSize = oldSize + dataToAppend.length;
-        moteMem.setIntValueOf("simSerialReceivingLength", newSize);
+        simSerialReceivingLength.setInt(newSize);
 
-        byte[] oldData = moteMem.getByteArray("simSerialReceivingData", oldSize);
+        byte[] oldData = simSerialReceivingData.getBytes(oldSize);
         byte[] newData = new byte[newSize];
 
         System.arraycopy(oldData, 0, newData, 0, oldData.length);
         System.arraycopy(dataToAppend, 0, newData, oldSize, dataToAppend.length);
 
-        moteMem.setByteArray("simSerialReceivingData", newData);
+        simSerialReceivingData.setBytes(newData);
 
-        moteMem.setByteValueOf("simSerialReceivingFlag", (byte) 1);
+        simSerialReceivingFlag.setByte((byte) 1);
 
         /* Reschedule us if more bytes are available */
         mote.getSimulation().scheduleEvent(this, t);
@@ -211,19 +224,19 @@ public class ContikiRS232 extends SerialUI implements ContikiMoteInterface, Poll
         }
 
         /* Append to existing buffer */
-        int oldSize = moteMem.getIntValueOf("simSerialReceivingLength");
+        int oldSize = simSerialReceivingLength.getInt();
         int newSize = oldSize + dataToAppend.length;
-        moteMem.setIntValueOf("simSerialReceivingLength", newSize);
+        simSerialReceivingLength.setInt(newSize);
 
-        byte[] oldData = moteMem.getByteArray("simSerialReceivingData", oldSize);
+        byte[] oldData = simSerialReceivingData.getBytes(oldSize);
         byte[] newData = new byte[newSize];
 
         System.arraycopy(oldData, 0, newData, 0, oldData.length);
         System.arraycopy(dataToAppend, 0, newData, oldSize, dataToAppend.length);
 
-        moteMem.setByteArray("simSerialReceivingData", newData);
+        simSerialReceivingData.setBytes(newData);
 
-        moteMem.setByteValueOf("simSerialReceivingFlag", (byte) 1);
+        simSerialReceivingFlag.setByte((byte) 1);
 
         /* Reschedule us if more bytes are available */
         mote.getSimulation().scheduleEvent(this, t);
@@ -46,10 +46,12 @@ import javax.swing.JPanel;
 import org.apache.log4j.Logger;
 import org.jdom.Element;
 
+import se.sics.cooja.AddressMemory.UnknownVariableException;
 import se.sics.cooja.COOJARadioPacket;
 import se.sics.cooja.Mote;
 import se.sics.cooja.RadioPacket;
 import se.sics.cooja.SectionMoteMemory;
+import se.sics.cooja.SectionMoteMemory.VariableHandle;
 import se.sics.cooja.Simulation;
 import se.sics.cooja.contikimote.ContikiMote;
 import se.sics.cooja.contikimote.ContikiMoteInterface;
@@ -101,6 +103,16 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
   private ContikiMote mote;
 
   private SectionMoteMemory myMoteMemory;
+  private VariableHandle simRadioHWOn;
+  private VariableHandle simRadioChannel;
+  private VariableHandle simInSize;
+  private VariableHandle simReceiving;
+  private VariableHandle simInDataBuffer;
+  private VariableHandle simPower;
+  private VariableHandle simSignalStrength;
+  private VariableHandle simTransmitting;
+  private VariableHandle simOutSize;
+  private VariableHandle simOutDataBuffer;
 
   private static Logger logger = Logger.getLogger(ContikiRadio.class);
 
@@ -142,8 +154,18 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
 
     this.mote = (ContikiMote) mote;
     this.myMoteMemory = (SectionMoteMemory) mote.getMemory();
-
-    radioOn = myMoteMemory.getByteValueOf("simRadioHWOn") == 1;
+    simRadioHWOn = myMoteMemory.getVariableHandle("simRadioHWOn");
+    simRadioChannel = myMoteMemory.getVariableHandle("simRadioChannel");
+    simInSize = myMoteMemory.getVariableHandle("simInSize");
+    simReceiving = myMoteMemory.getVariableHandle("simReceiving");
+    simInDataBuffer = myMoteMemory.getVariableHandle("simInDataBuffer");
+    simPower = myMoteMemory.getVariableHandle("simPower");
+    simSignalStrength = myMoteMemory.getVariableHandle("simSignalStrength");
+    simTransmitting = myMoteMemory.getVariableHandle("simTransmitting");
+    simOutSize = myMoteMemory.getVariableHandle("simOutSize");
+    simOutDataBuffer = myMoteMemory.getVariableHandle("simOutDataBuffer");
+
+    radioOn = simRadioHWOn.getByte() == 1;
   }
 
   /* Contiki mote interface support */
@@ -182,7 +204,7 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
   }
 
   public int getChannel() {
-    return myMoteMemory.getIntValueOf("simRadioChannel");
+    return simRadioChannel.getInt();
   }
 
   public void signalReceptionStart() {
@@ -206,10 +228,10 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
 
       // Reset data
       packetToMote = null;
-      myMoteMemory.setIntValueOf("simInSize", 0);
+      simInSize.setInt(0);
 
       // Unlock (if locked)
-      myMoteMemory.setByteValueOf("simReceiving", (byte) 0);
+      simReceiving.setByte((byte) 0);
 
       mote.requestImmediateWakeup();
 
@@ -221,11 +243,11 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
     }
 
     // Unlock (if locked)
-    myMoteMemory.setByteValueOf("simReceiving", (byte) 0);
+    simReceiving.setByte((byte) 0);
 
     // Set data
-    myMoteMemory.setIntValueOf("simInSize", packetToMote.getPacketData().length);
-    myMoteMemory.setByteArray("simInDataBuffer", packetToMote.getPacketData());
+    simInSize.setInt(packetToMote.getPacketData().length);
+    simInDataBuffer.setBytes(packetToMote.getPacketData());
 
     lastEventTime = mote.getSimulation().getSimulationTime();
     lastEvent = RadioEvent.RECEPTION_FINISHED;
@@ -260,15 +282,15 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
   }
 
   public int getCurrentOutputPowerIndicator() {
-    return myMoteMemory.getByteValueOf("simPower");
+    return simPower.getByte();
   }
 
   public double getCurrentSignalStrength() {
-    return myMoteMemory.getIntValueOf("simSignalStrength");
+    return simSignalStrength.getInt();
   }
 
   public void setCurrentSignalStrength(double signalStrength) {
-    myMoteMemory.setIntValueOf("simSignalStrength", (int) signalStrength);
+    simSignalStrength.setInt((int) signalStrength);
   }
 
   public Position getPosition() {
@@ -279,14 +301,14 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
    * @return True if locked at transmitting
    */
   private boolean isLockedAtTransmitting() {
-    return myMoteMemory.getByteValueOf("simTransmitting") == 1;
+    return simTransmitting.getByte() == 1;
   }
 
   /**
    * @return True if locked at receiving
    */
   private boolean isLockedAtReceiving() {
-    return myMoteMemory.getByteValueOf("simReceiving") == 1;
+    return simReceiving.getByte() == 1;
   }
 
   /**
@@ -299,20 +321,20 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
     mote.requestImmediateWakeup();
 
     // Lock core radio in receiving loop
-    myMoteMemory.setByteValueOf("simReceiving", (byte) 1);
+    simReceiving.setByte((byte) 1);
   }
 
   public void doActionsAfterTick() {
     /* Check if radio hardware status changed */
-    if (radioOn != (myMoteMemory.getByteValueOf("simRadioHWOn") == 1)) {
+    if (radioOn != (simRadioHWOn.getByte() == 1)) {
       radioOn = !radioOn;
 
       if (!radioOn) {
         // Reset status
-        myMoteMemory.setByteValueOf("simReceiving", (byte) 0);
-        myMoteMemory.setIntValueOf("simInSize", 0);
-        myMoteMemory.setByteValueOf("simTransmitting", (byte) 0);
-        myMoteMemory.setIntValueOf("simOutSize", 0);
+        simReceiving.setByte((byte) 0);
+        simInSize.setInt(0);
+        simTransmitting.setByte((byte) 0);
+        simOutSize.setInt(0);
         isTransmitting = false;
         lastEvent = RadioEvent.HW_OFF;
       } else {
@@ -328,8 +350,8 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
     }
 
     // Check if radio output power changed
-    if (myMoteMemory.getByteValueOf("simPower") != oldOutputPowerIndicator) {
-      oldOutputPowerIndicator = myMoteMemory.getByteValueOf("simPower");
+    if (simPower.getByte() != oldOutputPowerIndicator) {
+      oldOutputPowerIndicator = simPower.getByte();
       lastEvent = RadioEvent.UNKNOWN;
       this.setChanged();
       this.notifyObservers();
@@ -339,8 +361,8 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
     /* TODO Use time events */
     if (isTransmitting
         && mote.getSimulation().getSimulationTime() >= transmissionEndTime) {
-      myMoteMemory.setByteValueOf("simTransmitting", (byte) 0);
-      myMoteMemory.setIntValueOf("simOutSize", 0);
+      simTransmitting.setByte((byte) 0);
+      simOutSize.setInt(0);
       isTransmitting = false;
 
       lastEventTime = mote.getSimulation().getSimulationTime();
@@ -352,17 +374,23 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
     }
 
     // Check if a new transmission should be started
-    if (!isTransmitting && myMoteMemory.getByteValueOf("simTransmitting") == 1) {
-      int size = myMoteMemory.getIntValueOf("simOutSize");
+    if (!isTransmitting && simTransmitting.getByte() == 1) {
+      int size = simOutSize.getInt();
       if (size <= 0) {
         logger.warn("Skipping zero sized Contiki packet (no size)");
-        myMoteMemory.setByteValueOf("simTransmitting", (byte) 0);
+        simTransmitting.setByte((byte) 0);
         return;
       }
-      packetFromMote = new COOJARadioPacket(myMoteMemory.getByteArray("simOutDataBuffer", size));
+      byte[] data = null;
+      try {
+        data = simOutDataBuffer.getBytes(size);
+      } catch (UnknownVariableException e) {
+        /* Size exceeds buffer memory */
+      }
+      packetFromMote = new COOJARadioPacket(data);
       if (packetFromMote.getPacketData() == null || packetFromMote.getPacketData().length == 0) {
         logger.warn("Skipping zero sized Contiki packet (no buffer)");
-        myMoteMemory.setByteValueOf("simTransmitting", (byte) 0);
+        simTransmitting.setByte((byte) 0);
         return;
       }
 
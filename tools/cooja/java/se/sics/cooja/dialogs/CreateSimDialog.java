@@ -61,7 +61,9 @@ import javax.swing.KeyStroke;
 
 import org.apache.log4j.Logger;
 
+import se.sics.cooja.EventQueue;
 import se.sics.cooja.GUI;
+import se.sics.cooja.PriorityEventQueue;
 import se.sics.cooja.RadioMedium;
 import se.sics.cooja.Simulation;
 
@@ -81,6 +83,7 @@ public class CreateSimDialog extends JDialog {
 
   private JFormattedTextField randomSeed, delayedStartup;
   private JCheckBox randomSeedGenerated;
+  private JCheckBox priorityEventQueue;
 
   private JTextField title;
   private JComboBox radioMediumBox;
@@ -143,6 +146,9 @@ public class CreateSimDialog extends JDialog {
     // Set delayed mote startup time (ms)
     dialog.delayedStartup.setValue(new Long(simulation.getDelayedMoteStartupTime()/Simulation.MILLISECOND));
 
+    // Set event queue
+    dialog.priorityEventQueue.setSelected(simulation.hasPriorityEventQueue());
+
 
     // Set position and focus of dialog
     dialog.setLocationRelativeTo(parent);
@@ -310,6 +316,22 @@ public class CreateSimDialog extends JDialog {
     advancedBox.add(horizBox);
     advancedBox.add(Box.createVerticalStrut(5));
 
+    // Event queue
+    horizBox = Box.createHorizontalBox();
+    horizBox.setMaximumSize(new Dimension(Integer.MAX_VALUE,LABEL_HEIGHT));
+    horizBox.setAlignmentX(Component.LEFT_ALIGNMENT);
+    label = new JLabel("Heap event queue");
+    label.setPreferredSize(new Dimension(LABEL_WIDTH,LABEL_HEIGHT));
+
+    priorityEventQueue = new JCheckBox();
+    horizBox.add(label);
+    horizBox.add(Box.createHorizontalStrut(150));
+    horizBox.add(priorityEventQueue);
+    horizBox.setToolTipText("Schedule events in a binary heap. Faster for large simulations, same event order.");
+
+    advancedBox.add(horizBox);
+    advancedBox.add(Box.createVerticalStrut(5));
+
     vertBox.add(advancedBox);
     vertBox.add(Box.createVerticalGlue());
 
@@ -352,6 +374,14 @@ public class CreateSimDialog extends JDialog {
 
       mySimulation.setDelayedMoteStartupTime((int) ((Number) delayedStartup.getValue()).intValue()*Simulation.MILLISECOND);
 
+      if (priorityEventQueue.isSelected() != mySimulation.hasPriorityEventQueue()) {
+        if (priorityEventQueue.isSelected()) {
+          mySimulation.setEventQueue(new PriorityEventQueue());
+        } else {
+          mySimulation.setEventQueue(new EventQueue());
+        }
+      }
+
       dispose();
     }
   };
@@ -88,7 +88,8 @@ public class Mote2MoteRelations extends MoteInterface {
     this.mote = mote;
     this.gui = mote.getSimulation().getGUI();
 
-    mote.getSimulation().getEventCentral().addLogOutputListener(logListener = new LogOutputListener() {
+    /* Only this mote's log output */
+    mote.getSimulation().getEventCentral().addLogOutputListener(mote, null, logListener = new LogOutputListener() {
       public void moteWasAdded(Mote mote) {
         /* Ignored */
       }
@@ -106,9 +107,6 @@ public class Mote2MoteRelations extends MoteInterface {
         gui.removeMoteRelation(Mote2MoteRelations.this.mote, mote);
       }
       public void newLogOutput(LogOutputEvent ev) {
-        if (ev.getMote() != Mote2MoteRelations.this.mote) {
-          return;
-        }
         handleNewLog(ev.msg);
       }
       public void removedLogOutput(LogOutputEvent ev) {
@@ -153,12 +151,9 @@ public class Mote2MoteRelations extends MoteInterface {
     /* Locate destination mote */
     /* TODO Use Rime address interface instead of mote ID? */
     Mote destinationMote = null;
-    Mote[] allMotes = Mote2MoteRelations.this.mote.getSimulation().getMotes();
-    for (Mote m: allMotes) {
-      if (id.equals("" + m.getID())) {
-        destinationMote = m;
-        break;
-      }
+    try {
+      destinationMote = mote.getSimulation().getMoteWithID(Integer.parseInt(id));
+    } catch (NumberFormatException e) {
     }
     if (destinationMote == null) {
       logger.warn("No destination mote with ID: " + id);
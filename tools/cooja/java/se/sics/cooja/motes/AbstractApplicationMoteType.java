@@ -244,6 +244,8 @@ public abstract class AbstractApplicationMoteType implements MoteType {
     }
     public void setMoteID(int newID) {
       this.id = newID;
+      setChanged();
+      notifyObservers();
     }
     public JPanel getInterfaceVisualizer() {
       return null;
@@ -34,11 +34,16 @@ package se.sics.cooja.plugins;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
 import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
 import java.util.Hashtable;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.concurrent.Semaphore;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.script.Invocable;
 import javax.script.ScriptEngine;
@@ -65,6 +70,11 @@ public class LogScriptEngine {
   private static Logger logger = Logger.getLogger(LogScriptEngine.class);
   private static final long DEFAULT_TIMEOUT = 20*60*1000*Simulation.MILLISECOND; /* 1200s = 20 minutes */
 
+  /* Test results, see getTestResult() */
+  public static final String TEST_OK = "OK";
+  public static final String TEST_FAILED = "FAILED";
+  public static final String TEST_ERROR = "ERROR";
+
   private ScriptEngine engine = 
     new ScriptEngineManager().getEngineByName("JavaScript");
 
@@ -107,6 +117,15 @@ public class LogScriptEngine {
 
   private boolean scriptActive = false;
 
+  /* Declarative log output, see ScriptParser#getLogOutputFormat() */
+  private LogSink logSink = null;
+  private Writer logSinkWriter = null;
+
+  /* False if the script need not be executed for each log line */
+  private boolean hasScriptLogic = true;
+
+  private String testResult = null;
+
   private interface ScriptLog {
     public void log(String log);
     public void testOK();
@@ -146,6 +165,13 @@ public class LogScriptEngine {
 
   /* Only called from the simulation loop */
   private void handleNewMoteOutput(Mote mote, int id, long time, String msg) {
+    if (logSink != null) {
+      logSink.log(id, time, msg);
+    }
+    if (!hasScriptLogic) {
+      return;
+    }
+
     try {
       if (scriptThread == null ||
           !scriptThread.isAlive()) {
@@ -199,6 +225,27 @@ public class LogScriptEngine {
     scriptLogObserver = observer;
   }
 
+  /**
+   * Sets the writer used for LOG_OUTPUT() script output.
+   * Log lines are written directly from the simulation thread, and the
+   * writer is not flushed per line.
+   * If no writer is set, log lines are forwarded to the script log observer.
+   *
+   * @see #setScriptLogObserver(Observer)
+   * @param writer Writer
+   */
+  public void setLogSinkWriter(Writer writer) {
+    logSinkWriter = writer;
+  }
+
+  /**
+   * @return Test result: TEST_OK, TEST_FAILED, TEST_ERROR, or null if the
+   * test has not ended
+   */
+  public String getTestResult() {
+    return testResult;
+  }
+
   /**
    * Deactivate script
    */
@@ -273,6 +320,13 @@ public class LogScriptEngine {
     ScriptParser parser = new ScriptParser(scriptCode);
     String jsCode = parser.getJSCode();
 
+    hasScriptLogic = parser.hasScriptLogic();
+    if (parser.getLogOutputFormat() != null) {
+      logSink = new LogSink(parser.getLogOutputFormat(), parser.getLogOutputFilter());
+    } else {
+      logSink = null;
+    }
+
     long timeoutTime = parser.getTimeoutTime();
     if (timeoutTime < 0) {
       logger.info("No timeout defined, using default (us): " + DEFAULT_TIMEOUT);
@@ -285,6 +339,16 @@ public class LogScriptEngine {
       }
     });
 
+    if (!hasScriptLogic) {
+      /* No script thread: only log output and timeout are handled */
+      logger.info("Test script has no per-line logic, not starting script thread");
+      simulation.getEventCentral().addMoteCountListener(newMotesListener);
+      for (Mote mote: simulation.getMotes()) {
+        newMotesListener.moteWasAdded(mote);
+      }
+      return;
+    }
+
     engine.eval(jsCode);
 
     /* Setup script control */
@@ -328,7 +392,8 @@ public class LogScriptEngine {
               throwable.getMessage().contains("test script killed") ) {
             logger.info("Test script finished");
           } else {
-            if (!GUI.isVisualized()) {
+            testResult = TEST_ERROR;
+            if (!GUI.isVisualized() && !simulation.getGUI().isBatchMode()) {
               logger.fatal("Test script error, terminating Cooja.");
               logger.fatal("Script error:", e);
               System.exit(1);
@@ -376,6 +441,7 @@ public class LogScriptEngine {
       }
       public void testOK() {
         log("TEST OK\n");
+        testResult = TEST_OK;
 
         if (GUI.isVisualized()) {
           log("[if test was run without visualization, COOJA would now have been terminated]\n");
@@ -393,6 +459,7 @@ public class LogScriptEngine {
       }
       public void testFailed() {
         log("TEST FAILED\n");
+        testResult = TEST_FAILED;
 
         if (GUI.isVisualized()) {
           log("[if test was run without visualization, COOJA would now have been terminated]\n");
@@ -447,10 +514,140 @@ public class LogScriptEngine {
   private TimeEvent timeoutEvent = new TimeEvent(0) {
     public void execute(long t) {
       logger.info("Timeout event @ " + t);
+      if (!hasScriptLogic) {
+        timeoutWithoutScript();
+        return;
+      }
       engine.put("TIMEOUT", true);
       stepScript();
     }
   };
+
+  /* Same output as the generated SCRIPT_TIMEOUT() function */
+  private void timeoutWithoutScript() {
+    flushLogSink();
+    logScriptOutput("TEST TIMEOUT\n");
+    logScriptOutput("TEST FAILED\n");
+    testResult = TEST_FAILED;
+
+    if (GUI.isVisualized()) {
+      logScriptOutput("[if test was run without visualization, COOJA would now have been terminated]\n");
+      stopSimulationRunnable.run();
+    } else {
+      quitRunnable.run();
+    }
+  }
+
+  private void logScriptOutput(String msg) {
+    if (scriptLogObserver != null) {
+      scriptLogObserver.update(null, msg);
+    }
+  }
+
+  private void flushLogSink() {
+    if (logSinkWriter == null) {
+      return;
+    }
+    try {
+      logSinkWriter.flush();
+    } catch (IOException e) {
+      logger.warn("Log output flush failed: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Formats and writes mote log output without involving the script thread.
+   *
+   * Format fields:
+   * %t simulation time (us), %T simulation time (ms), %i mote ID, %m message,
+   * %% percent sign.
+   */
+  private class LogSink {
+    private static final char FIELD_TIME = 't';
+    private static final char FIELD_TIME_MS = 'T';
+    private static final char FIELD_ID = 'i';
+    private static final char FIELD_MSG = 'm';
+
+    private final String[] literals;
+    private final char[] fields;
+    private final Matcher filter;
+
+    private StringBuilder line = new StringBuilder(256);
+    private char[] chars = new char[256];
+
+    public LogSink(String format, String filterRegex) {
+      ArrayList<String> literalList = new ArrayList<String>();
+      StringBuilder fieldList = new StringBuilder();
+      StringBuilder literal = new StringBuilder();
+
+      for (int i=0; i < format.length(); i++) {
+        char c = format.charAt(i);
+        if (c != '%' || i+1 >= format.length()) {
+          literal.append(c);
+          continue;
+        }
+        char f = format.charAt(++i);
+        if (f == FIELD_TIME || f == FIELD_TIME_MS || f == FIELD_ID || f == FIELD_MSG) {
+          literalList.add(literal.toString());
+          literal.setLength(0);
+          fieldList.append(f);
+        } else if (f == '%') {
+          literal.append('%');
+        } else {
+          literal.append(c).append(f);
+        }
+      }
+      literal.append('\n');
+      literalList.add(literal.toString());
+
+      literals = literalList.toArray(new String[0]);
+      fields = fieldList.toString().toCharArray();
+      filter = (filterRegex==null?null:Pattern.compile(filterRegex).matcher(""));
+    }
+
+    public void log(int id, long time, String msg) {
+      if (filter != null && !filter.reset(msg).find()) {
+        return;
+      }
+
+      line.setLength(0);
+      for (int i=0; i < fields.length; i++) {
+        line.append(literals[i]);
+        switch (fields[i]) {
+        case FIELD_TIME:
+          line.append(time);
+          break;
+        case FIELD_TIME_MS:
+          line.append(time/Simulation.MILLISECOND);
+          break;
+        case FIELD_ID:
+          line.append(id);
+          break;
+        case FIELD_MSG:
+          line.append(msg);
+          break;
+        }
+      }
+      line.append(literals[fields.length]);
+
+      if (logSinkWriter == null) {
+        logScriptOutput(line.toString());
+        return;
+      }
+
+      int length = line.length();
+      if (chars.length < length) {
+        chars = new char[length*2];
+      }
+      line.getChars(0, length, chars, 0);
+      try {
+        logSinkWriter.write(chars, 0, length);
+      } catch (IOException e) {
+        logger.fatal("Error when writing log output: " + e.getMessage(), e);
+        logSinkWriter = null;
+      }
+    }
+  }
   private Runnable stopSimulationRunnable = new Runnable() {
     public void run() {
       simulation.stopSimulation();
@@ -460,6 +657,11 @@ public class LogScriptEngine {
   private Runnable quitRunnable = new Runnable() {
     public void run() {
       simulation.stopSimulation();
+      if (simulation.getGUI().isBatchMode()) {
+        /* Other simulations are still running, see BatchRunner */
+        timeoutEvent.remove();
+        return;
+      }
       new Thread() {
         public void run() {
           try { Thread.sleep(500); } catch (InterruptedException e) { }
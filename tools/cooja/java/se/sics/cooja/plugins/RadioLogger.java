@@ -40,15 +40,20 @@ import java.awt.datatransfer.StringSelection;
 import java.awt.event.ActionEvent;
 import java.awt.event.MouseEvent;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.Properties;
-import java.util.Vector;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
@@ -65,22 +70,25 @@ import org.apache.log4j.Logger;
 import org.jdom.Element;
 
 import se.sics.cooja.ClassDescription;
-import se.sics.cooja.ConvertedRadioPacket;
 import se.sics.cooja.GUI;
+import se.sics.cooja.Mote;
 import se.sics.cooja.PluginType;
+import se.sics.cooja.RadioCapture;
 import se.sics.cooja.RadioConnection;
 import se.sics.cooja.RadioMedium;
-import se.sics.cooja.RadioPacket;
 import se.sics.cooja.Simulation;
 import se.sics.cooja.VisPlugin;
 import se.sics.cooja.dialogs.TableColumnAdjuster;
-import se.sics.cooja.interfaces.Radio;
 import se.sics.cooja.util.StringUtils;
 
 /**
  * Radio logger listens to the simulation radio medium and lists all transmitted
  * data in a table.
  *
+ * Connections are streamed to a temporary capture file as they finish, and
+ * only the table rows being viewed are kept in memory.
+ *
+ * @see RadioCapture
  * @author Fredrik Osterlind
  */
 @ClassDescription("Radio Logger")
@@ -101,17 +109,30 @@ public class RadioLogger extends VisPlugin {
     "Data"
   };
 
+  /* Maximum number of table rows kept in memory */
+  private final static int CACHED_ROWS = 1000;
+
   private final Simulation simulation;
   private final JTable dataTable;
-  private ArrayList<RadioConnectionLog> connections = new ArrayList<RadioConnectionLog>();
+  private RadioCapture capture;
+  private int rowCount = 0; /* Rows shown in table, only accessed from event thread */
   private RadioMedium radioMedium;
   private Observer radioMediumObserver;
   private AbstractTableModel model;
+
+  private final LinkedHashMap<Integer, RadioConnectionLog> cachedRows =
+    new LinkedHashMap<Integer, RadioConnectionLog>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+      protected boolean removeEldestEntry(Map.Entry<Integer, RadioConnectionLog> eldest) {
+        return size() > CACHED_ROWS;
+      }
+  };
   
   public RadioLogger(final Simulation simulationToControl, final GUI gui) {
     super("Radio Logger", gui);
     simulation = simulationToControl;
     radioMedium = simulation.getRadioMedium();
+    capture = createCapture();
 
     model = new AbstractTableModel() {
 
@@ -122,7 +143,7 @@ public class RadioLogger extends VisPlugin {
       }
 
       public int getRowCount() {
-        return connections.size();
+        return rowCount;
       }
 
       public int getColumnCount() {
@@ -130,26 +151,26 @@ public class RadioLogger extends VisPlugin {
       }
 
       public Object getValueAt(int row, int col) {
-        RadioConnectionLog conn = connections.get(row);
+        RadioConnectionLog conn = getConnection(row);
         if (col == COLUMN_TIME) {
           return Long.toString(conn.startTime / Simulation.MILLISECOND);
         } else if (col == COLUMN_FROM) {
-          return "" + conn.connection.getSource().getMote().getID();
+          return "" + conn.source;
         } else if (col == COLUMN_TO) {
-          Radio[] dests = conn.connection.getDestinations();
+          int[] dests = conn.destinations;
           if (dests.length == 0) {
             return "-";
           }
           if (dests.length == 1) {
-            return "" + dests[0].getMote().getID();
+            return "" + dests[0];
           }
           if (dests.length == 2) {
-            return "" + dests[0].getMote().getID() + ',' + dests[1].getMote().getID();
+            return "" + dests[0] + ',' + dests[1];
           }
           return "[" + dests.length + " d]";
         } else if (col == COLUMN_DATA) {
           if (conn.data == null) {
-            prepareDataString(connections.get(row));
+            prepareDataString(conn);
           }
           if (aliases != null) {
             /* Check if alias exists */
@@ -166,15 +187,20 @@ public class RadioLogger extends VisPlugin {
       public boolean isCellEditable(int row, int col) {
         if (col == COLUMN_FROM) {
           /* Highlight source */
-          gui.signalMoteHighlight(connections.get(row).connection.getSource().getMote());
+          Mote source = simulation.getMoteWithID(getConnection(row).source);
+          if (source != null) {
+            gui.signalMoteHighlight(source);
+          }
           return false;
         }
 
         if (col == COLUMN_TO) {
           /* Highlight all destinations */
-          Radio dests[] = connections.get(row).connection.getDestinations();
-          for (Radio dest: dests) {
-            gui.signalMoteHighlight(dest.getMote());
+          for (int id: getConnection(row).destinations) {
+            Mote dest = simulation.getMoteWithID(id);
+            if (dest != null) {
+              gui.signalMoteHighlight(dest);
+            }
           }
           return false;
         }
@@ -199,7 +225,7 @@ public class RadioLogger extends VisPlugin {
           return super.getToolTipText(e);
         }
 
-        RadioConnectionLog conn = connections.get(rowIndex);
+        RadioConnectionLog conn = getConnection(rowIndex);
         if (realColumnIndex == COLUMN_TIME) {
           return
             "<html>" +
@@ -210,9 +236,9 @@ public class RadioLogger extends VisPlugin {
             "Duration (us): " + (conn.endTime - conn.startTime) +
             "</html>";
         } else if (realColumnIndex == COLUMN_FROM) {
-          return conn.connection.getSource().getMote().toString();
+          return getMoteString(conn.source);
         } else if (realColumnIndex == COLUMN_TO) {
-          Radio[] dests = conn.connection.getDestinations();
+          int[] dests = conn.destinations;
           if (dests.length == 0) {
             return "No destinations";
           }
@@ -223,8 +249,8 @@ public class RadioLogger extends VisPlugin {
           } else {
             tip.append(dests.length).append(" destinations:<br>");
           }
-          for (Radio radio: dests) {
-            tip.append(radio.getMote()).append("<br>");
+          for (int id: dests) {
+            tip.append(getMoteString(id)).append("<br>");
           }
           tip.append("</html>");
           return tip.toString();
@@ -251,6 +277,7 @@ public class RadioLogger extends VisPlugin {
     popupMenu.add(new JMenuItem(aliasAction));
     popupMenu.addSeparator();
     popupMenu.add(new JMenuItem(saveAction));
+    popupMenu.add(new JMenuItem(saveCaptureAction));
     popupMenu.addSeparator();
     popupMenu.add(new JMenuItem(timeLineAction));
     popupMenu.add(new JMenuItem(logListenerAction));
@@ -268,14 +295,23 @@ public class RadioLogger extends VisPlugin {
         if (conn == null) {
           return;
         }
-        final RadioConnectionLog loggedConn = new RadioConnectionLog();
-        loggedConn.startTime = conn.getStartTime();
-        loggedConn.endTime = simulation.getSimulationTime();
-        loggedConn.connection = conn;
-        loggedConn.packet = conn.getSource().getLastPacketTransmitted();
+        final RadioCapture currentCapture = capture;
+        if (currentCapture == null) {
+          return;
+        }
+        try {
+          currentCapture.add(conn, conn.getSource().getLastPacketTransmitted(), simulation.getSimulationTime());
+        } catch (IOException e) {
+          logger.fatal("Could not log radio connection: " + e.getMessage());
+          return;
+        }
         java.awt.EventQueue.invokeLater(new Runnable() {
           public void run() {
-            int lastSize = connections.size();
+            if (currentCapture != capture) {
+              /* Cleared */
+              return;
+            }
+            int lastSize = rowCount;
             // Check if the last row is visible
             boolean isVisible = false;
             int rowCount = dataTable.getRowCount();
@@ -284,9 +320,9 @@ public class RadioLogger extends VisPlugin {
               Rectangle visible = dataTable.getVisibleRect();
               isVisible = visible.y <= lastRow.y && visible.y + visible.height >= lastRow.y + lastRow.height;
             }
-            connections.add(loggedConn);
-            if (connections.size() > lastSize) {
-              model.fireTableRowsInserted(lastSize, connections.size() - 1);
+            RadioLogger.this.rowCount = capture.getEntryCount();
+            if (RadioLogger.this.rowCount > lastSize) {
+              model.fireTableRowsInserted(lastSize, RadioLogger.this.rowCount - 1);
             }
             if (isVisible) {
               dataTable.scrollRectToVisible(dataTable.getCellRect(dataTable.getRowCount() - 1, 0, true));
@@ -313,27 +349,73 @@ public class RadioLogger extends VisPlugin {
   public void trySelectTime(final long time) {
     java.awt.EventQueue.invokeLater(new Runnable() {
       public void run() {
-        for (int i=0; i < connections.size(); i++) {
-          if (connections.get(i).endTime < time) {
-            continue;
-          }
-          dataTable.scrollRectToVisible(dataTable.getCellRect(i, 0, true));
-          dataTable.setRowSelectionInterval(i, i);
+        int i;
+        try {
+          i = capture.findEntry(time);
+        } catch (IOException e) {
+          logger.fatal("Could not read radio log: " + e.getMessage());
+          return;
+        }
+        if (i < 0 || i >= rowCount) {
           return;
         }
+        dataTable.scrollRectToVisible(dataTable.getCellRect(i, 0, true));
+        dataTable.setRowSelectionInterval(i, i);
       }
     });  
   }
+
+  private RadioCapture createCapture() {
+    try {
+      File file = File.createTempFile("cooja_radiolog", ".crad");
+      file.deleteOnExit();
+      return RadioCapture.create(file);
+    } catch (IOException e) {
+      logger.fatal("Could not create radio log file, not logging: " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Returns logged connection, read from the capture file if not cached.
+   * Must be called from the event thread.
+   *
+   * @param row Table row
+   * @return Logged connection
+   */
+  private RadioConnectionLog getConnection(int row) {
+    RadioConnectionLog conn = cachedRows.get(row);
+    if (conn != null) {
+      return conn;
+    }
+
+    conn = new RadioConnectionLog();
+    try {
+      conn.entry = capture.getEntry(row);
+    } catch (IOException e) {
+      logger.fatal("Could not read radio log: " + e.getMessage());
+      conn.entry = new RadioCapture.Entry();
+      conn.entry.destinations = new int[0];
+      conn.entry.interfered = new int[0];
+    }
+    conn.startTime = conn.entry.startTime;
+    conn.endTime = conn.entry.endTime;
+    conn.source = conn.entry.source;
+    conn.destinations = conn.entry.destinations;
+    cachedRows.put(row, conn);
+    return conn;
+  }
+
+  private String getMoteString(int id) {
+    Mote mote = simulation.getMoteWithID(id);
+    if (mote == null) {
+      return "Mote ID " + id;
+    }
+    return mote.toString();
+  }
   
   private void prepareDataString(RadioConnectionLog conn) {
-    byte[] data;
-    if (conn.packet == null) {
-      data = null;
-    } else if (conn.packet instanceof ConvertedRadioPacket) {
-      data = ((ConvertedRadioPacket)conn.packet).getOriginalPacketData();
-    } else {
-      data = conn.packet.getPacketData();
-    }
+    byte[] data = conn.entry.packetData;
     if (data == null) {
       conn.data = "[unknown data]";
       return;
@@ -342,15 +424,14 @@ public class RadioLogger extends VisPlugin {
   }
 
   private void prepareTooltipString(RadioConnectionLog conn) {
-    RadioPacket packet = conn.packet;
-    if (packet == null) {
+    if (conn.entry.packetData == null && conn.entry.convertedPacketData == null) {
       conn.tooltip = "";
       return;
     }
 
-    if (packet instanceof ConvertedRadioPacket && packet.getPacketData().length > 0) {
-      byte[] original = ((ConvertedRadioPacket)packet).getOriginalPacketData();
-      byte[] converted = ((ConvertedRadioPacket)packet).getPacketData();
+    if (conn.entry.convertedPacketData != null && conn.entry.convertedPacketData.length > 0) {
+      byte[] original = conn.entry.packetData;
+      byte[] converted = conn.entry.convertedPacketData;
       conn.tooltip = "<html><font face=\"Monospaced\">" +
       "<b>Packet data (" + original.length + " bytes)</b><br>" +
       "<pre>" + StringUtils.hexDump(original) + "</pre>" +
@@ -358,8 +439,8 @@ public class RadioLogger extends VisPlugin {
       "<b>Cross-level packet data (" + converted.length + " bytes)</b><br>" +
       "<pre>" + StringUtils.hexDump(converted) + "</pre>" +
       "</font></html>";
-    } else if (packet instanceof ConvertedRadioPacket) {
-      byte[] original = ((ConvertedRadioPacket)packet).getOriginalPacketData();
+    } else if (conn.entry.convertedPacketData != null) {
+      byte[] original = conn.entry.packetData;
       conn.tooltip = "<html><font face=\"Monospaced\">" +
       "<b>Packet data (" + original.length + " bytes)</b><br>" +
       "<pre>" + StringUtils.hexDump(original) + "</pre>" +
@@ -367,7 +448,7 @@ public class RadioLogger extends VisPlugin {
       "<b>No cross-level conversion available</b><br>" +
       "</font></html>";
     } else {
-      byte[] data = packet.getPacketData();
+      byte[] data = conn.entry.packetData;
       conn.tooltip = "<html><font face=\"Monospaced\">" +
       "<b>Packet data (" + data.length + " bytes)</b><br>" +
       "<pre>" + StringUtils.hexDump(data) + "</pre>" +
@@ -380,6 +461,11 @@ public class RadioLogger extends VisPlugin {
     if (radioMediumObserver != null) {
       radioMedium.deleteRadioMediumObserver(radioMediumObserver);
     }
+    if (capture != null) {
+      capture.close();
+      capture.getFile().delete();
+      capture = null;
+    }
   }
 
   public Collection<Element> getConfigXML() {
@@ -417,24 +503,25 @@ public class RadioLogger extends VisPlugin {
   private static class RadioConnectionLog {
     long startTime;
     long endTime;
-    RadioConnection connection;
-    RadioPacket packet;
+    int source;
+    int[] destinations;
+    RadioCapture.Entry entry;
 
     String data = null;
     String tooltip = null;
   }
 
   private String getDestString(RadioConnectionLog c) {
-    Radio[] dests = c.connection.getDestinations();
+    int[] dests = c.destinations;
     if (dests.length == 0) {
       return "-";
     }
     if (dests.length == 1) {
-      return "" + dests[0].getMote().getID();
+      return "" + dests[0];
     }
     StringBuilder sb = new StringBuilder();
-    for (Radio dest: dests) {
-      sb.append(dest.getMote().getID()).append(',');
+    for (int dest: dests) {
+      sb.append(dest).append(',');
     }
     sb.setLength(sb.length()-1);
     return sb.toString();
@@ -442,9 +529,16 @@ public class RadioLogger extends VisPlugin {
 
   private Action clearAction = new AbstractAction("Clear") {
     public void actionPerformed(ActionEvent e) {
-      int size = connections.size();
+      int size = rowCount;
       if (size > 0) {
-        connections.clear();
+        RadioCapture oldCapture = capture;
+        capture = createCapture();
+        if (oldCapture != null) {
+          oldCapture.close();
+          oldCapture.getFile().delete();
+        }
+        cachedRows.clear();
+        rowCount = 0;
         model.fireTableRowsDeleted(0, size - 1);
         setTitle("Radio Logger: " + dataTable.getRowCount() + " packets");
       }
@@ -461,7 +555,7 @@ public class RadioLogger extends VisPlugin {
       for (int i: selectedRows) {
         sb.append("" + dataTable.getValueAt(i, COLUMN_TIME) + '\t');
         sb.append("" + dataTable.getValueAt(i, COLUMN_FROM) + '\t');
-        sb.append("" + getDestString(connections.get(i)) + '\t');
+        sb.append("" + getDestString(getConnection(i)) + '\t');
         sb.append("" + dataTable.getValueAt(i, COLUMN_DATA) + '\n');
       }
 
@@ -475,10 +569,10 @@ public class RadioLogger extends VisPlugin {
       Clipboard clipboard = Toolkit.getDefaultToolkit().getSystemClipboard();
 
       StringBuilder sb = new StringBuilder();
-      for(int i=0; i < connections.size(); i++) {
+      for(int i=0; i < rowCount; i++) {
         sb.append("" + dataTable.getValueAt(i, COLUMN_TIME) + '\t');
         sb.append("" + dataTable.getValueAt(i, COLUMN_FROM) + '\t');
-        sb.append("" + getDestString(connections.get(i)) + '\t');
+        sb.append("" + getDestString(getConnection(i)) + '\t');
         sb.append("" + dataTable.getValueAt(i, COLUMN_DATA) + '\n');
       }
 
@@ -487,40 +581,48 @@ public class RadioLogger extends VisPlugin {
     }
   };
   
-  private Action saveAction = new AbstractAction("Save to file") {
-    public void actionPerformed(ActionEvent e) {
-      JFileChooser fc = new JFileChooser();
-      int returnVal = fc.showSaveDialog(GUI.getTopParentContainer());
-      if (returnVal != JFileChooser.APPROVE_OPTION) {
-        return;
-      }
+  private File chooseSaveFile() {
+    JFileChooser fc = new JFileChooser();
+    int returnVal = fc.showSaveDialog(GUI.getTopParentContainer());
+    if (returnVal != JFileChooser.APPROVE_OPTION) {
+      return null;
+    }
 
-      File saveFile = fc.getSelectedFile();
-      if (saveFile.exists()) {
-        String s1 = "Overwrite";
-        String s2 = "Cancel";
-        Object[] options = { s1, s2 };
-        int n = JOptionPane.showOptionDialog(
-            GUI.getTopParentContainer(),
-            "A file with the same name already exists.\nDo you want to remove it?",
-            "Overwrite existing file?", JOptionPane.YES_NO_OPTION,
-            JOptionPane.QUESTION_MESSAGE, null, options, s1);
-        if (n != JOptionPane.YES_OPTION) {
-          return;
-        }
+    File saveFile = fc.getSelectedFile();
+    if (saveFile.exists()) {
+      String s1 = "Overwrite";
+      String s2 = "Cancel";
+      Object[] options = { s1, s2 };
+      int n = JOptionPane.showOptionDialog(
+          GUI.getTopParentContainer(),
+          "A file with the same name already exists.\nDo you want to remove it?",
+          "Overwrite existing file?", JOptionPane.YES_NO_OPTION,
+          JOptionPane.QUESTION_MESSAGE, null, options, s1);
+      if (n != JOptionPane.YES_OPTION) {
+        return null;
       }
+    }
+
+    if (saveFile.exists() && !saveFile.canWrite()) {
+      logger.fatal("No write access to file: " + saveFile);
+      return null;
+    }
+    return saveFile;
+  }
 
-      if (saveFile.exists() && !saveFile.canWrite()) {
-        logger.fatal("No write access to file: " + saveFile);
+  private Action saveAction = new AbstractAction("Save to file") {
+    public void actionPerformed(ActionEvent e) {
+      File saveFile = chooseSaveFile();
+      if (saveFile == null) {
         return;
       }
 
       try {
         PrintWriter outStream = new PrintWriter(new FileWriter(saveFile));
-        for(int i=0; i < connections.size(); i++) {
+        for(int i=0; i < rowCount; i++) {
           outStream.print("" + dataTable.getValueAt(i, COLUMN_TIME) + '\t');
           outStream.print("" + dataTable.getValueAt(i, COLUMN_FROM) + '\t');
-          outStream.print("" + getDestString(connections.get(i)) + '\t');
+          outStream.print("" + getDestString(getConnection(i)) + '\t');
           outStream.print("" + dataTable.getValueAt(i, COLUMN_DATA) + '\n');
         }
         outStream.close();
@@ -532,6 +634,33 @@ public class RadioLogger extends VisPlugin {
     }
   };
 
+  private Action saveCaptureAction = new AbstractAction("Save binary capture") {
+    public void actionPerformed(ActionEvent e) {
+      if (capture == null) {
+        return;
+      }
+      File saveFile = chooseSaveFile();
+      if (saveFile == null) {
+        return;
+      }
+
+      try {
+        capture.flush();
+        InputStream in = new FileInputStream(capture.getFile());
+        OutputStream out = new FileOutputStream(saveFile);
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+          out.write(buffer, 0, read);
+        }
+        in.close();
+        out.close();
+      } catch (IOException ex) {
+        logger.fatal("Could not write to file: " + saveFile);
+      }
+    }
+  };
+
   private Action timeLineAction = new AbstractAction("to Timeline") {
     public void actionPerformed(ActionEvent e) {
       TimeLine plugin = (TimeLine) simulation.getGUI().getStartedPlugin(TimeLine.class.getName());
@@ -542,7 +671,7 @@ public class RadioLogger extends VisPlugin {
 
       int selectedRow = dataTable.getSelectedRow();
       if (selectedRow < 0) return;
-      long time = connections.get(selectedRow).startTime;
+      long time = getConnection(selectedRow).startTime;
       
       /* Select simulation time */
       plugin.trySelectTime(time);
@@ -559,7 +688,7 @@ public class RadioLogger extends VisPlugin {
 
       int selectedRow = dataTable.getSelectedRow();
       if (selectedRow < 0) return;
-      long time = connections.get(selectedRow).startTime;
+      long time = getConnection(selectedRow).startTime;
       
       /* Select simulation time */
       plugin.trySelectTime(time);
@@ -573,15 +702,15 @@ public class RadioLogger extends VisPlugin {
       if (selectedRow < 0) return;
 
       String current = "";
-      if (aliases != null && aliases.get(connections.get(selectedRow).data) != null) {
-        current = (String) aliases.get(connections.get(selectedRow).data);
+      if (aliases != null && aliases.get(getConnection(selectedRow).data) != null) {
+        current = (String) aliases.get(getConnection(selectedRow).data);
       }
 
       String alias = (String) JOptionPane.showInputDialog(
           GUI.getTopParentContainer(), 
           "Enter alias for all packets with identical payload.\n" +
           "An empty string removes the current alias.\n\n" +
-          connections.get(selectedRow).data + "\n",
+          getConnection(selectedRow).data + "\n",
           "Create packet payload alias",
           JOptionPane.QUESTION_MESSAGE,
           null,
@@ -599,7 +728,7 @@ public class RadioLogger extends VisPlugin {
 
       /* Remove current alias */
       if (alias.equals("")) {
-        aliases.remove(connections.get(selectedRow).data);
+        aliases.remove(getConnection(selectedRow).data);
         
         /* Should be null if empty */
         if (aliases.isEmpty()) {
@@ -610,7 +739,7 @@ public class RadioLogger extends VisPlugin {
       }
 
       /* (Re)define alias */
-      aliases.put(connections.get(selectedRow).data, alias);
+      aliases.put(getConnection(selectedRow).data, alias);
       repaint();
     }
   };
@@ -44,23 +44,34 @@ public class ScriptParser {
   private static final long serialVersionUID = 1L;
   private static Logger logger = Logger.getLogger(ScriptParser.class);
 
+  /* Mote output format: simulation time (ms), mote ID and message */
+  public static final String DEFAULT_LOG_OUTPUT_FORMAT = "%T:%i:%m";
+
   private long timeoutTime = -1;
   private String timeoutCode = null;
 
   private String code = null;
 
+  private String logOutputFormat = null;
+  private String logOutputFilter = null;
+  private boolean hasScriptLogic = true;
+
   public ScriptParser(String code) throws ScriptSyntaxErrorException {
 
     code = fixNewlines(code);
 
-    code = stripMultiLineComments(code);
-
-    code = stripSingleLineComments(code);
+    code = stripComments(code);
 
     code = parseTimeout(code);
 
     code = parseTimeoutWithAction(code);
 
+    code = parseLogOutput(code);
+
+    hasScriptLogic =
+      !code.replaceAll("[\\s;]", "").equals("") ||
+      (timeoutCode != null && !timeoutCode.trim().equals(";"));
+
     code = replaceYieldThenWaitUntils(code);
 
     code = replaceYields(code);
@@ -76,12 +87,45 @@ public class ScriptParser {
     return code;
   }
 
-  private String stripSingleLineComments(String code) {
-    /* TODO Handle strings */
-    Pattern pattern = Pattern.compile("//.*\n");
-    Matcher matcher = pattern.matcher(code);
-    code = matcher.replaceAll("\n");
-    return code;
+  /**
+   * Strips single and multi-line comments. String literals are left
+   * untouched, and newlines inside comments are kept.
+   */
+  private String stripComments(String code) {
+    StringBuilder sb = new StringBuilder(code.length());
+    int i = 0;
+    while (i < code.length()) {
+      char c = code.charAt(i);
+      if (c == '"' || c == '\'') {
+        /* String literal */
+        int end = i+1;
+        while (end < code.length() && code.charAt(end) != c && code.charAt(end) != '\n') {
+          if (code.charAt(end) == '\\') {
+            end++;
+          }
+          end++;
+        }
+        end = Math.min(end+1, code.length());
+        sb.append(code, i, end);
+        i = end;
+      } else if (code.startsWith("//", i)) {
+        int end = code.indexOf('\n', i);
+        i = end < 0 ? code.length() : end;
+      } else if (code.startsWith("/*", i)) {
+        int end = code.indexOf("*/", i+2);
+        end = end < 0 ? code.length() : end+2;
+        for (int j=i; j < end; j++) {
+          if (code.charAt(j) == '\n') {
+            sb.append('\n');
+          }
+        }
+        i = end;
+      } else {
+        sb.append(c);
+        i++;
+      }
+    }
+    return sb.toString();
   }
 
   private String stripFirstComment(String code) {
@@ -95,25 +139,6 @@ public class ScriptParser {
     return code;
   }
 
-  private String stripMultiLineComments(String code) {
-    /* TODO Handle strings */
-    Pattern pattern =
-      Pattern.compile("/\\*([^*]|[\n]|(\\*+([^*/]|[\n])))*\\*+/");
-    Matcher matcher = pattern.matcher(code);
-
-    while (matcher.find()) {
-      String match = matcher.group();
-      int newLines = match.split("\n").length;
-      String replacement = "";
-      for (int i=0; i < newLines; i++) {
-        replacement += "\n";
-      }
-      code = matcher.replaceFirst(replacement);
-      matcher.reset(code);
-    }
-    return code;
-  }
-
   private String parseTimeout(String code) throws ScriptSyntaxErrorException {
     Pattern pattern = Pattern.compile(
         "TIMEOUT\\(" +
@@ -174,6 +199,82 @@ public class ScriptParser {
     return code;
   }
 
+  private String parseLogOutput(String code) throws ScriptSyntaxErrorException {
+    Pattern pattern = Pattern.compile(
+        "LOG_OUTPUT\\(" +
+        "[\\s]*(\"(?:[^\"\\\\]|\\\\.)*\")?" /* format */ +
+        "(?:[\\s]*,[\\s]*(\"(?:[^\"\\\\]|\\\\.)*\"))?" /* filter */ +
+        "[\\s]*\\)"
+    );
+    Matcher matcher = pattern.matcher(code);
+
+    if (!matcher.find()) {
+      return code;
+    }
+
+    logOutputFormat = unquote(matcher.group(1));
+    if (logOutputFormat == null) {
+      logOutputFormat = DEFAULT_LOG_OUTPUT_FORMAT;
+    }
+    logOutputFilter = unquote(matcher.group(2));
+
+    matcher.reset(code);
+    code = matcher.replaceFirst(";");
+
+    matcher.reset(code);
+    if (matcher.find()) {
+      throw new ScriptSyntaxErrorException("Only one log output handler allowed");
+    }
+    return code;
+  }
+
+  /**
+   * Strips quotes and unescapes JavaScript string literal.
+   *
+   * @param str Quoted string literal, or null
+   * @return String value
+   */
+  private static String unquote(String str) {
+    if (str == null) {
+      return null;
+    }
+    str = str.substring(1, str.length()-1);
+    StringBuilder sb = new StringBuilder(str.length());
+    for (int i=0; i < str.length(); i++) {
+      char c = str.charAt(i);
+      if (c != '\\' || i+1 >= str.length()) {
+        sb.append(c);
+        continue;
+      }
+      c = str.charAt(++i);
+      switch (c) {
+      case 'b': sb.append('\b'); break;
+      case 'f': sb.append('\f'); break;
+      case 'n': sb.append('\n'); break;
+      case 'r': sb.append('\r'); break;
+      case 't': sb.append('\t'); break;
+      case 'v': sb.append('\u000b'); break;
+      case '0': sb.append('\0'); break;
+      case 'x':
+      case 'u':
+        int digits = (c == 'x')?2:4;
+        if (i+digits < str.length() &&
+            str.substring(i+1, i+1+digits).matches("[0-9a-fA-F]+")) {
+          sb.append((char) Integer.parseInt(str.substring(i+1, i+1+digits), 16));
+          i += digits;
+        } else {
+          sb.append(c);
+        }
+        break;
+      default:
+        /* \\, \", \' and unknown escapes */
+        sb.append(c);
+        break;
+      }
+    }
+    return sb.toString();
+  }
+
   private String replaceYields(String code) throws ScriptSyntaxErrorException {
     Pattern pattern = Pattern.compile(
         "YIELD\\(\\)"
@@ -274,6 +375,28 @@ public class ScriptParser {
     return timeoutTime;
   }
 
+  /**
+   * @return Log output format, or null if the script has no LOG_OUTPUT()
+   */
+  public String getLogOutputFormat() {
+    return logOutputFormat;
+  }
+
+  /**
+   * @return Log output filter regular expression, or null if all output is logged
+   */
+  public String getLogOutputFilter() {
+    return logOutputFilter;
+  }
+
+  /**
+   * @return False if the script consists of only TIMEOUT() and LOG_OUTPUT(),
+   *         and so need not be executed for each log line
+   */
+  public boolean hasScriptLogic() {
+    return hasScriptLogic;
+  }
+
   public class ScriptSyntaxErrorException extends ScriptException {
     public ScriptSyntaxErrorException(String msg) {
       super(msg);
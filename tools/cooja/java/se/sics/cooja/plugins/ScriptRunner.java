@@ -87,6 +87,7 @@ public class ScriptRunner extends VisPlugin {
       "basic.js", "Various commands",
       "helloworld.js", "Wait for 'Hello, world'",
       "log_all.js", "Just log all printf()'s and timeout",
+      "log_output.js", "Log all printf()'s without per-line script",
       "shell.js", "Basic shell interaction",
       "plugins.js", "Interact with surrounding COOJA plugins",
   };
@@ -95,7 +96,8 @@ public class ScriptRunner extends VisPlugin {
 
   private LogScriptEngine engine = null;
 
-  private static BufferedWriter logWriter = null; /* For non-GUI tests */
+  private BufferedWriter logWriter = null; /* For non-GUI tests */
+  private static final int LOG_WRITER_BUFFER_SIZE = 1024*1024;
 
   private JTextArea scriptTextArea = null;
 
@@ -290,20 +292,22 @@ public class ScriptRunner extends VisPlugin {
         try {
           /* Continously write test output to file */
           if (logWriter == null) {
-            /* Warning: static variable, used by all active test editor plugins */
             //File logFile = new File("COOJA.testlog");
             File logFile;
-	    if (System.getProperty("outputfile")!=null)
+            if (simulation.getGUI().isBatchMode())
+              logFile = simulation.getGUI().getBatchLogFile();
+	    else if (System.getProperty("outputfile")!=null)
 		logFile = new File(System.getProperty("outputfile"));
 	    else
 		logFile = new File("COOJA.testlog");
             if (logFile.exists()) {
               logFile.delete();
             }
-            logWriter = new BufferedWriter(new FileWriter(logFile));
+            logWriter = new BufferedWriter(new FileWriter(logFile), LOG_WRITER_BUFFER_SIZE);
             logWriter.write("Random seed: " + simulation.getRandomSeed() + "\n");
             logWriter.flush();
           }
+          engine.setLogSinkWriter(logWriter);
           engine.setScriptLogObserver(new Observer() {
             public void update(Observable obs, Object obj) {
               try {
@@ -356,6 +360,7 @@ public class ScriptRunner extends VisPlugin {
       /* Deactivate script */
       engine.deactivateScript();
       engine.setScriptLogObserver(null);
+      engine.setLogSinkWriter(null);
       engine = null;
 
       if (logWriter != null) {
@@ -378,6 +383,17 @@ public class ScriptRunner extends VisPlugin {
     }
   }
 
+  /**
+   * @return Test result of active script, or null
+   * @see LogScriptEngine#getTestResult()
+   */
+  public String getTestResult() {
+    if (engine == null) {
+      return null;
+    }
+    return engine.getTestResult();
+  }
+
   private void exportAndRun() {
     /* Save simulation config */
     File configFile = simulation.getGUI().doSaveConfig(true);
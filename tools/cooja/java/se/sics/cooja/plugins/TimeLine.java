@@ -524,7 +524,55 @@ public class TimeLine extends VisPlugin {
     int nrLogs = 0;
     long radioOn = 0;
     long onTimeRX = 0, onTimeTX = 0, onTimeInterfered = 0;
-    
+
+    /**
+     * Adds event to statistics.
+     *
+     * @param ev Event
+     * @param endTime Event end time: next event time, or current time
+     */
+    void add(MoteEvent ev, long endTime) {
+      long diff = endTime - ev.time;
+      if (ev instanceof LEDEvent) {
+        LEDEvent ledEvent = (LEDEvent) ev;
+        if (ledEvent.red) {
+          onTimeRedLED += diff;
+        }
+        if (ledEvent.green) {
+          onTimeGreenLED += diff;
+        }
+        if (ledEvent.blue) {
+          onTimeBlueLED += diff;
+        }
+      } else if (ev instanceof LogEvent) {
+        nrLogs++;
+      } else if (ev instanceof RadioHWEvent) {
+        if (((RadioHWEvent) ev).on) {
+          radioOn += diff;
+        }
+      } else if (ev instanceof RadioRXTXEvent) {
+        RXTXRadioEvent state = ((RadioRXTXEvent) ev).state;
+        if (state == RXTXRadioEvent.TRANSMITTING) {
+          onTimeTX += diff;
+        } else if (state == RXTXRadioEvent.INTERFERED) {
+          onTimeInterfered += diff;
+        } else if (state == RXTXRadioEvent.RECEIVING) {
+          onTimeRX += diff;
+        }
+      }
+    }
+
+    void add(MoteStatistics stats) {
+      onTimeRedLED += stats.onTimeRedLED;
+      onTimeGreenLED += stats.onTimeGreenLED;
+      onTimeBlueLED += stats.onTimeBlueLED;
+      nrLogs += stats.nrLogs;
+      radioOn += stats.radioOn;
+      onTimeRX += stats.onTimeRX;
+      onTimeTX += stats.onTimeTX;
+      onTimeInterfered += stats.onTimeInterfered;
+    }
+
     public String toString() {
       return
       "Mote: " + (mote!=null?mote:"ALL") + "\n" +
@@ -557,89 +605,12 @@ public class TimeLine extends VisPlugin {
       allStats.add(stats);
       stats.mote = moteEvents.mote;
       
-      for (MoteEvent ev: moteEvents.ledEvents) {
-        if (!(ev instanceof LEDEvent)) continue;
-        LEDEvent ledEvent = (LEDEvent) ev;
-
-        /* Red */
-        if (ledEvent.red) {
-          /* LED is on, add time interval */
-          if (ledEvent.next == null) {
-            stats.onTimeRedLED += (simulation.getSimulationTime() - ledEvent.time);
-          } else {
-            stats.onTimeRedLED += (ledEvent.next.time - ledEvent.time);
-          }
-        }
-
-        /* Green */
-        if (ledEvent.green) {
-          /* LED is on, add time interval */
-          if (ledEvent.next == null) {
-            stats.onTimeGreenLED += (simulation.getSimulationTime() - ledEvent.time);
-          } else {
-            stats.onTimeGreenLED += (ledEvent.next.time - ledEvent.time);
-          }
-        }
-        
-        /* Blue */
-        if (ledEvent.blue) {
-          /* LED is on, add time interval */
-          if (ledEvent.next == null) {
-            stats.onTimeBlueLED += (simulation.getSimulationTime() - ledEvent.time);
-          } else {
-            stats.onTimeBlueLED += (ledEvent.next.time - ledEvent.time);
-          }
-        }
-      }
-
-      for (MoteEvent ev: moteEvents.logEvents) {
-        if (!(ev instanceof LogEvent)) continue;
-        stats.nrLogs++;
-      }
-      
+      moteEvents.ledEvents.addStatistics(stats);
+      moteEvents.logEvents.addStatistics(stats);
       /* TODO Radio channels */
+      moteEvents.radioHWEvents.addStatistics(stats);
+      moteEvents.radioRXTXEvents.addStatistics(stats);
 
-      for (MoteEvent ev: moteEvents.radioHWEvents) {
-        if (!(ev instanceof RadioHWEvent)) continue;
-        RadioHWEvent hwEvent = (RadioHWEvent) ev;
-        if (hwEvent.on) {
-          /* HW is on */
-          if (hwEvent.next == null) {
-            stats.radioOn += (simulation.getSimulationTime() - hwEvent.time);
-          } else {
-            stats.radioOn += (hwEvent.next.time - hwEvent.time);
-          }
-        }
-      }
-      
-      for (MoteEvent ev: moteEvents.radioRXTXEvents) {
-        if (!(ev instanceof RadioRXTXEvent)) continue;
-        RadioRXTXEvent rxtxEvent = (RadioRXTXEvent) ev;
-        if (rxtxEvent.state == RXTXRadioEvent.IDLE) {
-          continue;
-        }
-
-        long diff;
-        if (rxtxEvent.next == null) {
-          diff = (simulation.getSimulationTime() - rxtxEvent.time);
-        } else {
-          diff = (rxtxEvent.next.time - rxtxEvent.time);
-        }
-
-        if (rxtxEvent.state == RXTXRadioEvent.TRANSMITTING) {
-          stats.onTimeTX += diff;
-          continue;
-        }
-        if (rxtxEvent.state == RXTXRadioEvent.INTERFERED) {
-          stats.onTimeInterfered += diff;
-          continue;
-        }
-        if (rxtxEvent.state == RXTXRadioEvent.RECEIVING) {
-          stats.onTimeRX += diff;
-          continue;
-        }
-      }
-      
       /* TODO Watchpoints */
 
       output.append(stats.toString());
@@ -1223,44 +1194,50 @@ public class TimeLine extends VisPlugin {
         dark = !dark;
 
         if (showRadioRXTX) {
-          MoteEvent firstEvent = getFirstIntervalEvent(allMoteEvents.get(mIndex).radioRXTXEvents, intervalStart);
+          MoteEventList events = allMoteEvents.get(mIndex).radioRXTXEvents;
+          MoteEvent firstEvent = events.getFirstIntervalEvent(intervalStart);
           if (firstEvent != null) {
-            firstEvent.paintInterval(g, lineHeightOffset, intervalEnd);
+            firstEvent.paintInterval(events, g, lineHeightOffset, intervalEnd);
           }
           lineHeightOffset += EVENT_PIXEL_HEIGHT;
         }
         if (showRadioChannels) {
-          MoteEvent firstEvent = getFirstIntervalEvent(allMoteEvents.get(mIndex).radioChannelEvents, intervalStart);
+          MoteEventList events = allMoteEvents.get(mIndex).radioChannelEvents;
+          MoteEvent firstEvent = events.getFirstIntervalEvent(intervalStart);
           if (firstEvent != null) {
-            firstEvent.paintInterval(g, lineHeightOffset, intervalEnd);
+            firstEvent.paintInterval(events, g, lineHeightOffset, intervalEnd);
           }
           lineHeightOffset += EVENT_PIXEL_HEIGHT;
         }
         if (showRadioHW) {
-          MoteEvent firstEvent = getFirstIntervalEvent(allMoteEvents.get(mIndex).radioHWEvents, intervalStart);
+          MoteEventList events = allMoteEvents.get(mIndex).radioHWEvents;
+          MoteEvent firstEvent = events.getFirstIntervalEvent(intervalStart);
           if (firstEvent != null) {
-            firstEvent.paintInterval(g, lineHeightOffset, intervalEnd);
+            firstEvent.paintInterval(events, g, lineHeightOffset, intervalEnd);
           }
           lineHeightOffset += EVENT_PIXEL_HEIGHT;
         }
         if (showLEDs) {
-          MoteEvent firstEvent = getFirstIntervalEvent(allMoteEvents.get(mIndex).ledEvents, intervalStart);
+          MoteEventList events = allMoteEvents.get(mIndex).ledEvents;
+          MoteEvent firstEvent = events.getFirstIntervalEvent(intervalStart);
           if (firstEvent != null) {
-            firstEvent.paintInterval(g, lineHeightOffset, intervalEnd);
+            firstEvent.paintInterval(events, g, lineHeightOffset, intervalEnd);
           }
           lineHeightOffset += 3*LED_PIXEL_HEIGHT;
         }
         if (showLogOutputs) {
-          MoteEvent firstEvent = getFirstIntervalEvent(allMoteEvents.get(mIndex).logEvents, intervalStart);
+          MoteEventList events = allMoteEvents.get(mIndex).logEvents;
+          MoteEvent firstEvent = events.getFirstIntervalEvent(intervalStart);
           if (firstEvent != null) {
-            firstEvent.paintInterval(g, lineHeightOffset, intervalEnd);
+            firstEvent.paintInterval(events, g, lineHeightOffset, intervalEnd);
           }
           lineHeightOffset += EVENT_PIXEL_HEIGHT;
         }
         if (showWatchpoints) {
-          MoteEvent firstEvent = getFirstIntervalEvent(allMoteEvents.get(mIndex).watchpointEvents, intervalStart);
+          MoteEventList events = allMoteEvents.get(mIndex).watchpointEvents;
+          MoteEvent firstEvent = events.getFirstIntervalEvent(intervalStart);
           if (firstEvent != null) {
-            firstEvent.paintInterval(g, lineHeightOffset, intervalEnd);
+            firstEvent.paintInterval(events, g, lineHeightOffset, intervalEnd);
           }
           lineHeightOffset += EVENT_PIXEL_HEIGHT;
         }
@@ -1272,31 +1249,6 @@ public class TimeLine extends VisPlugin {
       drawMouseTime(g, intervalStart, intervalEnd);
     }
 
-    private <T extends MoteEvent> T getFirstIntervalEvent(ArrayList<T> events, long time) {
-      /* TODO IMPLEMENT ME: Binary search */
-      int nrEvents = events.size();
-      if (nrEvents == 0) {
-        return null;
-      }
-      if (nrEvents == 1) {
-        events.get(0);
-      }
-
-      int ev = 0;
-      while (ev < nrEvents && events.get(ev).time < time) {
-        ev++;
-      }
-      ev--;
-      if (ev < 0) {
-        ev = 0;
-      }
-
-      if (ev >= events.size()) {
-        return events.get(events.size()-1);
-      }
-      return events.get(ev);
-    }
-
     private void drawTimeRule(Graphics g, long start, long end) {
       long time;
 
@@ -1372,7 +1324,7 @@ public class TimeLine extends VisPlugin {
       tooltip += "Time (ms): " + (double)(time/Simulation.MILLISECOND) + "<br>";
 
       /* Event */
-      ArrayList<? extends MoteEvent> events = null;
+      MoteEventList events = null;
       int evMatched = 0;
       int evMouse = ((event.getPoint().y-FIRST_MOTE_PIXEL_OFFSET) % paintedMoteHeight) / EVENT_PIXEL_HEIGHT;
       if (showRadioRXTX) {
@@ -1412,7 +1364,7 @@ public class TimeLine extends VisPlugin {
         evMatched++;
       }
       if (events != null) {
-        MoteEvent ev = getFirstIntervalEvent(events, time);
+        MoteEvent ev = events.getFirstIntervalEvent(time);
         if (ev != null && time >= ev.time) {
           tooltip += ev + "<br>";
         }
@@ -1498,17 +1450,52 @@ public class TimeLine extends VisPlugin {
      * Used by the default paint method to color events.
      * The event is not painted if the returned color is null.
      * 
-     * @see #paintInterval(Graphics, int, long)
+     * @see #paintInterval(MoteEventList, Graphics, int, long)
      * @return Event color or null 
      */
     public abstract Color getEventColor();
 
+    /**
+     * Returns the last event starting in the same pixel as this event.
+     * Events in between are collapsed when painting, so that painting
+     * cost depends on the number of visible pixels, not on the number
+     * of events.
+     *
+     * @param events Event list containing this event
+     * @return Last event in pixel, may be this event
+     */
+    MoteEvent getLastEventInPixel(MoteEventList events) {
+      long pixelEnd = (time/currentPixelDivisor + 1)*currentPixelDivisor;
+      if (next == null || next.time >= pixelEnd) {
+        return this;
+      }
+      MoteEvent last = events.getLastEventBefore(pixelEnd);
+      if (last == null || last.time < time) {
+        return this;
+      }
+      return last;
+    }
+
     /* Default paint method */
-    public void paintInterval(Graphics g, int lineHeightOffset, long end) {
+    public void paintInterval(MoteEventList events, Graphics g, int lineHeightOffset, long end) {
       MoteEvent ev = this;
       while (ev != null && ev.time < end) {
         int w; /* Pixel width */
 
+        /* Collapse events sharing a pixel */
+        MoteEvent last = ev.getLastEventInPixel(events);
+        if (last != ev) {
+          Color color = ev.getEventColor();
+          if (PAINT_ZERO_WIDTH_EVENTS && color != null) {
+            g.setColor(color);
+            g.fillRect(
+                (int)(ev.time/currentPixelDivisor), lineHeightOffset, 
+                1, EVENT_PIXEL_HEIGHT
+            );
+          }
+          ev = last;
+        }
+
         /* Calculate event width */
         if (ev.next != null) {
           w = (int) ((ev.next.time - ev.time)/currentPixelDivisor);
@@ -1634,11 +1621,21 @@ public class TimeLine extends VisPlugin {
       }
     }
     /* LEDs are painted in three lines */
-    public void paintInterval(Graphics g, int lineHeightOffset, long end) {
+    public void paintInterval(MoteEventList events, Graphics g, int lineHeightOffset, long end) {
       MoteEvent ev = this;
       while (ev != null && ev.time < end) {
         int w; /* Pixel width */
 
+        /* Collapse events sharing a pixel */
+        MoteEvent last = ev.getLastEventInPixel(events);
+        if (last != ev) {
+          Color color = ev.getEventColor();
+          if (PAINT_ZERO_WIDTH_EVENTS && color != null) {
+            paintLEDs(g, color, (int)(ev.time/currentPixelDivisor), lineHeightOffset, 1);
+          }
+          ev = last;
+        }
+
         /* Calculate event width */
         if (ev.next != null) {
           w = (int) ((ev.next.time - ev.time)/currentPixelDivisor);
@@ -1662,30 +1659,33 @@ public class TimeLine extends VisPlugin {
           ev = ev.next;
           continue;
         }
-        if (color.getRed() > 0) {
-          g.setColor(new Color(color.getRed(), 0, 0));
-          g.fillRect(
-              (int)(ev.time/currentPixelDivisor), lineHeightOffset, 
-              w, LED_PIXEL_HEIGHT
-          );
-        }
-        if (color.getGreen() > 0) {
-          g.setColor(new Color(0, color.getGreen(), 0));
-          g.fillRect(
-              (int)(ev.time/currentPixelDivisor), lineHeightOffset+LED_PIXEL_HEIGHT, 
-              w, LED_PIXEL_HEIGHT
-          );
-        }
-        if (color.getBlue() > 0) {
-          g.setColor(new Color(0, 0, color.getBlue()));
-          g.fillRect(
-              (int)(ev.time/currentPixelDivisor), lineHeightOffset+2*LED_PIXEL_HEIGHT, 
-              w, LED_PIXEL_HEIGHT
-          );
-        }
+        paintLEDs(g, color, (int)(ev.time/currentPixelDivisor), lineHeightOffset, w);
         ev = ev.next;
       }
     }
+    private void paintLEDs(Graphics g, Color color, int x, int lineHeightOffset, int w) {
+      if (color.getRed() > 0) {
+        g.setColor(new Color(color.getRed(), 0, 0));
+        g.fillRect(
+            x, lineHeightOffset, 
+            w, LED_PIXEL_HEIGHT
+        );
+      }
+      if (color.getGreen() > 0) {
+        g.setColor(new Color(0, color.getGreen(), 0));
+        g.fillRect(
+            x, lineHeightOffset+LED_PIXEL_HEIGHT, 
+            w, LED_PIXEL_HEIGHT
+        );
+      }
+      if (color.getBlue() > 0) {
+        g.setColor(new Color(0, 0, color.getBlue()));
+        g.fillRect(
+            x, lineHeightOffset+2*LED_PIXEL_HEIGHT, 
+            w, LED_PIXEL_HEIGHT
+        );
+      }
+    }
     public String toString() {
       return 
       "LED state:<br>" +
@@ -1724,11 +1724,14 @@ public class TimeLine extends VisPlugin {
     }
 
     /* Default paint method */
-    public void paintInterval(Graphics g, int lineHeightOffset, long end) {
+    public void paintInterval(MoteEventList events, Graphics g, int lineHeightOffset, long end) {
       MoteEvent ev = this;
       while (ev != null && ev.time < end) {
         int w = 2; /* Watchpoints are always two pixels wide */
 
+        /* Only the last watchpoint in each pixel is painted */
+        ev = ev.getLastEventInPixel(events);
+
         Color color = ev.getEventColor();
         if (color == null) {
           /* Skip painting event */
@@ -1746,108 +1749,161 @@ public class TimeLine extends VisPlugin {
       }
     }
   }
+  /**
+   * Time-sorted list of linked mote events.
+   *
+   * Events are found by binary search on their times. To bound memory
+   * usage, the oldest events are discarded when the list grows beyond
+   * {@link #MAX_EVENTS}, and replaced by a single no history event.
+   */
+  class MoteEventList extends ArrayList<MoteEvent> {
+    private static final long serialVersionUID = 1L;
+
+    private static final int MAX_EVENTS = 50000;
+    private static final int DISCARD_EVENTS = MAX_EVENTS/4;
+
+    /**
+     * Appends event and links it with the previous event.
+     * 
+     * @param ev New event, not earlier than previous events
+     */
+    public synchronized void addEvent(MoteEvent ev) {
+      /* Link with previous event */
+      if (!isEmpty()) {
+        MoteEvent last = get(size()-1);
+        ev.prev = last;
+        last.next = ev;
+      }
+      add(ev);
+
+      if (size() > MAX_EVENTS) {
+        discardOldEvents();
+      }
+    }
+
+    /* Statistics of discarded events */
+    private MoteStatistics discarded = null;
+
+    private void discardOldEvents() {
+      if (discarded == null) {
+        discarded = new MoteStatistics();
+      }
+      for (int i=0; i < DISCARD_EVENTS; i++) {
+        MoteEvent ev = get(i);
+        discarded.add(ev, ev.next.time);
+      }
+      removeRange(0, DISCARD_EVENTS);
+
+      MoteEvent first = get(0);
+      MoteEvent noHistory = new NoHistoryEvent(0);
+      noHistory.next = first;
+      first.prev = noHistory;
+      add(0, noHistory);
+    }
+
+    /**
+     * Adds statistics of all events, including discarded events.
+     *
+     * @param stats Statistics
+     */
+    public synchronized void addStatistics(MoteStatistics stats) {
+      if (discarded != null) {
+        stats.add(discarded);
+      }
+      for (MoteEvent ev: this) {
+        stats.add(ev, ev.next == null ? simulation.getSimulationTime() : ev.next.time);
+      }
+    }
+
+    /* Returns index of last event before given time, or -1 */
+    private int indexBefore(long time) {
+      int low = 0;
+      int high = size()-1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        if (get(mid).time < time) {
+          low = mid + 1;
+        } else {
+          high = mid - 1;
+        }
+      }
+      return high;
+    }
+
+    /**
+     * @param time Time
+     * @return Last event before given time, or null
+     */
+    public synchronized MoteEvent getLastEventBefore(long time) {
+      int index = indexBefore(time);
+      if (index < 0) {
+        return null;
+      }
+      return get(index);
+    }
+
+    /**
+     * @param time Interval start time
+     * @return Last event before given time, or first event. Null if empty
+     */
+    public synchronized MoteEvent getFirstIntervalEvent(long time) {
+      if (isEmpty()) {
+        return null;
+      }
+      int index = indexBefore(time);
+      if (index < 0) {
+        index = 0;
+      }
+      return get(index);
+    }
+  }
   class MoteEvents {
     Mote mote;
-    ArrayList<MoteEvent> radioRXTXEvents;
-    ArrayList<MoteEvent> radioChannelEvents;
-    ArrayList<MoteEvent> radioHWEvents;
-    ArrayList<MoteEvent> ledEvents; 
-    ArrayList<MoteEvent> logEvents;
-    ArrayList<MoteEvent> watchpointEvents;
-
-    private MoteEvent lastRadioRXTXEvent = null;
-    private MoteEvent lastRadioChannelEvent = null;
-    private MoteEvent lastRadioHWEvent = null;
-    private MoteEvent lastLEDEvent = null;
-    private MoteEvent lastLogEvent = null;
-    private MoteEvent lastWatchpointEvent = null;
+    MoteEventList radioRXTXEvents;
+    MoteEventList radioChannelEvents;
+    MoteEventList radioHWEvents;
+    MoteEventList ledEvents; 
+    MoteEventList logEvents;
+    MoteEventList watchpointEvents;
 
     public MoteEvents(Mote mote) {
       this.mote = mote;
-      this.radioRXTXEvents = new ArrayList<MoteEvent>();
-      this.radioChannelEvents = new ArrayList<MoteEvent>();
-      this.radioHWEvents = new ArrayList<MoteEvent>();
-      this.ledEvents = new ArrayList<MoteEvent>();
-      this.logEvents = new ArrayList<MoteEvent>();
-      this.watchpointEvents = new ArrayList<MoteEvent>();
+      this.radioRXTXEvents = new MoteEventList();
+      this.radioChannelEvents = new MoteEventList();
+      this.radioHWEvents = new MoteEventList();
+      this.ledEvents = new MoteEventList();
+      this.logEvents = new MoteEventList();
+      this.watchpointEvents = new MoteEventList();
 
       if (mote.getSimulation().getSimulationTime() > 0) {
         /* Create no history events */
-        lastRadioRXTXEvent = new NoHistoryEvent(0);
-        lastRadioChannelEvent = new NoHistoryEvent(0);
-        lastRadioHWEvent = new NoHistoryEvent(0);
-        lastLEDEvent = new NoHistoryEvent(0);
-        lastLogEvent = new NoHistoryEvent(0);
-        lastWatchpointEvent = new NoHistoryEvent(0);
-        radioRXTXEvents.add(lastRadioRXTXEvent);
-        radioChannelEvents.add(lastRadioChannelEvent);
-        radioHWEvents.add(lastRadioHWEvent);
-        ledEvents.add(lastLEDEvent);
-        logEvents.add(lastLogEvent);
-        watchpointEvents.add(lastWatchpointEvent);
+        radioRXTXEvents.addEvent(new NoHistoryEvent(0));
+        radioChannelEvents.addEvent(new NoHistoryEvent(0));
+        radioHWEvents.addEvent(new NoHistoryEvent(0));
+        ledEvents.addEvent(new NoHistoryEvent(0));
+        logEvents.addEvent(new NoHistoryEvent(0));
+        watchpointEvents.addEvent(new NoHistoryEvent(0));
       }
     }
 
     public void addRadioRXTX(RadioRXTXEvent ev) {
-      /* Link with previous events */
-      if (lastRadioRXTXEvent != null) {
-        ev.prev = lastRadioRXTXEvent;
-        lastRadioRXTXEvent.next = ev;
-      }
-      lastRadioRXTXEvent = ev;
-
-      radioRXTXEvents.add(ev);
+      radioRXTXEvents.addEvent(ev);
     }
     public void addRadioChannel(RadioChannelEvent ev) {
-      /* Link with previous events */
-      if (lastRadioChannelEvent != null) {
-        ev.prev = lastRadioChannelEvent;
-        lastRadioChannelEvent.next = ev;
-      }
-      lastRadioChannelEvent = ev;
-
       /* TODO XXX Requires MSPSim changes */
-      radioChannelEvents.add(ev);
+      radioChannelEvents.addEvent(ev);
     }
     public void addRadioHW(RadioHWEvent ev) {
-      /* Link with previous events */
-      if (lastRadioHWEvent != null) {
-        ev.prev = lastRadioHWEvent;
-        lastRadioHWEvent.next = ev;
-      }
-      lastRadioHWEvent = ev;
-
-      radioHWEvents.add(ev);
+      radioHWEvents.addEvent(ev);
     }
     public void addLED(LEDEvent ev) {
-      /* Link with previous events */
-      if (lastLEDEvent != null) {
-        ev.prev = lastLEDEvent;
-        lastLEDEvent.next = ev;
-      }
-      lastLEDEvent = ev;
-
-      ledEvents.add(ev);
+      ledEvents.addEvent(ev);
     }
     public void addLog(LogEvent ev) {
-      /* Link with previous events */
-      if (lastLogEvent != null) {
-        ev.prev = lastLogEvent;
-        lastLogEvent.next = ev;
-      }
-      lastLogEvent = ev;
-
-      logEvents.add(ev);
+      logEvents.addEvent(ev);
     }
     public void addWatchpoint(WatchpointEvent ev) {
-      /* Link with previous events */
-      if (lastWatchpointEvent != null) {
-        ev.prev = lastWatchpointEvent;
-        lastWatchpointEvent.next = ev;
-      }
-      lastWatchpointEvent = ev;
-
-      watchpointEvents.add(ev);
+      watchpointEvents.addEvent(ev);
     }
   }
 
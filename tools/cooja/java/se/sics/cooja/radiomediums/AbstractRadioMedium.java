@@ -31,7 +31,9 @@
 
 package se.sics.cooja.radiomediums;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Observable;
 import java.util.Observer;
 
@@ -45,6 +47,7 @@ import se.sics.cooja.Simulation;
 import se.sics.cooja.TimeEvent;
 import se.sics.cooja.interfaces.CustomDataRadio;
 import se.sics.cooja.interfaces.Radio;
+import se.sics.cooja.util.ArrayUtils;
 
 /**
  * Abstract radio medium provides basic functionality for implementing radio
@@ -55,6 +58,8 @@ import se.sics.cooja.interfaces.Radio;
  * The registered radios' signal strengths are updated whenever the radio medium
  * changes. There are three fixed levels: no surrounding traffic heard, noise
  * heard and data heard.
+ * Only the signal strengths of radios affected by a change are updated, see
+ * {@link #updateSignalStrength(Radio)}.
  *
  * It handles radio registrations, radio loggers, active connections and
  * observes all registered radio interfaces.
@@ -71,11 +76,29 @@ public abstract class AbstractRadioMedium extends RadioMedium {
   public static final double SS_WEAK = -95;
 
   private ArrayList<Radio> registeredRadios = new ArrayList<Radio>();
+  private Radio[] registeredRadiosArray = null; /* Snapshot, null when outdated */
 
   private ArrayList<RadioConnection> activeConnections = new ArrayList<RadioConnection>();
 
+  /* Active connections of each radio, in activation order */
+  private HashMap<Radio, RadioConnection[]> radioConnections = new HashMap<Radio, RadioConnection[]>();
+  private static final RadioConnection[] NO_CONNECTIONS = new RadioConnection[0];
+
+  /* Radio mediums overriding updateSignalStrengths() are always updated in full */
+  private final boolean incrementalSignalStrengths;
+  private final ArrayList<Radio> outdatedRadios = new ArrayList<Radio>(); /* Guarded by itself */
+
   private RadioConnection lastConnection = null;
 
+  /* Finished connections, reused by new transmissions. Connections are only
+   * reused as long as no one may keep references to them: radio medium
+   * observers, or anyone having retrieved the last connection or the active
+   * connections outside the simulation thread, e.g. visualizers. */
+  private static final int CONNECTION_POOL_SIZE = 64;
+  private ArrayDeque<RadioConnection> connectionPool = new ArrayDeque<RadioConnection>();
+  private volatile boolean connectionsRetrieved = false;
+  private RadioConnection finishedConnection = null;
+
   private Simulation simulation = null;
 
   /* Book-keeping */
@@ -102,19 +125,67 @@ public abstract class AbstractRadioMedium extends RadioMedium {
    */
   public AbstractRadioMedium(Simulation simulation) {
     this.simulation = simulation;
+
+    boolean incremental = false;
+    try {
+      incremental =
+        getClass().getMethod("updateSignalStrengths").getDeclaringClass() == AbstractRadioMedium.class;
+    } catch (NoSuchMethodException e) {
+    }
+    incrementalSignalStrengths = incremental;
+  }
+
+  /**
+   * Returns a connection from given radio, with no destinations.
+   * Finished connections are reused when possible, and should hence be
+   * preferred over creating new connections in {@link #createConnections(Radio)}.
+   *
+   * @param source Source radio
+   * @return Connection
+   */
+  protected RadioConnection newConnection(Radio source) {
+    if (connectionsRetrieved) {
+      connectionPool.clear();
+      finishedConnection = null;
+    }
+    RadioConnection conn = connectionPool.poll();
+    if (conn == null) {
+      return new RadioConnection(source);
+    }
+    conn.reset(source);
+    return conn;
+  }
+
+  private void recycleConnection(RadioConnection connection) {
+    if (connection == null ||
+        connection.getClass() != RadioConnection.class ||
+        connectionPool.size() >= CONNECTION_POOL_SIZE) {
+      return;
+    }
+    connectionPool.add(connection);
   }
 
   /**
-   * @return All registered radios
+   * @return All registered radios. The returned array must not be modified.
    */
   public Radio[] getRegisteredRadios() {
-    return registeredRadios.toArray(new Radio[0]);
+    Radio[] radios = registeredRadiosArray;
+    if (radios == null) {
+      radios = registeredRadios.toArray(new Radio[registeredRadios.size()]);
+      registeredRadiosArray = radios;
+    }
+    return radios;
   }
 
   /**
    * @return All active connections
    */
   public RadioConnection[] getActiveConnections() {
+    if (!simulation.isSimulationThread()) {
+      /* Caller may keep the connections: stop reusing connections */
+      stopReusingConnections();
+    }
+
     /* NOTE: toArray([0]) creates array and handles synchronization */
     return activeConnections.toArray(new RadioConnection[0]);
   }
@@ -129,43 +200,187 @@ public abstract class AbstractRadioMedium extends RadioMedium {
    */
   abstract public RadioConnection createConnections(Radio radio);
 
+  /**
+   * @param radio Radio
+   * @return Active connections in which the radio is source, destination or
+   * interfered, in activation order. The returned array must not be modified.
+   */
+  protected RadioConnection[] getActiveConnections(Radio radio) {
+    RadioConnection[] conns = radioConnections.get(radio);
+    if (conns == null) {
+      return NO_CONNECTIONS;
+    }
+    return conns;
+  }
+
   /**
    * Updates all radio interfaces' signal strengths according to
    * the current active connections.
+   *
+   * Radio mediums that override this method, instead of
+   * {@link #updateSignalStrength(Radio)}, are always updated in full.
    */
   public void updateSignalStrengths() {
-
-    /* Reset signal strengths */
-    for (Radio radio : getRegisteredRadios()) {
-      radio.setCurrentSignalStrength(SS_NOTHING);
+    synchronized (outdatedRadios) {
+      outdatedRadios.clear();
     }
+    for (int i=0; i < registeredRadios.size(); i++) {
+      updateSignalStrength(registeredRadios.get(i));
+    }
+  }
+
+  /**
+   * Updates the signal strength of a single radio according to the active
+   * connections it is part of.
+   *
+   * @see #getActiveConnections(Radio)
+   * @param radio Radio
+   */
+  protected void updateSignalStrength(Radio radio) {
+    radio.setCurrentSignalStrength(SS_NOTHING);
+    RadioConnection[] conns = getActiveConnections(radio);
 
     /* Set signal strength to strong on destinations */
-    RadioConnection[] conns = getActiveConnections();
     for (RadioConnection conn : conns) {
-      if (conn.getSource().getCurrentSignalStrength() < SS_STRONG) {
-        conn.getSource().setCurrentSignalStrength(SS_STRONG);
-      }
-      for (Radio dstRadio : conn.getDestinations()) {
+      if (conn.getSource() == radio) {
+        if (radio.getCurrentSignalStrength() < SS_STRONG) {
+          radio.setCurrentSignalStrength(SS_STRONG);
+        }
+      } else if (conn.isDestination(radio)) {
         if (conn.getSource().getCurrentSignalStrength() < SS_STRONG) {
-          dstRadio.setCurrentSignalStrength(SS_STRONG);
+          radio.setCurrentSignalStrength(SS_STRONG);
         }
       }
     }
 
     /* Set signal strength to weak on interfered */
     for (RadioConnection conn : conns) {
-      for (Radio intfRadio : conn.getInterfered()) {
-        if (intfRadio.getCurrentSignalStrength() < SS_WEAK) {
-          intfRadio.setCurrentSignalStrength(SS_WEAK);
+      if (!conn.isInterfered(radio)) {
+        continue;
+      }
+      if (radio.getCurrentSignalStrength() < SS_WEAK) {
+        radio.setCurrentSignalStrength(SS_WEAK);
+      }
+
+      if (!radio.isInterfered()) {
+        /*logger.warn("Radio was not interfered");*/
+        radio.interfereAnyReception();
+      }
+    }
+  }
+
+  /**
+   * Signals that the signal strengths of given radio, and of the radios it
+   * is transmitting to, must be recalculated. For example when the radio moves.
+   * They are updated at the next radio medium change.
+   *
+   * May be called from any thread.
+   *
+   * @param radio Radio
+   */
+  protected void invalidateSignalStrengths(Radio radio) {
+    synchronized (outdatedRadios) {
+      if (!outdatedRadios.contains(radio)) {
+        outdatedRadios.add(radio);
+      }
+    }
+  }
+
+  /**
+   * Updates the signal strengths of all radios affected by a radio medium
+   * change: the given radio, all radios of the given connection, and
+   * all outdated radios.
+   *
+   * @param radio Radio, or null
+   * @param connection Connection, or null
+   */
+  private void updateSignalStrengths(Radio radio, RadioConnection connection) {
+    if (!incrementalSignalStrengths) {
+      updateSignalStrengths();
+      return;
+    }
+
+    Radio[] outdated = null;
+    synchronized (outdatedRadios) {
+      if (!outdatedRadios.isEmpty()) {
+        outdated = outdatedRadios.toArray(new Radio[0]);
+        outdatedRadios.clear();
+      }
+    }
+    if (outdated != null) {
+      for (Radio r: outdated) {
+        if (!registeredRadios.contains(r)) {
+          continue;
         }
-        
-        if (!intfRadio.isInterfered()) {
-          /*logger.warn("Radio was not interfered");*/
-          intfRadio.interfereAnyReception();
+        updateSignalStrength(r);
+        RadioConnection conn = getActiveConnectionFrom(r);
+        if (conn != null) {
+          updateSignalStrengths(conn);
         }
       }
     }
+
+    if (radio != null) {
+      updateSignalStrength(radio);
+    }
+    if (connection != null) {
+      updateSignalStrength(connection.getSource());
+      updateSignalStrengths(connection);
+    }
+  }
+
+  private void updateSignalStrengths(RadioConnection connection) {
+    for (int i=0; i < connection.getAllDestinationsCount(); i++) {
+      updateSignalStrength(connection.getDestination(i));
+    }
+    for (int i=0; i < connection.getInterferedNonDestinationsCount(); i++) {
+      updateSignalStrength(connection.getInterferedNonDestination(i));
+    }
+  }
+
+  private void addActiveConnection(RadioConnection connection) {
+    activeConnections.add(connection);
+    addRadioConnection(connection.getSource(), connection);
+    for (int i=0; i < connection.getAllDestinationsCount(); i++) {
+      addRadioConnection(connection.getDestination(i), connection);
+    }
+    for (int i=0; i < connection.getInterferedCount(); i++) {
+      addRadioConnection(connection.getInterfered(i), connection);
+    }
+  }
+
+  private void removeActiveConnection(RadioConnection connection) {
+    activeConnections.remove(connection);
+    removeRadioConnection(connection.getSource(), connection);
+    for (int i=0; i < connection.getAllDestinationsCount(); i++) {
+      removeRadioConnection(connection.getDestination(i), connection);
+    }
+    for (int i=0; i < connection.getInterferedCount(); i++) {
+      removeRadioConnection(connection.getInterfered(i), connection);
+    }
+  }
+
+  private void addRadioConnection(Radio radio, RadioConnection connection) {
+    RadioConnection[] conns = radioConnections.get(radio);
+    if (conns == null) {
+      radioConnections.put(radio, new RadioConnection[] { connection });
+    } else if (conns[conns.length-1] != connection) {
+      /* Radio may be both destination and interfered */
+      radioConnections.put(radio, ArrayUtils.add(conns, connection));
+    }
+  }
+
+  private void removeRadioConnection(Radio radio, RadioConnection connection) {
+    RadioConnection[] conns = radioConnections.get(radio);
+    if (conns == null) {
+      return;
+    }
+    conns = ArrayUtils.remove(conns, connection);
+    if (conns.length == 0) {
+      radioConnections.remove(radio);
+    } else {
+      radioConnections.put(radio, conns);
+    }
   }
 
 
@@ -226,7 +441,7 @@ public abstract class AbstractRadioMedium extends RadioMedium {
       if (event == Radio.RadioEvent.HW_ON) {
 
         /* Update signal strengths */
-        updateSignalStrengths();
+        updateSignalStrengths(radio, null);
 
       } else if (event == Radio.RadioEvent.HW_OFF) {
 
@@ -234,7 +449,7 @@ public abstract class AbstractRadioMedium extends RadioMedium {
         removeFromActiveConnections(radio);
 
         /* Update signal strengths */
-        updateSignalStrengths();
+        updateSignalStrengths(radio, null);
 
       } else if (event == Radio.RadioEvent.TRANSMISSION_STARTED) {
         /* Create new radio connection */
@@ -251,9 +466,10 @@ public abstract class AbstractRadioMedium extends RadioMedium {
         }
         
         RadioConnection newConnection = createConnections(radio);
-        activeConnections.add(newConnection);
-        for (Radio r: newConnection.getAllDestinations()) {
-          if (newConnection.getDestinationDelay(r) == 0) {
+        addActiveConnection(newConnection);
+        for (int i=0; i < newConnection.getAllDestinationsCount(); i++) {
+          Radio r = newConnection.getDestination(i);
+          if (newConnection.getDestinationDelay(i) == 0) {
             r.signalReceptionStart();
           } else {
 
@@ -266,13 +482,13 @@ public abstract class AbstractRadioMedium extends RadioMedium {
             };
             simulation.scheduleEvent(
                 delayedEvent,
-                simulation.getSimulationTime() + newConnection.getDestinationDelay(r));
+                simulation.getSimulationTime() + newConnection.getDestinationDelay(i));
 
           }
         }
 
         /* Update signal strengths */
-        updateSignalStrengths();
+        updateSignalStrengths(null, newConnection);
 
         /* Notify observers */
         lastConnection = null;
@@ -288,11 +504,18 @@ public abstract class AbstractRadioMedium extends RadioMedium {
           return;
         }
 
-        activeConnections.remove(connection);
+        removeActiveConnection(connection);
+        if (!connectionsRetrieved &&
+            radioMediumObservable.countObservers() == 0) {
+          /* The previously finished connection is no longer referenced */
+          recycleConnection(finishedConnection);
+        }
+        finishedConnection = connection;
         lastConnection = connection;
         COUNTER_TX++;
-        for (Radio dstRadio : connection.getAllDestinations()) {
-          if (connection.getDestinationDelay(dstRadio) == 0) {
+        for (int i=0; i < connection.getAllDestinationsCount(); i++) {
+          Radio dstRadio = connection.getDestination(i);
+          if (connection.getDestinationDelay(i) == 0) {
             dstRadio.signalReceptionEnd();
           } else {
 
@@ -305,17 +528,17 @@ public abstract class AbstractRadioMedium extends RadioMedium {
             };
             simulation.scheduleEvent(
                 delayedEvent,
-                simulation.getSimulationTime() + connection.getDestinationDelay(dstRadio));
+                simulation.getSimulationTime() + connection.getDestinationDelay(i));
           }
         }
-        COUNTER_RX += connection.getDestinations().length;
-        COUNTER_INTERFERED += connection.getInterfered().length;
-        for (Radio intRadio : connection.getInterferedNonDestinations()) {
-          intRadio.signalReceptionEnd();
+        COUNTER_RX += connection.getDestinationsCount();
+        COUNTER_INTERFERED += connection.getInterferedCount();
+        for (int i=0; i < connection.getInterferedNonDestinationsCount(); i++) {
+          connection.getInterferedNonDestination(i).signalReceptionEnd();
         }
 
         /* Update signal strengths */
-        updateSignalStrengths();
+        updateSignalStrengths(null, connection);
 
         /* Notify observers */
         radioMediumObservable.setRadioMediumChangedAndNotify();
@@ -336,20 +559,14 @@ public abstract class AbstractRadioMedium extends RadioMedium {
           return;
         }
 
-        for (Radio dstRadio : connection.getAllDestinations()) {
-
-          if (!radio.getClass().equals(dstRadio.getClass()) ||
-              !(radio instanceof CustomDataRadio)) {
-            /* Radios communicate via radio packets */
-            continue;
-          }
-
-          if (connection.getDestinationDelay(dstRadio) == 0) {
-            ((CustomDataRadio) dstRadio).receiveCustomData(data);
+        for (int i=0; i < connection.getCustomDataDestinationsCount(); i++) {
+          CustomDataRadio dstRadio = (CustomDataRadio) connection.getCustomDataDestination(i);
+          if (connection.getCustomDataDelay(i) == 0) {
+            dstRadio.receiveCustomData(data);
           } else {
 
             /* EXPERIMENTAL: Simulating propagation delay */
-            final CustomDataRadio delayedRadio = (CustomDataRadio) dstRadio;
+            final CustomDataRadio delayedRadio = dstRadio;
             final Object delayedData = data;
             TimeEvent delayedEvent = new TimeEvent(0) {
               public void execute(long t) {
@@ -358,7 +575,7 @@ public abstract class AbstractRadioMedium extends RadioMedium {
             };
             simulation.scheduleEvent(
                 delayedEvent,
-                simulation.getSimulationTime() + connection.getDestinationDelay(dstRadio));
+                simulation.getSimulationTime() + connection.getCustomDataDelay(i));
 
           }
         }
@@ -379,7 +596,8 @@ public abstract class AbstractRadioMedium extends RadioMedium {
           return;
         }
 
-        for (Radio dstRadio : connection.getAllDestinations()) {
+        for (int i=0; i < connection.getAllDestinationsCount(); i++) {
+          Radio dstRadio = connection.getDestination(i);
 
           if (radio.getClass().equals(dstRadio.getClass()) &&
               radio instanceof CustomDataRadio) {
@@ -388,7 +606,7 @@ public abstract class AbstractRadioMedium extends RadioMedium {
           }
 
           /* Forward radio packet */
-          if (connection.getDestinationDelay(dstRadio) == 0) {
+          if (connection.getDestinationDelay(i) == 0) {
             dstRadio.setReceivedPacket(packet);
           } else {
 
@@ -402,7 +620,7 @@ public abstract class AbstractRadioMedium extends RadioMedium {
             };
             simulation.scheduleEvent(
                 delayedEvent,
-                simulation.getSimulationTime() + connection.getDestinationDelay(dstRadio));
+                simulation.getSimulationTime() + connection.getDestinationDelay(i));
           }
 
         }
@@ -428,10 +646,11 @@ public abstract class AbstractRadioMedium extends RadioMedium {
     }
 
     registeredRadios.add(radio);
+    registeredRadiosArray = null;
     radio.addObserver(radioEventsObserver);
 
     /* Update signal strengths */
-    updateSignalStrengths();
+    updateSignalStrengths(radio, null);
   }
 
   public void unregisterRadioInterface(Radio radio, Simulation sim) {
@@ -442,11 +661,15 @@ public abstract class AbstractRadioMedium extends RadioMedium {
 
     radio.deleteObserver(radioEventsObserver);
     registeredRadios.remove(radio);
+    registeredRadiosArray = null;
 
     removeFromActiveConnections(radio);
+    synchronized (outdatedRadios) {
+      outdatedRadios.remove(radio);
+    }
 
     /* Update signal strengths */
-    updateSignalStrengths();
+    updateSignalStrengths(radio, null);
   }
 
   public void addRadioMediumObserver(Observer observer) {
@@ -462,7 +685,15 @@ public abstract class AbstractRadioMedium extends RadioMedium {
   }
 
   public RadioConnection getLastConnection() {
+    /* Caller may keep the connection: stop reusing connections */
+    stopReusingConnections();
     return lastConnection;
   }
 
+  private void stopReusingConnections() {
+    /* May be called from any thread: the pool is cleared by the simulation
+     * thread when creating the next connection */
+    connectionsRetrieved = true;
+  }
+
 }
@@ -275,11 +275,11 @@ public class DirectedGraphMedium extends AbstractRadioMedium {
     }
     if (edgesDirty) {
       logger.fatal("Error when analyzing edges, aborting new radio connection");
-      return new RadioConnection(source);
+      return newConnection(source);
     }
 
     /* Create new radio connection using edge hash table */
-    RadioConnection newConn = new RadioConnection(source);
+    RadioConnection newConn = newConnection(source);
     DestinationRadio[] destinations = getPotentialDestinations(source);
     if (destinations == null || destinations.length == 0) {
       /* No destinations */
@@ -0,0 +1,305 @@
+/*
+ * Copyright (c) 2010, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * $Id$
+ */
+
+package se.sics.cooja.radiomediums;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import se.sics.cooja.interfaces.Position;
+import se.sics.cooja.interfaces.Radio;
+import se.sics.cooja.radiomediums.DirectedGraphMedium.DestinationRadio;
+
+/**
+ * Uniform grid index of radio positions, used to find all radios within
+ * a given range of a radio.
+ *
+ * The grid cell size equals the range, so only the 3x3 cells surrounding a
+ * radio need to be searched. When a radio moves, only the edges of the
+ * moved radio are recomputed.
+ * Updates are applied lazily, on the next neighbor lookup.
+ *
+ * Neighbors are returned in radio registration order.
+ *
+ * The index is not thread-safe: while the simulation is running, it may only
+ * be accessed from the simulation thread.
+ *
+ * @see UDGM
+ */
+public class RadioGridIndex {
+  /* Rebuild entire index if more than this fraction of radios moved */
+  private static final int REBUILD_FRACTION = 4;
+
+  private double range;
+
+  private HashMap<Radio, Entry> entries = new HashMap<Radio, Entry>();
+  private HashMap<Long, ArrayList<Entry>> cells = new HashMap<Long, ArrayList<Entry>>();
+
+  private ArrayList<Entry> movedEntries = new ArrayList<Entry>();
+  private boolean needsRebuild = true;
+
+  private long orderCounter = 0;
+
+  private static final DestinationRadio[] NO_NEIGHBORS = new DestinationRadio[0];
+
+  private static class Entry {
+    final Radio radio;
+    final long order; /* Registration order */
+    final DestinationRadio destination;
+
+    long cell;
+    boolean moved = false;
+    ArrayList<Entry> neighbors = new ArrayList<Entry>();
+    DestinationRadio[] neighborsArray = null;
+
+    Entry(Radio radio, long order) {
+      this.radio = radio;
+      this.order = order;
+      this.destination = new DestinationRadio(radio);
+    }
+  }
+
+  /**
+   * @param range Radios closer than range are neighbors
+   */
+  public RadioGridIndex(double range) {
+    this.range = range;
+  }
+
+  /**
+   * Changes the neighbor range. The entire index is rebuilt.
+   *
+   * @param range Radios closer than range are neighbors
+   */
+  public void setRange(double range) {
+    if (this.range == range) {
+      return;
+    }
+    this.range = range;
+    needsRebuild = true;
+  }
+
+  public void addRadio(Radio radio) {
+    if (entries.containsKey(radio)) {
+      return;
+    }
+    Entry entry = new Entry(radio, orderCounter++);
+    entries.put(radio, entry);
+    radioMoved(entry);
+  }
+
+  public void removeRadio(Radio radio) {
+    Entry entry = entries.remove(radio);
+    if (entry == null) {
+      return;
+    }
+    if (needsRebuild) {
+      return;
+    }
+
+    if (entry.moved) {
+      movedEntries.remove(entry);
+    }
+    unlink(entry);
+    ArrayList<Entry> cell = cells.get(entry.cell);
+    if (cell != null) {
+      cell.remove(entry);
+    }
+  }
+
+  /**
+   * Signals that the position of given radio changed.
+   *
+   * @param radio Radio
+   */
+  public void radioMoved(Radio radio) {
+    Entry entry = entries.get(radio);
+    if (entry == null) {
+      return;
+    }
+    radioMoved(entry);
+  }
+
+  private void radioMoved(Entry entry) {
+    if (needsRebuild || entry.moved) {
+      return;
+    }
+    entry.moved = true;
+    movedEntries.add(entry);
+    if (movedEntries.size() > 1 + entries.size()/REBUILD_FRACTION) {
+      needsRebuild = true;
+    }
+  }
+
+  /**
+   * Returns all radios closer than the range of the given radio.
+   * The returned array must not be modified.
+   *
+   * @param radio Radio
+   * @return Neighbor radios, in registration order
+   */
+  public DestinationRadio[] getNeighbors(Radio radio) {
+    update();
+
+    Entry entry = entries.get(radio);
+    if (entry == null) {
+      return NO_NEIGHBORS;
+    }
+    if (entry.neighborsArray == null) {
+      DestinationRadio[] arr = new DestinationRadio[entry.neighbors.size()];
+      for (int i=0; i < arr.length; i++) {
+        arr[i] = entry.neighbors.get(i).destination;
+      }
+      entry.neighborsArray = arr;
+    }
+    return entry.neighborsArray;
+  }
+
+  private void update() {
+    if (needsRebuild) {
+      rebuild();
+      return;
+    }
+
+    for (Entry entry: movedEntries) {
+      entry.moved = false;
+
+      /* Remove old edges */
+      unlink(entry);
+
+      /* Move to new cell */
+      ArrayList<Entry> cell = cells.get(entry.cell);
+      if (cell != null) {
+        cell.remove(entry);
+      }
+      addToCell(entry);
+
+      /* Add new edges */
+      findNeighbors(entry);
+      for (Entry neighbor: entry.neighbors) {
+        insertSorted(neighbor.neighbors, entry);
+        neighbor.neighborsArray = null;
+      }
+    }
+    movedEntries.clear();
+  }
+
+  private void rebuild() {
+    cells.clear();
+    for (Entry entry: entries.values()) {
+      entry.moved = false;
+      addToCell(entry);
+    }
+    for (Entry entry: entries.values()) {
+      findNeighbors(entry);
+    }
+    movedEntries.clear();
+    needsRebuild = false;
+  }
+
+  private void unlink(Entry entry) {
+    for (Entry neighbor: entry.neighbors) {
+      neighbor.neighbors.remove(entry);
+      neighbor.neighborsArray = null;
+    }
+    entry.neighbors.clear();
+    entry.neighborsArray = null;
+  }
+
+  private long getCellX(Position pos) {
+    return (long) Math.floor(pos.getXCoordinate() / getCellSize());
+  }
+
+  private long getCellY(Position pos) {
+    return (long) Math.floor(pos.getYCoordinate() / getCellSize());
+  }
+
+  private double getCellSize() {
+    /* Avoid division by zero: no radios are neighbors anyway */
+    return Math.max(range, 1.0);
+  }
+
+  private static long getCellKey(long x, long y) {
+    return (x << 32) ^ (y & 0xFFFFFFFFL);
+  }
+
+  private void addToCell(Entry entry) {
+    Position pos = entry.radio.getPosition();
+    entry.cell = getCellKey(getCellX(pos), getCellY(pos));
+
+    ArrayList<Entry> cell = cells.get(entry.cell);
+    if (cell == null) {
+      cell = new ArrayList<Entry>();
+      cells.put(entry.cell, cell);
+    }
+    cell.add(entry);
+  }
+
+  private void findNeighbors(Entry entry) {
+    Position pos = entry.radio.getPosition();
+    long cellX = getCellX(pos);
+    long cellY = getCellY(pos);
+
+    entry.neighbors.clear();
+    entry.neighborsArray = null;
+    for (long x = cellX-1; x <= cellX+1; x++) {
+      for (long y = cellY-1; y <= cellY+1; y++) {
+        ArrayList<Entry> cell = cells.get(getCellKey(x, y));
+        if (cell == null) {
+          continue;
+        }
+        for (Entry other: cell) {
+          /* Ignore ourselves */
+          if (other == entry) {
+            continue;
+          }
+          if (pos.getDistanceTo(other.radio.getPosition()) < range) {
+            insertSorted(entry.neighbors, other);
+          }
+        }
+      }
+    }
+  }
+
+  private static void insertSorted(ArrayList<Entry> list, Entry entry) {
+    int low = 0, high = list.size();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (list.get(mid).order < entry.order) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    list.add(low, entry);
+  }
+
+}
@@ -44,7 +44,6 @@ import se.sics.cooja.ClassDescription;
 import se.sics.cooja.Mote;
 import se.sics.cooja.RadioConnection;
 import se.sics.cooja.Simulation;
-import se.sics.cooja.SimEventCentral.MoteCountListener;
 import se.sics.cooja.interfaces.Position;
 import se.sics.cooja.interfaces.Radio;
 import se.sics.cooja.plugins.Visualizer;
@@ -90,7 +89,31 @@ public class UDGM extends AbstractRadioMedium {
   public double INTERFERENCE_RANGE = 100; /* Interference range. Ignored if below transmission range. */
 
   private Simulation simulation;
-  private DirectedGraphMedium dgrm; /* Used only for efficient destination lookup */
+  private RadioGridIndex neighbors; /* Used only for efficient destination lookup */
+
+  /* If any positions change, re-analyze potential receivers.
+   * Positions may be changed from other threads, such as the GUI thread */
+  private Observer positionObserver = new Observer() {
+    public void update(Observable o, Object arg) {
+      final Radio radio = ((Mote) arg).getInterfaces().getRadio();
+      if (radio == null) {
+        return;
+      }
+
+      Runnable radioMoved = new Runnable() {
+        public void run() {
+          neighbors.radioMoved(radio);
+          invalidateSignalStrengths(radio);
+        }
+      };
+
+      if (!simulation.isRunning() || simulation.isSimulationThread()) {
+        radioMoved.run();
+      } else {
+        simulation.invokeSimulationThread(radioMoved);
+      }
+    }
+  };
 
   private Random random = null;
 
@@ -98,54 +121,7 @@ public class UDGM extends AbstractRadioMedium {
     super(simulation);
     this.simulation = simulation;
     random = simulation.getRandomGenerator();
-    dgrm = new DirectedGraphMedium() {
-      protected void analyzeEdges() {
-        /* Create edges according to distances.
-         * XXX May be slow for mobile networks */
-        clearEdges();
-        for (Radio source: UDGM.this.getRegisteredRadios()) {
-          Position sourcePos = source.getPosition();
-          for (Radio dest: UDGM.this.getRegisteredRadios()) {
-            Position destPos = dest.getPosition();
-            /* Ignore ourselves */
-            if (source == dest) {
-              continue;
-            }
-            double distance = sourcePos.getDistanceTo(destPos);
-            if (distance < Math.max(TRANSMITTING_RANGE, INTERFERENCE_RANGE)) {
-              /* Add potential destination */
-              addEdge(
-                  new DirectedGraphMedium.Edge(source, 
-                      new DestinationRadio(dest)));
-            }
-          }
-        }
-        super.analyzeEdges();
-      }
-    };
-
-    /* Register as position observer.
-     * If any positions change, re-analyze potential receivers. */
-    final Observer positionObserver = new Observer() {
-      public void update(Observable o, Object arg) {
-        dgrm.requestEdgeAnalysis();
-      }
-    };
-    /* Re-analyze potential receivers if radios are added/removed. */
-    simulation.getEventCentral().addMoteCountListener(new MoteCountListener() {
-      public void moteWasAdded(Mote mote) {
-        mote.getInterfaces().getPosition().addObserver(positionObserver);
-        dgrm.requestEdgeAnalysis();
-      }
-      public void moteWasRemoved(Mote mote) {
-        mote.getInterfaces().getPosition().deleteObserver(positionObserver);
-        dgrm.requestEdgeAnalysis();
-      }
-    });
-    for (Mote mote: simulation.getMotes()) {
-      mote.getInterfaces().getPosition().addObserver(positionObserver);
-    }
-    dgrm.requestEdgeAnalysis();
+    neighbors = new RadioGridIndex(Math.max(TRANSMITTING_RANGE, INTERFERENCE_RANGE));
 
     /* Register visualizer skin.
      * TODO Should be unregistered when radio medium is removed */
@@ -154,16 +130,37 @@ public class UDGM extends AbstractRadioMedium {
 
   public void setTxRange(double r) {
     TRANSMITTING_RANGE = r;
-    dgrm.requestEdgeAnalysis();
+    neighbors.setRange(Math.max(TRANSMITTING_RANGE, INTERFERENCE_RANGE));
   }
 
   public void setInterferenceRange(double r) {
     INTERFERENCE_RANGE = r;
-    dgrm.requestEdgeAnalysis();
+    neighbors.setRange(Math.max(TRANSMITTING_RANGE, INTERFERENCE_RANGE));
+  }
+
+  public void registerRadioInterface(Radio radio, Simulation sim) {
+    super.registerRadioInterface(radio, sim);
+    if (radio == null) {
+      return;
+    }
+
+    /* Re-analyze potential receivers if radios are added/removed */
+    radio.getPosition().addObserver(positionObserver);
+    neighbors.addRadio(radio);
+  }
+
+  public void unregisterRadioInterface(Radio radio, Simulation sim) {
+    super.unregisterRadioInterface(radio, sim);
+    if (radio == null) {
+      return;
+    }
+
+    radio.getPosition().deleteObserver(positionObserver);
+    neighbors.removeRadio(radio);
   }
 
   public RadioConnection createConnections(Radio sender) {
-    RadioConnection newConnection = new RadioConnection(sender);
+    RadioConnection newConnection = newConnection(sender);
 
     /* Fail radio transmission randomly - no radios will hear this transmission */
     if (SUCCESS_RATIO_TX < 1.0 && random.nextDouble() > SUCCESS_RATIO_TX) {
@@ -177,7 +174,7 @@ public class UDGM extends AbstractRadioMedium {
     * ((double) sender.getCurrentOutputPowerIndicator() / (double) sender.getOutputPowerIndicatorMax());
 
     /* Get all potential destination radios */
-    DestinationRadio[] potentialDestinations = dgrm.getPotentialDestinations(sender);
+    DestinationRadio[] potentialDestinations = neighbors.getNeighbors(sender);
     if (potentialDestinations == null) {
       return newConnection;
     }
@@ -248,60 +245,63 @@ public class UDGM extends AbstractRadioMedium {
     return newConnection;
   }
 
-  public void updateSignalStrengths() {
+  protected void updateSignalStrength(Radio radio) {
     /* Override: uses distance as signal strength factor */
-    
-    /* Reset signal strengths */
-    for (Radio radio : getRegisteredRadios()) {
-      radio.setCurrentSignalStrength(SS_NOTHING);
-    }
+
+    /* Reset signal strength */
+    radio.setCurrentSignalStrength(SS_NOTHING);
+    RadioConnection[] conns = getActiveConnections(radio);
 
     /* Set signal strength to below strong on destinations */
-    RadioConnection[] conns = getActiveConnections();
     for (RadioConnection conn : conns) {
-      if (conn.getSource().getCurrentSignalStrength() < SS_STRONG) {
-        conn.getSource().setCurrentSignalStrength(SS_STRONG);
+      if (conn.getSource() == radio) {
+        if (radio.getCurrentSignalStrength() < SS_STRONG) {
+          radio.setCurrentSignalStrength(SS_STRONG);
+        }
+        continue;
       }
-      for (Radio dstRadio : conn.getDestinations()) {
-        double dist = conn.getSource().getPosition().getDistanceTo(dstRadio.getPosition());
+      if (!conn.isDestination(radio)) {
+        continue;
+      }
+      double dist = conn.getSource().getPosition().getDistanceTo(radio.getPosition());
 
-        double maxTxDist = TRANSMITTING_RANGE
-        * ((double) conn.getSource().getCurrentOutputPowerIndicator() / (double) conn.getSource().getOutputPowerIndicatorMax());
-        double distFactor = dist/maxTxDist;
+      double maxTxDist = TRANSMITTING_RANGE
+      * ((double) conn.getSource().getCurrentOutputPowerIndicator() / (double) conn.getSource().getOutputPowerIndicatorMax());
+      double distFactor = dist/maxTxDist;
 
-        double signalStrength = SS_STRONG + distFactor*(SS_WEAK - SS_STRONG);
-        if (dstRadio.getCurrentSignalStrength() < signalStrength) {
-          dstRadio.setCurrentSignalStrength(signalStrength);
-        }
+      double signalStrength = SS_STRONG + distFactor*(SS_WEAK - SS_STRONG);
+      if (radio.getCurrentSignalStrength() < signalStrength) {
+        radio.setCurrentSignalStrength(signalStrength);
       }
     }
 
     /* Set signal strength to below weak on interfered */
     for (RadioConnection conn : conns) {
-      for (Radio intfRadio : conn.getInterfered()) {
-        double dist = conn.getSource().getPosition().getDistanceTo(intfRadio.getPosition());
+      if (!conn.isInterfered(radio)) {
+        continue;
+      }
+      double dist = conn.getSource().getPosition().getDistanceTo(radio.getPosition());
 
-        double maxTxDist = TRANSMITTING_RANGE
-        * ((double) conn.getSource().getCurrentOutputPowerIndicator() / (double) conn.getSource().getOutputPowerIndicatorMax());
-        double distFactor = dist/maxTxDist;
+      double maxTxDist = TRANSMITTING_RANGE
+      * ((double) conn.getSource().getCurrentOutputPowerIndicator() / (double) conn.getSource().getOutputPowerIndicatorMax());
+      double distFactor = dist/maxTxDist;
 
-        if (distFactor < 1) {
-          double signalStrength = SS_STRONG + distFactor*(SS_WEAK - SS_STRONG);
-          if (intfRadio.getCurrentSignalStrength() < signalStrength) {
-            intfRadio.setCurrentSignalStrength(signalStrength);
-          }
-        } else {
-          intfRadio.setCurrentSignalStrength(SS_WEAK);
-          if (intfRadio.getCurrentSignalStrength() < SS_WEAK) {
-            intfRadio.setCurrentSignalStrength(SS_WEAK);
-          }
+      if (distFactor < 1) {
+        double signalStrength = SS_STRONG + distFactor*(SS_WEAK - SS_STRONG);
+        if (radio.getCurrentSignalStrength() < signalStrength) {
+          radio.setCurrentSignalStrength(signalStrength);
         }
-
-        if (!intfRadio.isInterfered()) {
-          /*logger.warn("Radio was not interfered: " + intfRadio);*/
-          intfRadio.interfereAnyReception();
+      } else {
+        radio.setCurrentSignalStrength(SS_WEAK);
+        if (radio.getCurrentSignalStrength() < SS_WEAK) {
+          radio.setCurrentSignalStrength(SS_WEAK);
         }
       }
+
+      if (!radio.isInterfered()) {
+        /*logger.warn("Radio was not interfered: " + radio);*/
+        radio.interfereAnyReception();
+      }
     }
   }
 
@@ -356,6 +356,7 @@ public class UDGM extends AbstractRadioMedium {
         SUCCESS_RATIO_RX = Double.parseDouble(element.getText());
       }
     }
+    neighbors.setRange(Math.max(TRANSMITTING_RANGE, INTERFERENCE_RANGE));
     return true;
   }
 
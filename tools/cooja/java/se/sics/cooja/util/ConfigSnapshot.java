@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2010, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * $Id$
+ */
+
+package se.sics.cooja.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.jdom.Attribute;
+import org.jdom.CDATA;
+import org.jdom.Element;
+import org.jdom.JDOMException;
+import org.jdom.Text;
+import org.jdom.input.SAXBuilder;
+
+/**
+ * Compact binary snapshot of a simulation config (.csc) tree.
+ * Loading a snapshot avoids XML parsing when the same simulation is loaded
+ * repeatedly.
+ * <p>
+ * Format: magic ('CSCB'), version, followed by a deflated element tree.
+ * Every string is written once, and later referenced by its index in a
+ * string table built while writing. Element and attribute names, and
+ * repeated texts such as mote interface class names, are hence only stored
+ * once. Whitespace-only text in elements that also have child elements is
+ * not stored.
+ * <p>
+ * Convert an XML config to a snapshot:
+ * <pre>
+ * java se.sics.cooja.util.ConfigSnapshot sim.csc sim.cscb
+ * </pre>
+ */
+public class ConfigSnapshot {
+  public static final String SUFFIX = ".cscb";
+
+  private static final int MAGIC = 0x43534342; /* 'CSCB' */
+  private static final int VERSION = 1;
+
+  private static final int CONTENT_ELEMENT = 0;
+  private static final int CONTENT_TEXT = 1;
+  private static final int CONTENT_CDATA = 2;
+
+  private ConfigSnapshot() {
+    // Prevent instances of this class
+  }
+
+  /**
+   * @param file File
+   * @return True if file starts with a config snapshot header
+   */
+  public static boolean isSnapshot(File file) {
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new FileInputStream(file));
+      return in.readInt() == MAGIC;
+    } catch (IOException e) {
+      return false;
+    } finally {
+      if (in != null) {
+        try {
+          in.close();
+        } catch (IOException e) {
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes config tree as a snapshot to file.
+   *
+   * @param root Config root element
+   * @param file Snapshot file
+   * @throws IOException If writing fails
+   */
+  public static void write(Element root, File file) throws IOException {
+    OutputStream out = new FileOutputStream(file);
+    try {
+      write(root, out);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Writes config tree as a snapshot to stream.
+   *
+   * @param root Config root element
+   * @param stream Output stream, not closed
+   * @throws IOException If writing fails
+   */
+  public static void write(Element root, OutputStream stream) throws IOException {
+    DataOutputStream header = new DataOutputStream(stream);
+    header.writeInt(MAGIC);
+    header.writeInt(VERSION);
+    header.flush();
+
+    DeflaterOutputStream deflater = new DeflaterOutputStream(stream);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(deflater));
+    writeElement(out, root, new HashMap<String, Integer>());
+    out.flush();
+    deflater.finish();
+  }
+
+  /**
+   * Reads config tree from snapshot file.
+   *
+   * @param file Snapshot file
+   * @return Config root element
+   * @throws IOException If file is not a valid snapshot
+   */
+  public static Element read(File file) throws IOException {
+    InputStream in = new FileInputStream(file);
+    try {
+      return read(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Reads config tree from snapshot stream.
+   *
+   * @param stream Input stream, not closed
+   * @return Config root element
+   * @throws IOException If stream is not a valid snapshot
+   */
+  public static Element read(InputStream stream) throws IOException {
+    DataInputStream header = new DataInputStream(stream);
+    if (header.readInt() != MAGIC) {
+      throw new IOException("Not a config snapshot");
+    }
+    int version = header.readInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported config snapshot version: " + version);
+    }
+
+    DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new InflaterInputStream(stream)));
+    return readElement(in, new ArrayList<String>());
+  }
+
+  private static void writeElement(DataOutputStream out, Element element,
+      HashMap<String, Integer> strings) throws IOException {
+    writeString(out, element.getName(), strings);
+
+    List<?> attributes = element.getAttributes();
+    writeVarInt(out, attributes.size());
+    for (Object o: attributes) {
+      Attribute attribute = (Attribute) o;
+      writeString(out, attribute.getName(), strings);
+      writeString(out, attribute.getValue(), strings);
+    }
+
+    boolean hasChildren = !element.getChildren().isEmpty();
+    List<?> content = element.getContent();
+    int count = 0;
+    for (Object o: content) {
+      if (o instanceof Element) {
+        count++;
+      } else if (o instanceof Text) {
+        if (!hasChildren || ((Text)o).getTextTrim().length() > 0) {
+          count++;
+        }
+      }
+    }
+    writeVarInt(out, count);
+    for (Object o: content) {
+      if (o instanceof Element) {
+        out.writeByte(CONTENT_ELEMENT);
+        writeElement(out, (Element) o, strings);
+      } else if (o instanceof Text) {
+        if (!hasChildren || ((Text)o).getTextTrim().length() > 0) {
+          out.writeByte(o instanceof CDATA ? CONTENT_CDATA : CONTENT_TEXT);
+          writeString(out, ((Text)o).getText(), strings);
+        }
+      }
+    }
+  }
+
+  private static Element readElement(DataInputStream in, ArrayList<String> strings)
+  throws IOException {
+    Element element = new Element(readString(in, strings));
+
+    int attributes = readVarInt(in);
+    for (int i=0; i < attributes; i++) {
+      String name = readString(in, strings);
+      element.setAttribute(name, readString(in, strings));
+    }
+
+    int count = readVarInt(in);
+    for (int i=0; i < count; i++) {
+      int type = in.readByte();
+      if (type == CONTENT_ELEMENT) {
+        element.addContent(readElement(in, strings));
+      } else if (type == CONTENT_TEXT) {
+        element.addContent(new Text(readString(in, strings)));
+      } else if (type == CONTENT_CDATA) {
+        element.addContent(new CDATA(readString(in, strings)));
+      } else {
+        throw new IOException("Corrupt config snapshot: content type " + type);
+      }
+    }
+    return element;
+  }
+
+  /* Strings: index in string table, followed by UTF-8 data if new */
+  private static void writeString(DataOutputStream out, String s,
+      HashMap<String, Integer> strings) throws IOException {
+    Integer index = strings.get(s);
+    if (index != null) {
+      writeVarInt(out, index);
+      return;
+    }
+    index = strings.size();
+    strings.put(s, index);
+    writeVarInt(out, index);
+
+    byte[] data = s.getBytes("UTF-8");
+    writeVarInt(out, data.length);
+    out.write(data);
+  }
+
+  private static String readString(DataInputStream in, ArrayList<String> strings)
+  throws IOException {
+    int index = readVarInt(in);
+    if (index < strings.size()) {
+      return strings.get(index);
+    }
+    if (index != strings.size()) {
+      throw new IOException("Corrupt config snapshot: string " + index);
+    }
+
+    byte[] data = new byte[readVarInt(in)];
+    in.readFully(data);
+    String s = new String(data, "UTF-8");
+    strings.add(s);
+    return s;
+  }
+
+  private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+    while ((value & ~0x7f) != 0) {
+      out.writeByte((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  private static int readVarInt(DataInputStream in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new EOFException("Corrupt config snapshot: bad integer");
+  }
+
+  public static void main(String[] args) {
+    if (args.length != 2) {
+      System.err.println("Usage: java " + ConfigSnapshot.class.getName() + " <sim.csc> <sim" + SUFFIX + ">");
+      System.exit(1);
+    }
+
+    try {
+      Element root = new SAXBuilder().build(new File(args[0])).getRootElement();
+      write(root, new File(args[1]));
+    } catch (JDOMException e) {
+      System.err.println("Config not wellformed: " + e.getMessage());
+      System.exit(1);
+    } catch (IOException e) {
+      System.err.println("Could not convert config: " + e.getMessage());
+      System.exit(1);
+    }
+  }
+}
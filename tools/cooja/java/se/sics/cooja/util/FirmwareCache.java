@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) 2010, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * $Id$
+ */
+
+package se.sics.cooja.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+
+import se.sics.cooja.GUI;
+
+/**
+ * Content-addressed cache of compiled Contiki firmware.
+ *
+ * Entries are keyed by a SHA-1 over the compile commands, the compilation
+ * environment, any generated sources, and the Contiki and application
+ * source trees. An entry holds the build outputs in a caller-defined order,
+ * e.g. firmware followed by map file, and an optional info string.
+ * Callers should normalize generated sources, so that names only used
+ * for output files do not affect the key.
+ *
+ * Entries are written to a temporary directory and renamed into place,
+ * and are never modified afterwards, so concurrent simulations may share
+ * a single cache directory.
+ *
+ * The cache directory is configured by the FIRMWARE_CACHE external tools
+ * setting. If unset, ~/.cooja.firmwarecache is used; "false" disables it.
+ *
+ * @see #getDefault()
+ */
+public class FirmwareCache {
+  private static Logger logger = Logger.getLogger(FirmwareCache.class);
+
+  public static final String DEFAULT_DIRECTORY = ".cooja.firmwarecache";
+
+  private static final String[] SOURCE_SUFFIXES = new String[] {
+    ".c", ".h", ".s", ".S", ".ld", ".mk"
+  };
+
+  /* Sources regenerated by every build, e.g. by Makefile.cooja */
+  private static final String[] BUILD_OUTPUTS = new String[] {
+    "symbols.c", "symbols.h"
+  };
+
+  private static final String INFO_FILENAME = "info";
+
+  private static final Random random = new Random();
+
+  private final File directory;
+
+  public FirmwareCache(File directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * @return Cache configured by external tools settings, or null if disabled
+   */
+  public static FirmwareCache getDefault() {
+    if (GUI.isVisualizedInApplet()) {
+      return null;
+    }
+    String path = GUI.getExternalToolsSetting("FIRMWARE_CACHE", "");
+    if (path.equals("false")) {
+      return null;
+    }
+    if (path.equals("")) {
+      return new FirmwareCache(new File(System.getProperty("user.home"), DEFAULT_DIRECTORY));
+    }
+    return new FirmwareCache(new File(path));
+  }
+
+  public File getDirectory() {
+    return directory;
+  }
+
+  /**
+   * Calculates cache key.
+   *
+   * Application directory sources are hashed by content. Contiki sources
+   * (PATH_CONTIKI) are hashed by path, size and modification time.
+   *
+   * @param appDir Application directory
+   * @param commands Compile commands
+   * @param env Compilation environment, or null
+   * @param generated Generated source contents, e.g. Contiki main source
+   * @return Key, or null at errors
+   */
+  public static String computeKey(File appDir, String commands, String[] env, String... generated) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      update(digest, "commands", commands);
+      if (env != null) {
+        for (String var: env) {
+          update(digest, "env", var);
+        }
+      }
+      for (String source: generated) {
+        update(digest, "generated", source);
+      }
+
+      String contikiPath = GUI.getExternalToolsSetting("PATH_CONTIKI", null);
+      if (contikiPath != null) {
+        File contikiDir = new File(contikiPath);
+        if (contikiDir.isDirectory()) {
+          hashTree(digest, contikiDir, "", false);
+        }
+      }
+      hashTree(digest, appDir, "", true);
+
+      return StringUtils.toHex(digest.digest());
+    } catch (NoSuchAlgorithmException e) {
+      logger.warn("Firmware cache disabled: " + e.getMessage());
+    } catch (IOException e) {
+      logger.warn("Could not calculate firmware cache key: " + e.getMessage());
+    }
+    return null;
+  }
+
+  private static void update(MessageDigest digest, String tag, String value) {
+    digest.update(tag.getBytes());
+    digest.update((byte) 0);
+    if (value != null) {
+      digest.update(value.getBytes());
+    }
+    digest.update((byte) 0);
+  }
+
+  private static void updateContent(MessageDigest digest, File file) throws IOException {
+    byte[] buf = new byte[8192];
+    InputStream in = new FileInputStream(file);
+    try {
+      int n;
+      while ((n = in.read(buf)) > 0) {
+        digest.update(buf, 0, n);
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  private static void hashTree(MessageDigest digest, File dir, String path, boolean content)
+  throws IOException {
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return;
+    }
+    Arrays.sort(files);
+    for (File file: files) {
+      String name = file.getName();
+      if (name.startsWith(".")) {
+        continue;
+      }
+      if (file.isDirectory()) {
+        if (name.startsWith("obj_") ||
+            !file.getCanonicalFile().getParentFile().equals(dir.getCanonicalFile())) {
+          /* Skip build outputs and symbolic links */
+          continue;
+        }
+        hashTree(digest, file, path + name + "/", content);
+        continue;
+      }
+      if (!isSource(name)) {
+        continue;
+      }
+      if (content) {
+        update(digest, "source", path + name);
+        updateContent(digest, file);
+      } else {
+        update(digest, "file", path + name + ":" + file.length() + ":" + file.lastModified());
+      }
+    }
+  }
+
+  private static boolean isSource(String name) {
+    for (String output: BUILD_OUTPUTS) {
+      if (name.equals(output)) {
+        return false;
+      }
+    }
+    if (name.startsWith("Makefile")) {
+      return true;
+    }
+    for (String suffix: SOURCE_SUFFIXES) {
+      if (name.endsWith(suffix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param key Cache key
+   * @return Info string stored with entry, or null if no such entry
+   */
+  public String getInfo(String key) {
+    if (key == null) {
+      return null;
+    }
+    File info = new File(new File(directory, key), INFO_FILENAME);
+    if (!info.exists()) {
+      return null;
+    }
+    return StringUtils.loadFromFile(info);
+  }
+
+  /**
+   * Copies cached build outputs.
+   *
+   * @param key Cache key
+   * @param targets Output files, in the order they were stored
+   * @return True if all outputs were restored
+   */
+  public boolean restore(String key, File... targets) {
+    if (key == null) {
+      return false;
+    }
+    File entry = new File(directory, key);
+    for (int i=0; i < targets.length; i++) {
+      if (!new File(entry, String.valueOf(i)).exists()) {
+        return false;
+      }
+    }
+    try {
+      for (int i=0; i < targets.length; i++) {
+        File tmp = new File(targets[i].getParentFile(),
+            targets[i].getName() + ".tmp" + Math.abs(random.nextInt()));
+        copy(new File(entry, String.valueOf(i)), tmp);
+        if (!tmp.renameTo(targets[i])) {
+          tmp.delete();
+          throw new IOException("Could not rename " + tmp + " to " + targets[i]);
+        }
+      }
+    } catch (IOException e) {
+      logger.warn("Could not restore cached firmware: " + e.getMessage());
+      return false;
+    }
+    logger.info("Using cached firmware: " + entry);
+    return true;
+  }
+
+  /**
+   * Stores build outputs. Existing entries are kept.
+   *
+   * @param key Cache key
+   * @param info Info string, e.g. names the outputs depend on
+   * @param sources Output files
+   */
+  public void store(String key, String info, File... sources) {
+    if (key == null) {
+      return;
+    }
+    File entry = new File(directory, key);
+    if (entry.exists()) {
+      return;
+    }
+    File tmp = new File(directory, "tmp" + Math.abs(random.nextInt()));
+    try {
+      if (!tmp.mkdirs()) {
+        throw new IOException("Could not create " + tmp);
+      }
+      for (int i=0; i < sources.length; i++) {
+        copy(sources[i], new File(tmp, String.valueOf(i)));
+      }
+      if (!StringUtils.saveToFile(new File(tmp, INFO_FILENAME), info==null?"":info)) {
+        throw new IOException("Could not write " + INFO_FILENAME);
+      }
+      if (!tmp.renameTo(entry) && !entry.exists()) {
+        throw new IOException("Could not rename " + tmp + " to " + entry);
+      }
+    } catch (IOException e) {
+      logger.warn("Could not cache firmware: " + e.getMessage());
+    } finally {
+      if (tmp.exists()) {
+        /* Failed, or another simulation stored the same entry first */
+        for (File file: tmp.listFiles()) {
+          file.delete();
+        }
+        tmp.delete();
+      }
+    }
+  }
+
+  private static void copy(File source, File destination) throws IOException {
+    byte[] buf = new byte[8192];
+    InputStream in = new FileInputStream(source);
+    try {
+      OutputStream out = new FileOutputStream(destination);
+      try {
+        int n;
+        while ((n = in.read(buf)) > 0) {
+          out.write(buf, 0, n);
+        }
+      } finally {
+        out.close();
+      }
+    } finally {
+      in.close();
+    }
+  }
+}